@@ -0,0 +1,136 @@
+package app.capgo.plugin.photo_library;
+
+import android.database.Cursor;
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+
+/**
+ * The columns of one MediaStore row that describe an asset, with dates in milliseconds. A page
+ * reuses one instance and refills it for every row, and column indexes are resolved once per cursor.
+ */
+final class AssetRow {
+
+    /** Column indexes of a cursor, {@code -1} when the column is not part of the projection. */
+    static final class Columns {
+
+        final int id;
+        final int mediaType;
+        final int mimeType;
+        final int displayName;
+        final int size;
+        final int dateAdded;
+        final int dateModified;
+        final int dateTaken;
+        final int width;
+        final int height;
+        final int duration;
+        final int bucketId;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID);
+            mediaType = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MEDIA_TYPE);
+            mimeType = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE);
+            displayName = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME);
+            size = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE);
+            dateAdded = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATE_ADDED);
+            dateModified = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATE_MODIFIED);
+            dateTaken = cursor.getColumnIndex(MediaStore.Images.Media.DATE_TAKEN);
+            width = cursor.getColumnIndex(MediaStore.Images.Media.WIDTH);
+            height = cursor.getColumnIndex(MediaStore.Images.Media.HEIGHT);
+            duration = cursor.getColumnIndex(MediaStore.Video.Media.DURATION);
+            bucketId = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID);
+        }
+    }
+
+    long id;
+    int mediaType;
+    @Nullable
+    String mimeType;
+    @Nullable
+    String displayName;
+    long size;
+    long dateTaken;
+    long dateModified;
+    int width;
+    int height;
+    long duration;
+    @Nullable
+    String bucketId;
+
+    /**
+     * Fills this row from the cursor's current position. Returns {@code false}, leaving the other
+     * fields stale, when the row is neither an image nor a video.
+     */
+    boolean read(Cursor cursor, Columns columns) {
+        mediaType = cursor.getInt(columns.mediaType);
+        if (mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE && mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+            return false;
+        }
+
+        id = cursor.getLong(columns.id);
+        mimeType = cursor.getString(columns.mimeType);
+        displayName = cursor.getString(columns.displayName);
+        size = cursor.getLong(columns.size);
+
+        dateTaken = getLong(cursor, columns.dateTaken);
+        if (dateTaken <= 0) {
+            long dateAdded = getLong(cursor, columns.dateAdded);
+            dateTaken = dateAdded > 0 ? dateAdded * 1000 : 0;
+        }
+        dateModified = getLong(cursor, columns.dateModified);
+        if (dateModified > 0) {
+            dateModified = dateModified * 1000;
+        }
+
+        width = getInt(cursor, columns.width);
+        height = getInt(cursor, columns.height);
+        duration = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO ? getLong(cursor, columns.duration) : 0;
+        bucketId = cursor.getString(columns.bucketId);
+        return true;
+    }
+
+    String type() {
+        return mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE ? "image" : "video";
+    }
+
+    String identifier() {
+        return type() + ":" + id;
+    }
+
+    /**
+     * Writes the asset fields that come straight from the row as members of the current object.
+     * Thumbnail, file and metadata are added by the caller.
+     */
+    void writeTo(PhotoLibraryJsonWriter writer, String identifier, boolean includeAlbumData) {
+        writer.name("id").value(identifier);
+        if (displayName != null) {
+            writer.name("fileName").value(displayName);
+        } else {
+            writer.name("fileName").value(identifier, PhotoLibraryUtils.guessExtension(mimeType));
+        }
+        writer.name("type").repeatedValue(type());
+        writer.name("width").value(width);
+        writer.name("height").value(height);
+        writer.name("mimeType").repeatedValue(mimeType != null ? mimeType : "application/octet-stream");
+        if (duration > 0) {
+            writer.name("duration").value(duration / 1000.0);
+        }
+        if (dateTaken > 0) {
+            writer.name("creationDate").isoDate(dateTaken);
+        }
+        if (dateModified > 0) {
+            writer.name("modificationDate").isoDate(dateModified);
+        }
+        if (bucketId != null && includeAlbumData) {
+            writer.name("albumIds").beginArray().repeatedValue(bucketId).endArray();
+        }
+    }
+
+    private static long getLong(Cursor cursor, int index) {
+        return index == -1 ? 0 : cursor.getLong(index);
+    }
+
+    private static int getInt(Cursor cursor, int index) {
+        return index == -1 ? 0 : cursor.getInt(index);
+    }
+}
@@ -0,0 +1,57 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONException;
+
+final class ExportAssetsOptions {
+
+    static final int DEFAULT_CONCURRENCY = 3;
+
+    /** Distinct identifiers in request order. */
+    final List<String> ids;
+    /** Absolute path, {@code file://} URL, or path relative to the plugin's export directory. */
+    final String destinationDir;
+    final int concurrency;
+
+    private ExportAssetsOptions(List<String> ids, String destinationDir, int concurrency) {
+        this.ids = ids;
+        this.destinationDir = destinationDir;
+        this.concurrency = concurrency;
+    }
+
+    static ExportAssetsOptions fromCall(PluginCall call) {
+        JSArray array = call.getArray("ids");
+        if (array == null || array.length() == 0) {
+            throw new IllegalArgumentException("Parameter 'ids' is required");
+        }
+        Set<String> ids = new LinkedHashSet<>(array.length() * 2);
+        try {
+            for (int i = 0; i < array.length(); i++) {
+                String id = array.getString(i);
+                if (id == null || id.isEmpty()) {
+                    throw new IllegalArgumentException("ids must be non-empty strings");
+                }
+                ids.add(id);
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("ids must be non-empty strings");
+        }
+
+        String destinationDir = call.getString("destinationDir");
+        if (destinationDir == null || destinationDir.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'destinationDir' is required");
+        }
+
+        int concurrency = call.getInt("concurrency", DEFAULT_CONCURRENCY);
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be greater than or equal to 1");
+        }
+
+        return new ExportAssetsOptions(new ArrayList<>(ids), destinationDir, concurrency);
+    }
+}
@@ -0,0 +1,44 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class ExportImageOptions {
+
+    final String id;
+    final int maxWidth;
+    final int maxHeight;
+    final String format;
+    final double quality;
+
+    private ExportImageOptions(String id, int maxWidth, int maxHeight, String format, double quality) {
+        this.id = id;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    static ExportImageOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        int maxWidth = call.getInt("maxWidth", 0);
+        int maxHeight = call.getInt("maxHeight", 0);
+        if (maxWidth < 0 || maxHeight < 0) {
+            throw new IllegalArgumentException("maxWidth and maxHeight must be greater than or equal to 0");
+        }
+
+        String format = call.getString("format", "jpeg");
+        if (!"jpeg".equals(format) && !"png".equals(format) && !"webp".equals(format)) {
+            throw new IllegalArgumentException("format must be one of 'jpeg', 'png' or 'webp'");
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : 0.9;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new ExportImageOptions(id, maxWidth, maxHeight, format, quality);
+    }
+}
@@ -1,6 +1,9 @@
 package app.capgo.plugin.photo_library;
 
 import com.getcapacitor.PluginCall;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 final class GetLibraryOptions {
 
@@ -15,8 +18,15 @@ final class GetLibraryOptions {
     final int thumbnailHeight;
     final double thumbnailQuality;
     final boolean includeFullResolutionData;
+    final boolean progressiveThumbnails;
+    final boolean streamFullResolution;
+    final boolean checksum;
+    final boolean includeExif;
+    final boolean includeLocation;
+    /** Whether the page is returned as parallel per-field arrays instead of asset objects. */
+    final boolean columnar;
 
-    private GetLibraryOptions(
+    GetLibraryOptions(
         int offset,
         Integer limit,
         boolean includeImages,
@@ -27,7 +37,13 @@ final class GetLibraryOptions {
         int thumbnailWidth,
         int thumbnailHeight,
         double thumbnailQuality,
-        boolean includeFullResolutionData
+        boolean includeFullResolutionData,
+        boolean progressiveThumbnails,
+        boolean streamFullResolution,
+        boolean checksum,
+        boolean includeExif,
+        boolean includeLocation,
+        boolean columnar
     ) {
         this.offset = offset;
         this.limit = limit;
@@ -40,6 +56,12 @@ final class GetLibraryOptions {
         this.thumbnailHeight = thumbnailHeight;
         this.thumbnailQuality = thumbnailQuality;
         this.includeFullResolutionData = includeFullResolutionData;
+        this.progressiveThumbnails = progressiveThumbnails;
+        this.streamFullResolution = streamFullResolution;
+        this.checksum = checksum;
+        this.includeExif = includeExif;
+        this.includeLocation = includeLocation;
+        this.columnar = columnar;
     }
 
     static GetLibraryOptions fromCall(PluginCall call) {
@@ -77,6 +99,22 @@ final class GetLibraryOptions {
         thumbnailQuality = Math.max(0.0, Math.min(1.0, thumbnailQuality));
 
         boolean includeFullResolutionData = call.getBoolean("includeFullResolutionData", false);
+        boolean progressiveThumbnails = call.getBoolean("progressiveThumbnails", false);
+
+        String fullResolutionMode = call.getString("fullResolutionMode", "copy");
+        if (!"copy".equals(fullResolutionMode) && !"stream".equals(fullResolutionMode)) {
+            throw new IllegalArgumentException("fullResolutionMode must be either 'copy' or 'stream'");
+        }
+        boolean streamFullResolution = "stream".equals(fullResolutionMode);
+        boolean checksum = call.getBoolean("checksum", false);
+        boolean includeExif = call.getBoolean("includeExif", false);
+        boolean includeLocation = call.getBoolean("includeLocation", false);
+
+        String format = call.getString("format", "objects");
+        if (!"objects".equals(format) && !"columnar".equals(format)) {
+            throw new IllegalArgumentException("format must be either 'objects' or 'columnar'");
+        }
+        boolean columnar = "columnar".equals(format);
 
         return new GetLibraryOptions(
             offset,
@@ -89,7 +127,72 @@ final class GetLibraryOptions {
             thumbnailWidth,
             thumbnailHeight,
             thumbnailQuality,
-            includeFullResolutionData
+            includeFullResolutionData,
+            progressiveThumbnails,
+            streamFullResolution,
+            checksum,
+            includeExif,
+            includeLocation,
+            columnar
+        );
+    }
+
+    /**
+     * Whether a page built with these options is persisted as the warm start snapshot: a bounded
+     * first page without originals, whose thumbnails can be checked before it is served again.
+     */
+    boolean isWarmStart() {
+        return (
+            offset == 0 &&
+            limit != null &&
+            limit <= PhotoLibrarySnapshotStore.MAX_PAGE_ROWS &&
+            !includeFullResolutionData &&
+            !progressiveThumbnails
+        );
+    }
+
+    /** Persists the options, for example with a cached page that is revalidated later. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(offset);
+        out.writeInt(limit != null ? limit : -1);
+        out.writeBoolean(includeImages);
+        out.writeBoolean(includeVideos);
+        out.writeBoolean(includeAlbumData);
+        out.writeBoolean(includeCloudData);
+        out.writeBoolean(useOriginalFileNames);
+        out.writeInt(thumbnailWidth);
+        out.writeInt(thumbnailHeight);
+        out.writeDouble(thumbnailQuality);
+        out.writeBoolean(includeFullResolutionData);
+        out.writeBoolean(progressiveThumbnails);
+        out.writeBoolean(streamFullResolution);
+        out.writeBoolean(checksum);
+        out.writeBoolean(includeExif);
+        out.writeBoolean(includeLocation);
+        out.writeBoolean(columnar);
+    }
+
+    static GetLibraryOptions readFrom(DataInputStream in) throws IOException {
+        int offset = in.readInt();
+        int limit = in.readInt();
+        return new GetLibraryOptions(
+            offset,
+            limit >= 0 ? limit : null,
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readInt(),
+            in.readInt(),
+            in.readDouble(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean(),
+            in.readBoolean()
         );
     }
 }
@@ -0,0 +1,36 @@
+package app.capgo.plugin.photo_library;
+
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+
+/** A library identifier ({@code image:<id>} or {@code video:<id>}) split into its MediaStore parts. */
+final class ParsedIdentifier {
+
+    final long id;
+    final int mediaType;
+
+    private ParsedIdentifier(long id, int mediaType) {
+        this.id = id;
+        this.mediaType = mediaType;
+    }
+
+    @Nullable
+    static ParsedIdentifier parse(String identifier) {
+        if (identifier == null) {
+            return null;
+        }
+        String[] parts = identifier.split(":");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            long id = Long.parseLong(parts[1]);
+            int mediaType = "video".equals(parts[0])
+                ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
+                : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
+            return new ParsedIdentifier(id, mediaType);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
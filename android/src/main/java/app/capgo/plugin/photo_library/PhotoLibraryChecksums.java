@@ -0,0 +1,137 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-256 digests of files in the plugin cache. Digests computed while copying are stored here, in
+ * memory and in a small sidecar file, so later requests never read the cached file again. Entries
+ * are validated against the file length and modification time.
+ */
+final class PhotoLibraryChecksums {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final File directory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    PhotoLibraryChecksums(File directory) {
+        this.directory = directory;
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    void record(File file, String hex) {
+        Entry entry = new Entry(file.length(), file.lastModified(), hex);
+        entries.put(file.getName(), entry);
+        if (!directory.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            directory.mkdirs();
+        }
+        try (Writer writer = new FileWriter(sidecar(file))) {
+            writer.write(entry.length + " " + entry.modified + " " + entry.hex);
+        } catch (IOException ignored) {
+            // The in-memory entry still avoids a second pass for this process.
+        }
+    }
+
+    /** Returns the digest of {@code file}, hashing it only when no valid cached digest exists. */
+    String get(File file) throws IOException {
+        String cached = cached(file);
+        if (cached != null) {
+            return cached;
+        }
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hex = toHex(digest.digest());
+        record(file, hex);
+        return hex;
+    }
+
+    void remove(File file) {
+        entries.remove(file.getName());
+        //noinspection ResultOfMethodCallIgnored
+        sidecar(file).delete();
+    }
+
+    @Nullable
+    private String cached(File file) {
+        Entry entry = entries.get(file.getName());
+        if (entry == null) {
+            entry = readSidecar(file);
+            if (entry != null) {
+                entries.put(file.getName(), entry);
+            }
+        }
+        if (entry == null || entry.length != file.length() || entry.modified != file.lastModified()) {
+            return null;
+        }
+        return entry.hex;
+    }
+
+    @Nullable
+    private Entry readSidecar(File file) {
+        File sidecar = sidecar(file);
+        if (!sidecar.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(sidecar))) {
+            String line = reader.readLine();
+            String[] parts = line != null ? line.split(" ") : new String[0];
+            if (parts.length != 3) {
+                return null;
+            }
+            return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private File sidecar(File file) {
+        return new File(directory, file.getName() + ".sha256");
+    }
+
+    private static final class Entry {
+
+        final long length;
+        final long modified;
+        final String hex;
+
+        Entry(long length, long modified, String hex) {
+            this.length = length;
+            this.modified = modified;
+            this.hex = hex;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@code getLibrary} page in the {@code columnar} format: one JSON array per field instead of
+ * one object per asset, so keys are not repeated for every row. MIME types, media types and album
+ * ids are stored once in dictionaries and referenced by index, and file columns store names
+ * relative to a shared path prefix.
+ *
+ * <p>Every column gets exactly one entry per {@link #add} call, so index {@code i} of each column
+ * describes the same asset.
+ */
+final class PhotoLibraryColumnarPage {
+
+    /** Paths of one kind of file, such as thumbnails. Entries are {@code null} for assets without one. */
+    static final class FileColumn {
+
+        @Nullable
+        private final String pathPrefix;
+        private final String webPathPrefix;
+        private final PhotoLibraryJsonWriter names;
+        @Nullable
+        private final PhotoLibraryJsonWriter webNames;
+        private final PhotoLibraryJsonWriter mimeTypes;
+        private final PhotoLibraryJsonWriter sizes;
+        @Nullable
+        private final PhotoLibraryJsonWriter checksums;
+        private final PhotoLibraryJsonWriter previews;
+        private final Dictionary mimeDictionary;
+        private int count = 0;
+
+        /**
+         * @param pathPrefix {@code null} when the files have no native path, which leaves the
+         *     {@code path} of every entry unset.
+         * @param separateWebNames whether the web path suffix differs from the path suffix, which is
+         *     the case for originals served through the stream handler.
+         */
+        private FileColumn(
+            @Nullable String pathPrefix,
+            String webPathPrefix,
+            boolean separateWebNames,
+            boolean checksum,
+            Dictionary mimeDictionary,
+            int capacity
+        ) {
+            this.pathPrefix = pathPrefix;
+            this.webPathPrefix = webPathPrefix;
+            this.names = column(capacity * 48);
+            this.webNames = separateWebNames ? column(capacity * 16) : null;
+            this.mimeTypes = column(capacity * 2);
+            this.sizes = column(capacity * 8);
+            this.checksums = checksum ? column(capacity * 67) : null;
+            this.previews = column(16);
+            this.mimeDictionary = mimeDictionary;
+        }
+
+        void add(String name, @Nullable String webName, @Nullable String mimeType, long size, boolean preview, @Nullable String checksum) {
+            names.value(name);
+            if (webNames != null) {
+                webNames.value(webName);
+            }
+            mimeTypes.value(mimeDictionary.indexOf(mimeType != null ? mimeType : "application/octet-stream"));
+            sizes.value(size);
+            if (checksums != null) {
+                checksums.value(checksum);
+            }
+            if (preview) {
+                previews.value(count);
+            }
+            count++;
+        }
+
+        void addMissing() {
+            names.nullValue();
+            if (webNames != null) {
+                webNames.nullValue();
+            }
+            mimeTypes.value(-1);
+            sizes.value(-1);
+            if (checksums != null) {
+                checksums.nullValue();
+            }
+            count++;
+        }
+
+        private void writeTo(PhotoLibraryJsonWriter writer) {
+            writer.beginObject();
+            if (pathPrefix != null) {
+                writer.name("pathPrefix").value(pathPrefix);
+            }
+            writer.name("webPathPrefix").value(webPathPrefix);
+            writer.name("name").rawValue(names.endArray());
+            if (webNames != null) {
+                writer.name("webName").rawValue(webNames.endArray());
+            }
+            writer.name("mimeType").rawValue(mimeTypes.endArray());
+            writer.name("size").rawValue(sizes.endArray());
+            if (checksums != null) {
+                writer.name("checksum").rawValue(checksums.endArray());
+            }
+            writer.name("previews").rawValue(previews.endArray());
+            writer.endObject();
+        }
+    }
+
+    /** Distinct strings in first seen order; values are written as their index. */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final PhotoLibraryJsonWriter values = column(256);
+
+        int indexOf(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = indexes.size();
+                indexes.put(value, index);
+                values.value(value);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Rows the column buffers are sized for up front. Larger pages grow their buffers as rows are
+     * added, so a page without a limit does not reserve memory for the whole library at once.
+     */
+    static final int MAX_PRESIZED_ROWS = 512;
+
+    private final int capacity;
+
+    private final Dictionary typeDictionary = new Dictionary();
+    private final Dictionary mimeDictionary = new Dictionary();
+    private final Dictionary albumDictionary = new Dictionary();
+
+    private final PhotoLibraryJsonWriter ids;
+    private final PhotoLibraryJsonWriter types;
+    private final PhotoLibraryJsonWriter fileNames;
+    private final PhotoLibraryJsonWriter mimeTypes;
+    private final PhotoLibraryJsonWriter widths;
+    private final PhotoLibraryJsonWriter heights;
+    private final PhotoLibraryJsonWriter sizes;
+    private final PhotoLibraryJsonWriter durations;
+    private final PhotoLibraryJsonWriter creationDates;
+    private final PhotoLibraryJsonWriter modificationDates;
+    @Nullable
+    private final PhotoLibraryJsonWriter albums;
+    @Nullable
+    private final PhotoLibraryJsonWriter exif;
+    @Nullable
+    private final PhotoLibraryJsonWriter latitudes;
+    @Nullable
+    private final PhotoLibraryJsonWriter longitudes;
+    @Nullable
+    private FileColumn thumbnails;
+    private boolean packedThumbnails = false;
+    @Nullable
+    private FileColumn files;
+    private int count = 0;
+
+    /** @param capacity expected number of rows, used to size the column buffers up to {@link #MAX_PRESIZED_ROWS}. */
+    PhotoLibraryColumnarPage(GetLibraryOptions options, int capacity) {
+        this.capacity = Math.max(16, Math.min(capacity, MAX_PRESIZED_ROWS));
+        ids = column(this.capacity * 8);
+        types = column(this.capacity * 2);
+        fileNames = column(this.capacity * 32);
+        mimeTypes = column(this.capacity * 2);
+        widths = column(this.capacity * 5);
+        heights = column(this.capacity * 5);
+        sizes = column(this.capacity * 9);
+        durations = column(this.capacity * 2);
+        creationDates = column(this.capacity * 14);
+        modificationDates = column(this.capacity * 14);
+        albums = options.includeAlbumData ? column(this.capacity * 3) : null;
+        exif = options.includeExif ? column(this.capacity * 64) : null;
+        latitudes = options.includeLocation ? column(this.capacity * 12) : null;
+        longitudes = options.includeLocation ? column(this.capacity * 12) : null;
+    }
+
+    /**
+     * Enables the thumbnail column. Call before the first {@link #add}.
+     *
+     * @param pathPrefix {@code null} for packed thumbnails, which are only reachable by web path.
+     * @param packed whether the thumbnails come from the thumbnail pack, so every entry of the page
+     *     resolves against the same prefixes.
+     */
+    void enableThumbnails(@Nullable String pathPrefix, String webPathPrefix, boolean packed) {
+        thumbnails = new FileColumn(pathPrefix, webPathPrefix, false, false, mimeDictionary, capacity);
+        packedThumbnails = packed;
+    }
+
+    boolean packedThumbnails() {
+        return packedThumbnails;
+    }
+
+    /** Enables the full resolution file column. Call before the first {@link #add}. */
+    void enableFiles(String pathPrefix, String webPathPrefix, boolean separateWebNames, boolean checksum) {
+        files = new FileColumn(pathPrefix, webPathPrefix, separateWebNames, checksum, mimeDictionary, capacity);
+    }
+
+    @Nullable
+    FileColumn thumbnailColumn() {
+        return thumbnails;
+    }
+
+    @Nullable
+    FileColumn fileColumn() {
+        return files;
+    }
+
+    /**
+     * Appends the row fields of one asset. The caller then adds exactly one entry to each enabled
+     * file column.
+     */
+    void add(AssetRow row, String identifier, @Nullable PhotoLibraryExifReader.Metadata metadata) {
+        ids.value(row.id);
+        types.value(typeDictionary.indexOf(row.type()));
+        if (row.displayName != null) {
+            fileNames.value(row.displayName);
+        } else {
+            fileNames.value(identifier, PhotoLibraryUtils.guessExtension(row.mimeType));
+        }
+        mimeTypes.value(mimeDictionary.indexOf(row.mimeType != null ? row.mimeType : "application/octet-stream"));
+        widths.value(row.width);
+        heights.value(row.height);
+        sizes.value(row.size);
+        durations.value(row.duration / 1000.0);
+        creationDates.value(row.dateTaken);
+        modificationDates.value(row.dateModified);
+        if (albums != null) {
+            albums.value(row.bucketId != null ? albumDictionary.indexOf(row.bucketId) : -1);
+        }
+        if (exif != null) {
+            if (metadata != null) {
+                metadata.writeExif(exif);
+            } else {
+                exif.nullValue();
+            }
+        }
+        if (latitudes != null && longitudes != null) {
+            if (metadata != null && metadata.hasLocation) {
+                latitudes.value(metadata.latitude);
+                longitudes.value(metadata.longitude);
+            } else {
+                latitudes.nullValue();
+                longitudes.nullValue();
+            }
+        }
+        count++;
+    }
+
+    /** Writes the page as one JSON object value. The page cannot be added to afterwards. */
+    void writeTo(PhotoLibraryJsonWriter writer) {
+        writer.beginObject();
+        writer.name("count").value(count);
+        writer.name("dictionaries").beginObject();
+        writer.name("type").rawValue(typeDictionary.values.endArray());
+        writer.name("mimeType").rawValue(mimeDictionary.values.endArray());
+        writer.name("albumId").rawValue(albumDictionary.values.endArray());
+        writer.endObject();
+        writer.name("id").rawValue(ids.endArray());
+        writer.name("type").rawValue(types.endArray());
+        writer.name("fileName").rawValue(fileNames.endArray());
+        writer.name("mimeType").rawValue(mimeTypes.endArray());
+        writer.name("width").rawValue(widths.endArray());
+        writer.name("height").rawValue(heights.endArray());
+        writer.name("size").rawValue(sizes.endArray());
+        writer.name("duration").rawValue(durations.endArray());
+        writer.name("creationDate").rawValue(creationDates.endArray());
+        writer.name("modificationDate").rawValue(modificationDates.endArray());
+        if (albums != null) {
+            writer.name("albumId").rawValue(albums.endArray());
+        }
+        if (exif != null) {
+            writer.name("exif").rawValue(exif.endArray());
+        }
+        if (latitudes != null && longitudes != null) {
+            writer.name("latitude").rawValue(latitudes.endArray());
+            writer.name("longitude").rawValue(longitudes.endArray());
+        }
+        if (thumbnails != null) {
+            thumbnails.writeTo(writer.name("thumbnail"));
+        }
+        if (files != null) {
+            files.writeTo(writer.name("file"));
+        }
+        writer.endObject();
+    }
+
+    private static PhotoLibraryJsonWriter column(int capacity) {
+        return new PhotoLibraryJsonWriter(Math.min(capacity, 1 << 22)).beginArray();
+    }
+}
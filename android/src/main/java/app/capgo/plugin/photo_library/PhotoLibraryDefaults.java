@@ -5,6 +5,12 @@ final class PhotoLibraryDefaults {
     static final int THUMBNAIL_WIDTH = 512;
     static final int THUMBNAIL_HEIGHT = 384;
     static final double THUMBNAIL_QUALITY = 0.5;
+    static final int FILE_CACHE_SIZE_MB = 1024;
+    static final long FILE_CACHE_MAX_BYTES = FILE_CACHE_SIZE_MB * 1024L * 1024L;
+    static final int THUMBNAIL_PACK_SIZE_MB = 256;
+    static final int SESSION_TTL_SECONDS = 300;
+    /** Maximum Hamming distance between the 64 bit hashes of images considered similar. */
+    static final int SIMILARITY_THRESHOLD = 10;
 
     private PhotoLibraryDefaults() {}
 }
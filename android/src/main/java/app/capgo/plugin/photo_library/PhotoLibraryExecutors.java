@@ -0,0 +1,152 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.NonNull;
+import com.getcapacitor.JSObject;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The worker pools used by the plugin. Work is split by the resource it waits on, so a long copy
+ * cannot hold back a page query or a thumbnail:
+ * <ul>
+ *   <li>{@link #query} runs MediaStore queries and builds result pages.</li>
+ *   <li>{@link #decode} runs CPU bound bitmap decoding, scaling and encoding.</li>
+ *   <li>{@link #io} runs bulk file copies.</li>
+ *   <li>{@link #metadata} runs the small EXIF header reads a page waits on, so they never queue
+ *   behind bulk copies, picks or exports.</li>
+ *   <li>{@link #export} runs the copies of {@code exportAssets}, so a large export cannot take
+ *   every I/O thread from picks and page copies.</li>
+ * </ul>
+ * Tasks must not block on other tasks of the same pool.
+ */
+final class PhotoLibraryExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    final Pool query = new Pool("query", 2);
+    final Pool decode = new Pool("decode", Math.max(2, Math.min(4, CPU_COUNT)));
+    final Pool io = new Pool("io", 4);
+    final Pool metadata = new Pool("metadata", 2);
+    final Pool export = new Pool("export", ExportAssetsOptions.DEFAULT_CONCURRENCY);
+
+    JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put(query.name, query.toJSObject());
+        result.put(decode.name, decode.toJSObject());
+        result.put(io.name, io.toJSObject());
+        result.put(metadata.name, metadata.toJSObject());
+        result.put(export.name, export.toJSObject());
+        return result;
+    }
+
+    void resetStats() {
+        query.resetStats();
+        decode.resetStats();
+        io.resetStats();
+        metadata.resetStats();
+        export.resetStats();
+    }
+
+    void shutdown() {
+        query.shutdown();
+        decode.shutdown();
+        io.shutdown();
+        metadata.shutdown();
+        export.shutdown();
+    }
+
+    /** Fixed size pool that records how long tasks wait in its queue and how long they run. */
+    static final class Pool extends ThreadPoolExecutor {
+
+        final String name;
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong runNanos = new AtomicLong();
+        private final AtomicInteger maxQueued = new AtomicInteger();
+
+        Pool(String name, int threads) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+            this.name = name;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            submitted.incrementAndGet();
+            super.execute(new TimedTask(command));
+            maxQueued.accumulateAndGet(getQueue().size(), Math::max);
+        }
+
+        void resetStats() {
+            submitted.set(0);
+            completed.set(0);
+            waitNanos.set(0);
+            maxWaitNanos.set(0);
+            runNanos.set(0);
+            maxQueued.set(getQueue().size());
+        }
+
+        JSObject toJSObject() {
+            long finished = completed.get();
+            long waited = waitNanos.get();
+            JSObject result = new JSObject();
+            result.put("threads", getMaximumPoolSize());
+            result.put("active", getActiveCount());
+            result.put("queued", getQueue().size());
+            result.put("maxQueued", maxQueued.get());
+            result.put("submitted", submitted.get());
+            result.put("completed", finished);
+            result.put("totalWaitMs", waited / 1_000_000L);
+            result.put("averageWaitMs", finished > 0 ? waited / finished / 1_000_000.0 : 0);
+            result.put("maxWaitMs", maxWaitNanos.get() / 1_000_000L);
+            result.put("totalRunMs", runNanos.get() / 1_000_000L);
+            return result;
+        }
+
+        private final class TimedTask implements Runnable {
+
+            private final Runnable delegate;
+            private final long enqueued = System.nanoTime();
+
+            TimedTask(Runnable delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                long waited = start - enqueued;
+                waitNanos.addAndGet(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    delegate.run();
+                } finally {
+                    runNanos.addAndGet(System.nanoTime() - start);
+                    completed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "PhotoLibrary-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
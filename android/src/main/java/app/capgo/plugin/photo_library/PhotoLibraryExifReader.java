@@ -0,0 +1,169 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads EXIF headers of library images. {@link ExifInterface} seeks straight to the metadata
+ * segments, so only a few kilobytes of each file are read. Results are cached in memory keyed by
+ * identifier and validated against the asset version, so repeat pages do not open the files again.
+ */
+final class PhotoLibraryExifReader {
+
+    private static final int MAX_ENTRIES = 4096;
+
+    static final class Metadata {
+
+        final String version;
+        final boolean original;
+        final int orientation;
+        @Nullable
+        final String make;
+        @Nullable
+        final String model;
+        @Nullable
+        final String lensModel;
+        @Nullable
+        final String dateTimeOriginal;
+        final double exposureTime;
+        final double fNumber;
+        final double focalLength;
+        final int iso;
+        final boolean hasLocation;
+        final double latitude;
+        final double longitude;
+
+        private Metadata(String version, boolean original, ExifInterface exif) {
+            this.version = version;
+            this.original = original;
+            this.orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            this.make = exif.getAttribute(ExifInterface.TAG_MAKE);
+            this.model = exif.getAttribute(ExifInterface.TAG_MODEL);
+            this.lensModel = exif.getAttribute(ExifInterface.TAG_LENS_MODEL);
+            this.dateTimeOriginal = exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL);
+            this.exposureTime = exif.getAttributeDouble(ExifInterface.TAG_EXPOSURE_TIME, 0);
+            this.fNumber = exif.getAttributeDouble(ExifInterface.TAG_F_NUMBER, 0);
+            this.focalLength = exif.getAttributeDouble(ExifInterface.TAG_FOCAL_LENGTH, 0);
+            this.iso = exif.getAttributeInt(ExifInterface.TAG_PHOTOGRAPHIC_SENSITIVITY, 0);
+            double[] latLong = original ? exif.getLatLong() : null;
+            // Redacted files report 0,0 rather than omitting the tags.
+            this.hasLocation = latLong != null && (latLong[0] != 0 || latLong[1] != 0);
+            this.latitude = hasLocation ? latLong[0] : 0;
+            this.longitude = hasLocation ? latLong[1] : 0;
+        }
+
+        /** Writes the {@code exif} object and the coordinates as members of the current asset object. */
+        void writeTo(PhotoLibraryJsonWriter writer, boolean includeExif, boolean includeLocation) {
+            if (includeExif) {
+                writeExif(writer.name("exif"));
+            }
+            if (includeLocation && hasLocation) {
+                writer.name("latitude").value(latitude);
+                writer.name("longitude").value(longitude);
+            }
+        }
+
+        /** Writes the camera metadata as one JSON object value. */
+        void writeExif(PhotoLibraryJsonWriter writer) {
+            writer.beginObject();
+            writer.name("orientation").value(orientation);
+            writeIfPresent(writer, "make", make);
+            writeIfPresent(writer, "model", model);
+            writeIfPresent(writer, "lensModel", lensModel);
+            writeIfPresent(writer, "dateTimeOriginal", dateTimeOriginal);
+            if (exposureTime > 0) {
+                writer.name("exposureTime").value(exposureTime);
+            }
+            if (fNumber > 0) {
+                writer.name("fNumber").value(fNumber);
+            }
+            if (focalLength > 0) {
+                writer.name("focalLength").value(focalLength);
+            }
+            if (iso > 0) {
+                writer.name("iso").value(iso);
+            }
+            writer.endObject();
+        }
+
+        private static void writeIfPresent(PhotoLibraryJsonWriter writer, String key, @Nullable String value) {
+            if (value != null && !value.trim().isEmpty()) {
+                writer.name(key).repeatedValue(value.trim());
+            }
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Map<String, Metadata> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    PhotoLibraryExifReader(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /** Drops the least recently used entries until at most {@code maxEntries} remain. Returns how many were dropped. */
+    synchronized int trimToSize(int maxEntries) {
+        int removed = 0;
+        Iterator<Metadata> iterator = cache.values().iterator();
+        while (cache.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns cached metadata for {@code identifier} when it was read from the same asset version,
+     * and with original (unredacted) access if {@code original} is requested now.
+     */
+    @Nullable
+    synchronized Metadata cached(String identifier, String version, boolean original) {
+        Metadata metadata = cache.get(identifier);
+        if (metadata == null || !metadata.version.equals(version) || (original && !metadata.original)) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Reads the EXIF headers of {@code uri}. With {@code original} the unredacted file is opened so
+     * GPS tags are available; that requires {@code ACCESS_MEDIA_LOCATION} on Android 10 and newer.
+     */
+    @Nullable
+    Metadata read(String identifier, String version, Uri uri, boolean original) {
+        Metadata cached = cached(identifier, version, original);
+        if (cached != null) {
+            return cached;
+        }
+        Uri source = original && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? MediaStore.setRequireOriginal(uri) : uri;
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source, "r")) {
+            if (descriptor == null) {
+                return null;
+            }
+            Metadata metadata = new Metadata(version, original, new ExifInterface(descriptor.getFileDescriptor()));
+            synchronized (this) {
+                cache.put(identifier, metadata);
+            }
+            return metadata;
+        } catch (SecurityException e) {
+            // Location access was revoked; the redacted headers are still useful.
+            return original ? read(identifier, version, uri, false) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package app.capgo.plugin.photo_library;
+
+import android.net.Uri;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@code exportAssets} run. A fixed number of workers share a cursor over the ids, so at most
+ * that many copies run at once and a slow asset never holds up the others. Every item reports its
+ * own outcome; a failed copy is recorded and the job moves on. The result is delivered by the last
+ * worker to finish, so no thread waits on the copies.
+ */
+final class PhotoLibraryExportJob {
+
+    static final String EVENT_PROGRESS = "exportAssetsProgress";
+
+    /** Where an asset is read from, with the version used to detect finished exports. */
+    static final class Source {
+
+        final Uri uri;
+        final String fileName;
+        final long modified;
+        final long size;
+
+        Source(Uri uri, String fileName, long modified, long size) {
+            this.uri = uri;
+            this.fileName = fileName;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    interface Callback {
+        void onComplete(JSObject result);
+    }
+
+    private final List<String> ids;
+    private final Map<String, Source> sources;
+    private final File directory;
+    private final String webPathPrefix;
+    private final PhotoLibraryExportManifest manifest;
+    private final PhotoLibraryFileCopier copier;
+    private final PhotoLibraryStats stats;
+    private final PhotoLibraryService.EventListener eventListener;
+    private final JSObject[] items;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger exported = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    PhotoLibraryExportJob(
+        List<String> ids,
+        Map<String, Source> sources,
+        File directory,
+        String webPathPrefix,
+        PhotoLibraryFileCopier copier,
+        PhotoLibraryStats stats,
+        PhotoLibraryService.EventListener eventListener
+    ) {
+        this.ids = ids;
+        this.sources = sources;
+        this.directory = directory;
+        this.webPathPrefix = webPathPrefix;
+        this.manifest = PhotoLibraryExportManifest.open(directory);
+        this.copier = copier;
+        this.stats = stats;
+        this.eventListener = eventListener;
+        this.items = new JSObject[ids.size()];
+    }
+
+    void start(Executor executor, int concurrency, Callback callback) {
+        int workers = Math.max(1, Math.min(concurrency, ids.size()));
+        activeWorkers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> work(callback));
+        }
+    }
+
+    private void work(Callback callback) {
+        int index;
+        while ((index = next.getAndIncrement()) < ids.size()) {
+            JSObject item = export(ids.get(index));
+            items[index] = item;
+            reportProgress(index, item, finished.incrementAndGet());
+        }
+        if (activeWorkers.decrementAndGet() == 0) {
+            callback.onComplete(result());
+        }
+    }
+
+    private JSObject export(String identifier) {
+        JSObject item = new JSObject();
+        item.put("id", identifier);
+        Source source = sources.get(identifier);
+        if (source == null) {
+            return fail(item, PhotoLibraryService.ASSET_NOT_FOUND);
+        }
+        try {
+            File previous = manifest.completed(identifier, source.modified, source.size);
+            if (previous != null) {
+                skipped.incrementAndGet();
+                describe(item, previous);
+                item.put("skipped", true);
+                return item;
+            }
+
+            File target = new File(directory, manifest.reserveName(identifier, source.fileName));
+            long copied;
+            try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.COPY)) {
+                copied = copier.copy(source.uri, target, null);
+            }
+            if (copied < 0) {
+                return fail(item, "Unable to open asset");
+            }
+            manifest.record(identifier, target.getName(), source.modified, source.size, copied);
+            bytes.addAndGet(copied);
+            exported.incrementAndGet();
+            describe(item, target);
+            return item;
+        } catch (IOException | RuntimeException e) {
+            return fail(item, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void describe(JSObject item, File file) {
+        item.put("path", file.getAbsolutePath());
+        item.put("webPath", webPathPrefix + Uri.encode(file.getName()));
+        item.put("size", file.length());
+    }
+
+    private JSObject fail(JSObject item, String error) {
+        failed.incrementAndGet();
+        item.put("error", error);
+        return item;
+    }
+
+    private void reportProgress(int index, JSObject item, int completed) {
+        JSObject event = new JSObject();
+        event.put("id", item.getString("id"));
+        event.put("index", index);
+        if (item.has("error")) {
+            event.put("error", item.getString("error"));
+        }
+        putCounters(event, completed);
+        eventListener.onEvent(EVENT_PROGRESS, event);
+    }
+
+    private JSObject result() {
+        JSArray array = new JSArray();
+        for (JSObject item : items) {
+            array.put(item);
+        }
+        JSObject result = new JSObject();
+        result.put("items", array);
+        putCounters(result, ids.size());
+        result.put("durationMs", (System.nanoTime() - startNanos) / 1_000_000L);
+        return result;
+    }
+
+    private void putCounters(JSObject target, int completed) {
+        long copiedBytes = bytes.get();
+        double elapsedSeconds = Math.max(1, System.nanoTime() - startNanos) / 1_000_000_000.0;
+        target.put("completed", completed);
+        target.put("total", ids.size());
+        target.put("exported", exported.get());
+        target.put("skipped", skipped.get());
+        target.put("failed", failed.get());
+        target.put("bytes", copiedBytes);
+        target.put("bytesPerSecond", Math.round(copiedBytes / elapsedSeconds));
+    }
+}
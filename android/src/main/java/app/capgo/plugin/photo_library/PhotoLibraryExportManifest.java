@@ -0,0 +1,165 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Record of the files {@code exportAssets} completed in a destination directory, kept as a hidden
+ * binary log inside it. A later export to the same directory skips assets whose source version and
+ * exported file are unchanged, so an interrupted backup resumes instead of starting over. Files
+ * are only recorded after they were moved into place, so a recorded file is never partial.
+ */
+final class PhotoLibraryExportManifest {
+
+    static final String FILE_NAME = ".photo-library-export";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final class Entry {
+
+        final String fileName;
+        final long sourceModified;
+        final long sourceSize;
+        final long length;
+
+        Entry(String fileName, long sourceModified, long sourceSize, long length) {
+            this.fileName = fileName;
+            this.sourceModified = sourceModified;
+            this.sourceSize = sourceSize;
+            this.length = length;
+        }
+    }
+
+    private final File directory;
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** Names handed out by {@link #reserveName} that may not exist on disk yet. */
+    private final Set<String> reserved = new HashSet<>();
+
+    private PhotoLibraryExportManifest(File directory) {
+        this.directory = directory;
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    static PhotoLibraryExportManifest open(File directory) {
+        PhotoLibraryExportManifest manifest = new PhotoLibraryExportManifest(directory);
+        manifest.load();
+        return manifest;
+    }
+
+    /**
+     * Returns the previously exported file of {@code identifier} when it was exported from the same
+     * source version and is still intact, otherwise {@code null}.
+     */
+    @Nullable
+    synchronized File completed(String identifier, long sourceModified, long sourceSize) {
+        Entry entry = entries.get(identifier);
+        if (entry == null || entry.sourceModified != sourceModified || entry.sourceSize != sourceSize) {
+            return null;
+        }
+        File exported = new File(directory, entry.fileName);
+        return exported.length() == entry.length ? exported : null;
+    }
+
+    /**
+     * Picks a file name for {@code identifier}: the name it was exported under before, or
+     * {@code preferred} with a numeric suffix when another asset or an unrelated file already uses it.
+     */
+    synchronized String reserveName(String identifier, String preferred) {
+        Entry previous = entries.get(identifier);
+        if (previous != null && !reserved.contains(previous.fileName)) {
+            reserved.add(previous.fileName);
+            return previous.fileName;
+        }
+        int dot = preferred.lastIndexOf('.');
+        String base = dot > 0 ? preferred.substring(0, dot) : preferred;
+        String extension = dot > 0 ? preferred.substring(dot) : "";
+        String name = preferred;
+        for (int i = 1; reserved.contains(name) || new File(directory, name).exists(); i++) {
+            name = base + " (" + i + ")" + extension;
+        }
+        reserved.add(name);
+        return name;
+    }
+
+    synchronized void record(String identifier, String fileName, long sourceModified, long sourceSize, long length) {
+        Entry entry = new Entry(fileName, sourceModified, sourceSize, length);
+        entries.put(identifier, entry);
+        boolean fresh = !file.exists() || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(FORMAT_VERSION);
+            }
+            writeRecord(out, identifier, entry);
+        } catch (IOException e) {
+            // The file is exported either way; it is only copied again by a later export.
+            Logger.error("PhotoLibrary", "Failed to update export manifest", e);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            while (true) {
+                String identifier;
+                try {
+                    identifier = in.readUTF();
+                } catch (EOFException end) {
+                    break;
+                }
+                entries.put(identifier, new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // A record cut short by process death only means that file is exported again. The log
+            // is rewritten so later appends do not land behind the torn record.
+            Logger.debug("PhotoLibrary", "Export manifest truncated: " + e.getMessage());
+            rewrite();
+        }
+    }
+
+    private void rewrite() {
+        File temp = new File(directory, FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to rewrite export manifest", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String identifier, Entry entry) throws IOException {
+        out.writeUTF(identifier);
+        out.writeUTF(entry.fileName);
+        out.writeLong(entry.sourceModified);
+        out.writeLong(entry.sourceSize);
+        out.writeLong(entry.length);
+    }
+}
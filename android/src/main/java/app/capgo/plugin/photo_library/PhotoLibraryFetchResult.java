@@ -1,16 +1,47 @@
 package app.capgo.plugin.photo_library;
 
-import com.getcapacitor.JSArray;
+import androidx.annotation.Nullable;
 
 final class PhotoLibraryFetchResult {
 
-    final JSArray assets;
+    /** The page encoded as JSON: an array of assets, or a columns object for the columnar format. */
+    final String json;
     final int totalCount;
     final boolean hasMore;
+    /** The page to persist as the warm start snapshot. Only set for first pages. */
+    @Nullable
+    final PhotoLibrarySnapshotStore.Page snapshot;
+    /** Version tag of the page, see {@link PhotoLibraryPageCache}. */
+    @Nullable
+    final String etag;
+    /** Set when the caller's copy of the page, named by {@link #etag}, is still current; {@link #json} is empty. */
+    final boolean notModified;
 
-    PhotoLibraryFetchResult(JSArray assets, int totalCount, boolean hasMore) {
-        this.assets = assets;
+    PhotoLibraryFetchResult(String json, int totalCount, boolean hasMore, @Nullable PhotoLibrarySnapshotStore.Page snapshot) {
+        this(json, totalCount, hasMore, snapshot, null, false);
+    }
+
+    private PhotoLibraryFetchResult(
+        String json,
+        int totalCount,
+        boolean hasMore,
+        @Nullable PhotoLibrarySnapshotStore.Page snapshot,
+        @Nullable String etag,
+        boolean notModified
+    ) {
+        this.json = json;
         this.totalCount = totalCount;
         this.hasMore = hasMore;
+        this.snapshot = snapshot;
+        this.etag = etag;
+        this.notModified = notModified;
+    }
+
+    static PhotoLibraryFetchResult notModified(String etag) {
+        return new PhotoLibraryFetchResult("", 0, false, null, etag, true);
+    }
+
+    PhotoLibraryFetchResult withEtag(String etag) {
+        return new PhotoLibraryFetchResult(json, totalCount, hasMore, snapshot, etag, false);
     }
 }
@@ -0,0 +1,165 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the full resolution copies in {@code cache/photoLibrary/files} under a byte budget by
+ * evicting the least recently used entries. Files returned by {@code pinned} are never evicted.
+ */
+final class PhotoLibraryFileCache {
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final File directory;
+    private final Supplier<Set<String>> pinned;
+    private final Consumer<File> onEvicted;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long maxBytes;
+    private long currentBytes = 0;
+    private long evictionCount = 0;
+    private long evictedBytes = 0;
+    private boolean loaded = false;
+
+    PhotoLibraryFileCache(File directory, long maxBytes, Supplier<Set<String>> pinned, Consumer<File> onEvicted) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.pinned = pinned;
+        this.onEvicted = onEvicted;
+    }
+
+    /** Deletes copies left behind by a process that died mid-copy. Call before any copy starts. */
+    void removePartialFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /** A value of {@code 0} or less disables eviction. */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim(null);
+    }
+
+    /** Marks a cached file as used. Returns {@code false} when it no longer exists on disk. */
+    synchronized boolean touch(File file) {
+        ensureLoaded();
+        if (entries.get(file.getName()) != null) {
+            if (file.exists()) {
+                return true;
+            }
+            currentBytes -= entries.remove(file.getName());
+            return false;
+        }
+        if (!file.exists()) {
+            return false;
+        }
+        add(file);
+        return true;
+    }
+
+    /**
+     * Registers a freshly written file and evicts older entries if the budget is exceeded. The file
+     * itself is kept even when it alone exceeds the budget, so the caller can always hand it out.
+     */
+    synchronized void record(File file) {
+        ensureLoaded();
+        Long previous = entries.remove(file.getName());
+        if (previous != null) {
+            currentBytes -= previous;
+        }
+        add(file);
+        trim(file.getName());
+    }
+
+    synchronized void remove(File file) {
+        ensureLoaded();
+        Long size = entries.remove(file.getName());
+        if (size != null) {
+            currentBytes -= size;
+        }
+    }
+
+    synchronized JSObject toJSObject() {
+        ensureLoaded();
+        JSObject result = new JSObject();
+        result.put("maxBytes", maxBytes);
+        result.put("bytes", currentBytes);
+        result.put("entries", entries.size());
+        result.put("evictions", evictionCount);
+        result.put("evictedBytes", evictedBytes);
+        return result;
+    }
+
+    private void add(File file) {
+        long size = file.length();
+        entries.put(file.getName(), size);
+        currentBytes += size;
+    }
+
+    /** Evicts least recently used entries until the budget is met, skipping pinned files and {@code keep}. */
+    private void trim(@Nullable String keep) {
+        if (maxBytes <= 0 || currentBytes <= maxBytes) {
+            return;
+        }
+        Set<String> pinnedNames = pinned.get();
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep) || pinnedNames.contains(entry.getKey())) {
+                continue;
+            }
+            File file = new File(directory, entry.getKey());
+            if (file.exists() && !file.delete()) {
+                continue;
+            }
+            iterator.remove();
+            currentBytes -= entry.getValue();
+            evictionCount++;
+            evictedBytes += entry.getValue();
+            onEvicted.accept(file);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> existing = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(PARTIAL_SUFFIX)) {
+                existing.add(file);
+            }
+        }
+        Map<File, Long> modified = new HashMap<>();
+        for (File file : existing) {
+            modified.put(file, file.lastModified());
+        }
+        existing.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (File file : existing) {
+            add(file);
+        }
+    }
+}
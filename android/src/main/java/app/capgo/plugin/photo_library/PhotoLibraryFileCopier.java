@@ -0,0 +1,161 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copies media into the plugin cache. Seekable sources are moved with
+ * {@link FileChannel#transferTo} so the kernel can skip user space buffers; providers that only
+ * hand out pipes fall back to a large buffered stream copy. When a digest is requested the bytes
+ * are hashed inline through a direct buffer instead, so the data is still only read once.
+ */
+final class PhotoLibraryFileCopier {
+
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final ContentResolver resolver;
+    private final PhotoLibraryStats stats;
+
+    PhotoLibraryFileCopier(ContentResolver resolver, PhotoLibraryStats stats) {
+        this.resolver = resolver;
+        this.stats = stats;
+    }
+
+    /**
+     * Copies {@code source} into {@code target}. The data is written next to the target and renamed
+     * once complete, so a visible target is never partial. Returns the number of bytes copied, or
+     * {@code -1} when the source cannot be opened.
+     */
+    long copy(Uri source, File target, @Nullable MessageDigest digest) throws IOException {
+        File partial = copyToPartial(source, target.getParentFile(), target.getName(), digest);
+        if (partial == null) {
+            return -1;
+        }
+        long bytes = partial.length();
+        if (!partial.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            throw new IOException("Unable to move copied file into " + target.getName());
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies {@code source} into a new {@code .part} file inside {@code directory} and leaves it to
+     * the caller to move or delete. Used when the final name depends on the copied content.
+     */
+    @Nullable
+    File copyToPartial(Uri source, File directory, String prefix, @Nullable MessageDigest digest) throws IOException {
+        long start = System.nanoTime();
+        File partial = File.createTempFile(prefix, ".part", directory);
+        boolean complete = false;
+        try {
+            boolean channelTransfer = digest == null;
+            long bytes = copyWithChannels(source, partial, digest);
+            if (bytes < 0) {
+                channelTransfer = false;
+                bytes = copyWithStreams(source, partial, digest);
+            }
+            if (bytes < 0) {
+                return null;
+            }
+            stats.recordCopy(bytes, System.nanoTime() - start, channelTransfer);
+            complete = true;
+            return partial;
+        } finally {
+            if (!complete) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+            }
+        }
+    }
+
+    private long copyWithChannels(Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+        ParcelFileDescriptor descriptor = openDescriptor(source);
+        if (descriptor == null) {
+            return -1;
+        }
+        long size = descriptor.getStatSize();
+        if (size < 0) {
+            descriptor.close();
+            return -1;
+        }
+
+        try (
+            FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            FileChannel input = in.getChannel();
+            FileOutputStream out = new FileOutputStream(destination);
+            FileChannel output = out.getChannel()
+        ) {
+            long position = 0;
+            while (digest == null && position < size) {
+                long transferred = input.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), output);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+
+            // Hashing needs the bytes in user space; otherwise this only drains data appended after
+            // the size was reported.
+            input.position(position);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer);
+                    buffer.rewind();
+                }
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+                position += read;
+            }
+            return position;
+        }
+    }
+
+    private long copyWithStreams(Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
+                return -1;
+            }
+            long total = 0;
+            try (FileOutputStream out = new FileOutputStream(destination)) {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (digest != null) {
+                        digest.update(buffer, 0, read);
+                    }
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+            }
+            return total;
+        }
+    }
+
+    @Nullable
+    private ParcelFileDescriptor openDescriptor(Uri source) {
+        try {
+            return resolver.openFileDescriptor(source, "r");
+        } catch (FileNotFoundException | SecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token that changes whenever media is added, edited or removed, used to tell whether cached
+ * results are still current. On Android 11 and newer it is built from the MediaStore version and
+ * the per-volume generation counters. Older releases have no counter, so a fingerprint of the files
+ * table (row count and the most recently modified row) is queried, which scans the whole table.
+ *
+ * <p>Either way the token is kept until a {@link ContentObserver} on the media store reports a
+ * change, so checks made for every page only query the media store again after something changed.
+ */
+final class PhotoLibraryGeneration {
+
+    private static final Uri MEDIA_URI = Uri.parse("content://" + MediaStore.AUTHORITY);
+
+    private final Context context;
+    private final AtomicLong changes = new AtomicLong();
+    private final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Counted before the token is dropped, see current().
+            changes.incrementAndGet();
+            cached = null;
+        }
+    };
+    @Nullable
+    private volatile String cached;
+    private boolean observing = false;
+    private boolean closed = false;
+
+    PhotoLibraryGeneration(Context context) {
+        this.context = context;
+    }
+
+    String current() {
+        String token = cached;
+        if (token != null) {
+            return token;
+        }
+        boolean watched = observe();
+        long seen = changes.get();
+        token = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? counters(context) : fingerprint(context.getContentResolver());
+        if (token == null) {
+            // A token that never matches, so callers treat results as stale.
+            return "f:" + System.nanoTime();
+        }
+        if (watched) {
+            cached = token;
+            // A change reported while the token was read may predate it; it is dropped again so the
+            // next call reads a fresh one. The observer counts before clearing, so no change is lost.
+            if (changes.get() != seen) {
+                cached = null;
+            }
+        }
+        return token;
+    }
+
+    /** Stops watching the media store. Later calls read the token every time. */
+    synchronized void close() {
+        closed = true;
+        cached = null;
+        if (observing) {
+            observing = false;
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    /** Registers the observer on first use. Returns whether changes are being watched. */
+    private synchronized boolean observe() {
+        if (observing || closed) {
+            return observing;
+        }
+        try {
+            context.getContentResolver().registerContentObserver(MEDIA_URI, true, observer);
+            observing = true;
+        } catch (RuntimeException e) {
+            // Without notifications nothing can be cached; every call reads the token.
+            closed = true;
+        }
+        return observing;
+    }
+
+    private static String counters(Context context) {
+        StringBuilder token = new StringBuilder(MediaStore.getVersion(context));
+        // Sorted so the token does not depend on the order volumes are reported in.
+        Set<String> volumes = new TreeSet<>(MediaStore.getExternalVolumeNames(context));
+        for (String volume : volumes) {
+            token.append('|').append(volume).append(':').append(MediaStore.getGeneration(context, volume));
+        }
+        return token.toString();
+    }
+
+    @Nullable
+    private static String fingerprint(ContentResolver resolver) {
+        Uri uri = MediaStore.Files.getContentUri("external");
+        String selection =
+            MediaStore.Files.FileColumns.MEDIA_TYPE +
+            " IN (" +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE +
+            "," +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO +
+            ")";
+        String[] projection = new String[] { MediaStore.Files.FileColumns._ID, MediaStore.Files.FileColumns.DATE_MODIFIED };
+        String sortOrder = MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC, " + MediaStore.Files.FileColumns._ID + " DESC";
+        try (Cursor cursor = resolver.query(uri, projection, selection, null, sortOrder)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return "f:" + cursor.getCount() + ":" + cursor.getLong(0) + ":" + cursor.getLong(1);
+            }
+            if (cursor != null) {
+                return "f:0";
+            }
+        } catch (RuntimeException ignored) {
+            // Reported as no token.
+        }
+        return null;
+    }
+}
@@ -0,0 +1,462 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Perceptual hashes of library images, keyed by MediaStore id and the version (modification time
+ * and size) they were computed from. Entries are appended to a binary log so indexing picks up
+ * where it stopped after the process is killed. Similarity lookups go through a BK-tree over the
+ * Hamming distance, built on first use after the index changes.
+ */
+final class PhotoLibraryHashIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    /** Size of the grid the image is reduced to; one column more than bits per row. */
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    static final class Match {
+
+        final long id;
+        final int distance;
+
+        Match(long id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    private static final class Entry {
+
+        final long modified;
+        final long size;
+        final long hash;
+
+        Entry(long modified, long size, long hash) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    private final File indexFile;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    @Nullable
+    private BkTree tree;
+    private boolean loaded = false;
+    private int records = 0;
+    private boolean truncated = false;
+
+    PhotoLibraryHashIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Difference hash of an image: the pixels are box-averaged into a 9x8 luminance grid and each
+     * bit tells whether a cell is brighter than its right neighbour. Resizing, recompression and
+     * small colour changes flip few bits, so near duplicates end up a small Hamming distance apart.
+     *
+     * @param pixels ARGB pixels in row-major order.
+     */
+    static long dHash(int[] pixels, int width, int height) {
+        long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int row = (y * GRID_HEIGHT / height) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                int cell = row + x * GRID_WIDTH / width;
+                sums[cell] += 299 * ((pixel >> 16) & 0xff) + 587 * ((pixel >> 8) & 0xff) + 114 * (pixel & 0xff);
+                counts[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int cell = y * GRID_WIDTH + x;
+                // Compare averages without dividing: a/ca > b/cb <=> a*cb > b*ca.
+                boolean brighter = sums[cell] * Math.max(1, counts[cell + 1]) > sums[cell + 1] * Math.max(1, counts[cell]);
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /** Whether {@code id} has a hash computed from the given version. */
+    synchronized boolean isCurrent(long id, long modified, long size) {
+        ensureLoaded();
+        Entry entry = entries.get(id);
+        return entry != null && entry.modified == modified && entry.size == size;
+    }
+
+    @Nullable
+    synchronized Long hash(long id) {
+        ensureLoaded();
+        Entry entry = entries.get(id);
+        return entry != null ? entry.hash : null;
+    }
+
+    /**
+     * Drops the BK-tree and, with {@code unload}, the loaded entries, which are read from the log
+     * again on next use. Returns the number of entries released.
+     */
+    synchronized int trim(boolean unload) {
+        tree = null;
+        if (!unload || !loaded) {
+            return 0;
+        }
+        int released = entries.size();
+        entries.clear();
+        loaded = false;
+        records = 0;
+        truncated = false;
+        return released;
+    }
+
+    /** Stores the first {@code count} hashes with one append to the log. */
+    synchronized void putAll(long[] ids, long[] modified, long[] sizes, long[] hashes, int count) {
+        ensureLoaded();
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            entries.put(ids[i], new Entry(modified[i], sizes[i], hashes[i]));
+        }
+        tree = null;
+        append(out -> {
+            for (int i = 0; i < count; i++) {
+                writePut(out, ids[i], modified[i], sizes[i], hashes[i]);
+            }
+            records += count;
+        });
+    }
+
+    /** Drops every entry whose id is not in {@code present}, such as deleted assets. */
+    synchronized void retainAll(Set<Long> present) {
+        ensureLoaded();
+        List<Long> removed = new ArrayList<>();
+        Iterator<Long> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            Long id = iterator.next();
+            if (!present.contains(id)) {
+                iterator.remove();
+                removed.add(id);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        tree = null;
+        if (records + removed.size() > 32 && records + removed.size() > entries.size() * 2) {
+            compact();
+            return;
+        }
+        append(out -> {
+            for (Long id : removed) {
+                out.writeByte(RECORD_REMOVE);
+                out.writeLong(id);
+            }
+            records += removed.size();
+        });
+    }
+
+    /** Indexed images within {@code threshold} bits of {@code hash}, closest first. */
+    synchronized List<Match> near(long hash, int threshold) {
+        List<Match> matches = new ArrayList<>();
+        tree().search(hash, threshold, matches);
+        Collections.sort(matches, (a, b) -> a.distance != b.distance ? Integer.compare(a.distance, b.distance) : Long.compare(a.id, b.id));
+        return matches;
+    }
+
+    /**
+     * Groups indexed images that are linked by chains of matches within {@code threshold} bits.
+     * Only groups of two or more are returned, largest first, each ordered by id.
+     */
+    synchronized List<long[]> groups(int threshold) {
+        BkTree tree = tree();
+        long[] ids = new long[entries.size()];
+        Map<Long, Integer> positions = new HashMap<>(entries.size() * 2);
+        int position = 0;
+        for (Long id : entries.keySet()) {
+            positions.put(id, position);
+            ids[position++] = id;
+        }
+        int[] parents = new int[ids.length];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            matches.clear();
+            tree.search(entries.get(ids[i]).hash, threshold, matches);
+            for (Match match : matches) {
+                int a = root(parents, i);
+                int b = root(parents, positions.get(match.id));
+                if (a != b) {
+                    parents[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        Map<Integer, List<Long>> members = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            int root = root(parents, i);
+            List<Long> group = members.get(root);
+            if (group == null) {
+                group = new ArrayList<>(2);
+                members.put(root, group);
+            }
+            group.add(ids[i]);
+        }
+        List<long[]> groups = new ArrayList<>();
+        for (List<Long> group : members.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            long[] sorted = new long[group.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = group.get(i);
+            }
+            Arrays.sort(sorted);
+            groups.add(sorted);
+        }
+        Collections.sort(groups, (a, b) -> a.length != b.length ? Integer.compare(b.length, a.length) : Long.compare(a[0], b[0]));
+        return groups;
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private BkTree tree() {
+        ensureLoaded();
+        if (tree == null) {
+            tree = new BkTree();
+            for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+                tree.add(entry.getValue().hash, entry.getKey());
+            }
+        }
+        return tree;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        load();
+        // Same policy as the picked items log: rewrite it when a torn record would hide later
+        // appends, or once replaced and removed records make up most of it.
+        if (truncated || (records > 32 && records > entries.size() * 2)) {
+            compact();
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                //noinspection ResultOfMethodCallIgnored
+                indexFile.delete();
+                return;
+            }
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException end) {
+                    break;
+                }
+                long id = in.readLong();
+                records++;
+                if (kind == RECORD_REMOVE) {
+                    entries.remove(id);
+                    continue;
+                }
+                entries.put(id, new Entry(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // A batch cut short by process death only loses the records after the tear.
+            truncated = true;
+            Logger.debug("PhotoLibrary", "Perceptual hash index truncated: " + e.getMessage());
+        }
+    }
+
+    private void compact() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                writePut(out, entry.getKey(), value.modified, value.size, value.hash);
+            }
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to compact perceptual hash index", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(indexFile)) {
+            records = entries.size();
+            truncated = false;
+        }
+    }
+
+    private interface Records {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(Records records) {
+        File parent = indexFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        boolean fresh = !indexFile.exists() || indexFile.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+            if (fresh) {
+                out.writeInt(FORMAT_VERSION);
+            }
+            records.write(out);
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to persist perceptual hashes", e);
+        }
+    }
+
+    private static void writePut(DataOutputStream out, long id, long modified, long size, long hash) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeLong(id);
+        out.writeLong(modified);
+        out.writeLong(size);
+        out.writeLong(hash);
+    }
+
+    /**
+     * Metric tree over Hamming distance. Every child sits at a fixed distance from its parent, so a
+     * search only descends into children whose distance is within {@code threshold} of the query's
+     * distance to the parent. Identical hashes share a node.
+     */
+    private static final class BkTree {
+
+        private static final class Node {
+
+            final long hash;
+            long[] ids;
+            int idCount = 0;
+            int[] childDistances = new int[0];
+            Node[] children = new Node[0];
+
+            Node(long hash, long id) {
+                this.hash = hash;
+                this.ids = new long[] { id };
+                this.idCount = 1;
+            }
+
+            void addId(long id) {
+                if (idCount == ids.length) {
+                    ids = Arrays.copyOf(ids, idCount * 2);
+                }
+                ids[idCount++] = id;
+            }
+
+            @Nullable
+            Node child(int distance) {
+                for (int i = 0; i < childDistances.length; i++) {
+                    if (childDistances[i] == distance) {
+                        return children[i];
+                    }
+                }
+                return null;
+            }
+
+            void addChild(int distance, Node child) {
+                childDistances = Arrays.copyOf(childDistances, childDistances.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                childDistances[childDistances.length - 1] = distance;
+                children[children.length - 1] = child;
+            }
+        }
+
+        @Nullable
+        private Node root;
+
+        void add(long hash, long id) {
+            if (root == null) {
+                root = new Node(hash, id);
+                return;
+            }
+            Node node = root;
+            while (true) {
+                int distance = distance(hash, node.hash);
+                if (distance == 0) {
+                    node.addId(id);
+                    return;
+                }
+                Node child = node.child(distance);
+                if (child == null) {
+                    node.addChild(distance, new Node(hash, id));
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        void search(long hash, int threshold, List<Match> matches) {
+            if (root == null) {
+                return;
+            }
+            ArrayDeque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int distance = distance(hash, node.hash);
+                if (distance <= threshold) {
+                    for (int i = 0; i < node.idCount; i++) {
+                        matches.add(new Match(node.ids[i], distance));
+                    }
+                }
+                for (int i = 0; i < node.childDistances.length; i++) {
+                    if (Math.abs(node.childDistances[i] - distance) <= threshold) {
+                        pending.push(node.children[i]);
+                    }
+                }
+            }
+        }
+    }
+}
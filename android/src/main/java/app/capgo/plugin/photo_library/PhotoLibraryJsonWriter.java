@@ -0,0 +1,305 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal streaming JSON writer over a reusable {@link StringBuilder}. Used for large result pages
+ * so rows are written straight from the cursor instead of going through one {@code JSObject} per
+ * asset and a second serialization pass in the bridge.
+ *
+ * <p>Object keys are written as is and must be plain ASCII constants. Repeated string values
+ * (MIME types, album ids) are escaped once and cached. Writers are not thread safe; use one per
+ * thread through {@link #acquire()}.
+ */
+final class PhotoLibraryJsonWriter {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    /** Buffers that grew past this are dropped after use instead of being kept for the thread. */
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+    private static final int MAX_DEPTH = 32;
+    private static final int MAX_CACHED_STRINGS = 512;
+    private static final int DAY_CACHE_SIZE = 64;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final DateTimeFormatter FALLBACK_FORMATTER = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private static final ThreadLocal<PhotoLibraryJsonWriter> WRITERS = ThreadLocal.withInitial(() -> new PhotoLibraryJsonWriter(INITIAL_CAPACITY));
+    /** Bumped by {@link #releaseRetained}; writers of an older generation drop their buffers. */
+    private static final AtomicInteger RETAINED_GENERATION = new AtomicInteger();
+
+    private StringBuilder out;
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    private boolean afterName = false;
+    private final Map<String, String> escapedStrings = new HashMap<>();
+    private final long[] cachedDays = new long[DAY_CACHE_SIZE];
+    private final String[] cachedDayPrefixes = new String[DAY_CACHE_SIZE];
+    private int generation = RETAINED_GENERATION.get();
+
+    /** Creates a standalone writer, for example one per column of a columnar page. */
+    PhotoLibraryJsonWriter(int initialCapacity) {
+        out = new StringBuilder(initialCapacity);
+    }
+
+    /** Returns this thread's writer, emptied. */
+    static PhotoLibraryJsonWriter acquire() {
+        PhotoLibraryJsonWriter writer = WRITERS.get();
+        int current = RETAINED_GENERATION.get();
+        if (writer.generation != current) {
+            writer.generation = current;
+            writer.out = new StringBuilder(INITIAL_CAPACITY);
+            writer.escapedStrings.clear();
+        }
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Makes every thread's writer drop its grown buffer and string cache on its next
+     * {@link #acquire}. Thread locals of other threads cannot be cleared directly.
+     */
+    static void releaseRetained() {
+        RETAINED_GENERATION.incrementAndGet();
+    }
+
+    void reset() {
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            out = new StringBuilder(INITIAL_CAPACITY);
+        } else {
+            out.setLength(0);
+        }
+        depth = 0;
+        afterName = false;
+    }
+
+    PhotoLibraryJsonWriter beginObject() {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    PhotoLibraryJsonWriter endObject() {
+        depth--;
+        out.append('}');
+        return this;
+    }
+
+    PhotoLibraryJsonWriter beginArray() {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    PhotoLibraryJsonWriter endArray() {
+        depth--;
+        out.append(']');
+        return this;
+    }
+
+    /** Writes an object key. {@code name} is not escaped. */
+    PhotoLibraryJsonWriter name(String name) {
+        if (hasValue[depth - 1]) {
+            out.append(',');
+        }
+        hasValue[depth - 1] = true;
+        out.append('"').append(name).append("\":");
+        afterName = true;
+        return this;
+    }
+
+    PhotoLibraryJsonWriter value(@Nullable String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        out.append('"');
+        escape(value);
+        out.append('"');
+        return this;
+    }
+
+    /** Writes {@code prefix + suffix} as one string without concatenating them first. */
+    PhotoLibraryJsonWriter value(String prefix, String suffix) {
+        beforeValue();
+        out.append('"');
+        escape(prefix);
+        escape(suffix);
+        out.append('"');
+        return this;
+    }
+
+    /**
+     * Writes a string that repeats across rows, such as a MIME type. Its escaped form is cached so
+     * it is only scanned once per writer.
+     */
+    PhotoLibraryJsonWriter repeatedValue(@Nullable String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        String escaped = escapedStrings.get(value);
+        if (escaped != null) {
+            out.append(escaped);
+            return this;
+        }
+        int start = out.length();
+        out.append('"');
+        escape(value);
+        out.append('"');
+        if (escapedStrings.size() < MAX_CACHED_STRINGS) {
+            escapedStrings.put(value, out.substring(start));
+        }
+        return this;
+    }
+
+    PhotoLibraryJsonWriter nullValue() {
+        beforeValue();
+        out.append("null");
+        return this;
+    }
+
+    /** Splices the complete JSON value held by {@code other} in as the next value. */
+    PhotoLibraryJsonWriter rawValue(PhotoLibraryJsonWriter other) {
+        beforeValue();
+        out.append(other.out);
+        return this;
+    }
+
+    PhotoLibraryJsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    PhotoLibraryJsonWriter value(double value) {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        return this;
+    }
+
+    PhotoLibraryJsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes {@code epochMillis} as an ISO-8601 UTC timestamp, the same text as
+     * {@code DateTimeFormatter.ISO_OFFSET_DATE_TIME} in UTC. The date part is cached per day, so
+     * assets from the same day share it.
+     */
+    PhotoLibraryJsonWriter isoDate(long epochMillis) {
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+        int slot = (int) Math.floorMod(day, (long) DAY_CACHE_SIZE);
+        String prefix = cachedDayPrefixes[slot];
+        if (prefix == null || cachedDays[slot] != day) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            if (date.getYear() < 0 || date.getYear() > 9999) {
+                return value(FALLBACK_FORMATTER.format(Instant.ofEpochMilli(epochMillis)));
+            }
+            prefix = date + "T";
+            cachedDays[slot] = day;
+            cachedDayPrefixes[slot] = prefix;
+        }
+
+        beforeValue();
+        int seconds = millisOfDay / 1000;
+        int millis = millisOfDay % 1000;
+        out.append('"').append(prefix);
+        twoDigits(seconds / 3600).append(':');
+        twoDigits((seconds / 60) % 60).append(':');
+        twoDigits(seconds % 60);
+        if (millis != 0) {
+            // Same as the formatter: drop trailing zeros of the fraction.
+            out.append('.').append((char) ('0' + millis / 100));
+            if (millis % 100 != 0) {
+                out.append((char) ('0' + (millis / 10) % 10));
+                if (millis % 10 != 0) {
+                    out.append((char) ('0' + millis % 10));
+                }
+            }
+        }
+        out.append("Z\"");
+        return this;
+    }
+
+    int length() {
+        return out.length();
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void push() {
+        hasValue[depth++] = false;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                out.append(',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+
+    private StringBuilder twoDigits(int value) {
+        return out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private void escape(String value) {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(value, start, i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u").append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf]).append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+                    break;
+            }
+            start = i + 1;
+        }
+        out.append(value, start, length);
+    }
+}
@@ -0,0 +1,93 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ComponentCallbacks2;
+import com.getcapacitor.JSObject;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory pressure reported through {@link ComponentCallbacks2#onTrimMemory}. Trim levels are mapped
+ * to three severities that decide how much the service releases. From {@link #LOW} on, background
+ * work (progressive thumbnail upgrades, hash indexing, snapshot revalidation) is paused. The system
+ * never reports that pressure ended, so a pause lapses {@link #PAUSE_MILLIS} after the last signal.
+ */
+final class PhotoLibraryMemoryPressure {
+
+    static final int MODERATE = 0;
+    static final int LOW = 1;
+    static final int CRITICAL = 2;
+    static final long PAUSE_MILLIS = 30_000L;
+
+    private final AtomicLong trims = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong skippedTasks = new AtomicLong();
+    private final AtomicLong releasedEntries = new AtomicLong();
+    private volatile int lastLevel = -1;
+    private volatile long lastTrimAt = 0;
+    private volatile long pausedUntil = 0;
+
+    /** Maps a trim level to {@link #MODERATE}, {@link #LOW} or {@link #CRITICAL}. */
+    @SuppressWarnings("deprecation")
+    static int severity(int level) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                return CRITICAL;
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+                return LOW;
+            default:
+                return MODERATE;
+        }
+    }
+
+    /** Records a trim signal and returns its severity, pausing background work from {@link #LOW} on. */
+    int onTrim(int level) {
+        int severity = severity(level);
+        long now = System.currentTimeMillis();
+        trims.incrementAndGet();
+        lastLevel = level;
+        lastTrimAt = now;
+        if (severity >= LOW) {
+            if (pausedUntil <= now) {
+                pauses.incrementAndGet();
+            }
+            pausedUntil = now + PAUSE_MILLIS;
+        }
+        return severity;
+    }
+
+    boolean isPaused() {
+        return remainingPauseMillis() > 0;
+    }
+
+    long remainingPauseMillis() {
+        return Math.max(0, pausedUntil - System.currentTimeMillis());
+    }
+
+    void recordSkipped() {
+        skippedTasks.incrementAndGet();
+    }
+
+    void recordReleased(long entries) {
+        releasedEntries.addAndGet(entries);
+    }
+
+    void reset() {
+        trims.set(0);
+        pauses.set(0);
+        skippedTasks.set(0);
+        releasedEntries.set(0);
+    }
+
+    JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put("trims", trims.get());
+        result.put("lastTrimLevel", lastLevel);
+        result.put("lastTrimAt", lastTrimAt);
+        result.put("pauses", pauses.get());
+        result.put("paused", isPaused());
+        result.put("skippedBackgroundTasks", skippedTasks.get());
+        result.put("releasedEntries", releasedEntries.get());
+        return result;
+    }
+}
@@ -0,0 +1,147 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently served {@code getLibrary} pages, keyed by their normalized options and valid for the
+ * MediaStore generation they were built at. Every page carries a version tag; a request that sends
+ * the current tag back is told its copy is still current instead of receiving the page again.
+ * Pages are kept in memory only, least recently used first out, within a character budget.
+ *
+ * <p>Thumbnails and copies referenced by a page can be evicted without the generation changing,
+ * so the service calls {@link #invalidate} when it evicts cached files. Every invalidation moves
+ * the cache to a new epoch, which is part of the tags, so no page from before it is reported as
+ * current. Files deleted behind the plugin's back, when the app's cache is cleared, are caught by
+ * the service once per request and reported through {@link #filesMissing}.
+ */
+final class PhotoLibraryPageCache {
+
+    static final int MAX_ENTRIES = 16;
+    static final int MAX_PAGE_CHARS = PhotoLibrarySnapshotStore.MAX_PAGE_CHARS;
+    static final long MAX_TOTAL_CHARS = 8L * 1024L * 1024L;
+
+    private static final class Entry {
+
+        final String generation;
+        final long epoch;
+        final String etag;
+        final PhotoLibraryFetchResult result;
+
+        Entry(String generation, long epoch, String etag, PhotoLibraryFetchResult result) {
+            this.generation = generation;
+            this.epoch = epoch;
+            this.etag = etag;
+            this.result = result;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES * 2, 0.75f, true);
+    private long totalChars = 0;
+    private long epoch = 0;
+    private long hits = 0;
+    private long notModified = 0;
+    private long misses = 0;
+    private long missingFiles = 0;
+
+    /**
+     * Key of a page: every option plus {@code variant}, which covers service state that changes how
+     * the page is written (such as whether the stream handler is installed).
+     */
+    static String key(GetLibraryOptions options, String variant) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            options.writeTo(out);
+            out.writeUTF(variant);
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the cached page for {@code key} if it was built at {@code generation} in the current
+     * epoch. When {@code ifNoneMatch} is its tag, a not modified result is returned instead.
+     */
+    @Nullable
+    synchronized PhotoLibraryFetchResult get(String key, String generation, @Nullable String ifNoneMatch) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.epoch != epoch || !entry.generation.equals(generation)) {
+            misses++;
+            return null;
+        }
+        if (entry.etag.equals(ifNoneMatch)) {
+            notModified++;
+            return PhotoLibraryFetchResult.notModified(entry.etag);
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /** Tags {@code result} and caches it when it fits the budget. Returns the tagged result. */
+    synchronized PhotoLibraryFetchResult put(String key, String generation, PhotoLibraryFetchResult result) {
+        String etag = PhotoLibraryUtils.hashed(generation + '\u0000' + epoch + '\u0000' + key);
+        PhotoLibraryFetchResult tagged = result.withEtag(etag);
+        remove(key);
+        if (result.json.length() > MAX_PAGE_CHARS) {
+            return tagged;
+        }
+        entries.put(key, new Entry(generation, epoch, etag, tagged));
+        totalChars += result.json.length();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > MAX_ENTRIES || totalChars > MAX_TOTAL_CHARS) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            totalChars -= eldest.result.json.length();
+        }
+        return tagged;
+    }
+
+    /** Drops every page and starts a new epoch. Returns the number of pages dropped. */
+    synchronized int invalidate() {
+        int dropped = entries.size();
+        entries.clear();
+        totalChars = 0;
+        epoch++;
+        return dropped;
+    }
+
+    /** Drops every page because the files they reference were deleted from outside the plugin. */
+    synchronized void filesMissing() {
+        missingFiles++;
+        invalidate();
+    }
+
+    synchronized void resetStats() {
+        hits = 0;
+        notModified = 0;
+        misses = 0;
+        missingFiles = 0;
+    }
+
+    synchronized JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put("entries", entries.size());
+        result.put("chars", totalChars);
+        result.put("hits", hits);
+        result.put("notModified", notModified);
+        result.put("misses", misses);
+        result.put("missingFiles", missingFiles);
+        return result;
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            totalChars -= previous.result.json.length();
+        }
+    }
+}
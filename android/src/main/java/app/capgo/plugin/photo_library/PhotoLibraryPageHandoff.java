@@ -0,0 +1,56 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * Library pages waiting to be fetched by the web view through {@link PhotoLibraryStreamHandler}.
+ * Sending a large page this way skips the bridge, which would otherwise escape the already encoded
+ * page into its own JSON message and make the web view parse it twice. Each page can be read once;
+ * unread pages are dropped oldest first beyond a count and byte budget.
+ */
+final class PhotoLibraryPageHandoff {
+
+    /** Pages shorter than this are sent inline; the extra request would cost more than it saves. */
+    static final int MIN_CHARS = 64 * 1024;
+    static final int MAX_PAGES = 8;
+    static final long MAX_BYTES = 32L * 1024L * 1024L;
+
+    private final LinkedHashMap<String, byte[]> pages = new LinkedHashMap<>();
+    private long totalBytes = 0;
+
+    /** Holds {@code json} and returns the token to fetch it with. */
+    synchronized String offer(String json) {
+        String token = UUID.randomUUID().toString();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        pages.put(token, bytes);
+        totalBytes += bytes.length;
+        Iterator<byte[]> iterator = pages.values().iterator();
+        while ((pages.size() > MAX_PAGES || totalBytes > MAX_BYTES) && pages.size() > 1 && iterator.hasNext()) {
+            totalBytes -= iterator.next().length;
+            iterator.remove();
+        }
+        return token;
+    }
+
+    /** Returns and forgets the page for {@code token}, or {@code null} when it was read or dropped. */
+    @Nullable
+    synchronized byte[] take(String token) {
+        byte[] bytes = pages.remove(token);
+        if (bytes != null) {
+            totalBytes -= bytes.length;
+        }
+        return bytes;
+    }
+
+    /** Drops every unread page. Returns the number of pages dropped. */
+    synchronized int clear() {
+        int dropped = pages.size();
+        pages.clear();
+        totalBytes = 0;
+        return dropped;
+    }
+}
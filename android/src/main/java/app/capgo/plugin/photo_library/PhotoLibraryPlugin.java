@@ -3,14 +3,18 @@ package app.capgo.plugin.photo_library;
 import android.Manifest;
 import android.app.Activity;
 import android.content.ClipData;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Build;
 import androidx.activity.result.ActivityResult;
 import androidx.annotation.NonNull;
+import com.getcapacitor.BridgeWebViewClient;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
 import com.getcapacitor.PermissionState;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -22,8 +26,6 @@ import com.getcapacitor.annotation.PermissionCallback;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @CapacitorPlugin(
     name = "PhotoLibrary",
@@ -32,7 +34,8 @@ import java.util.concurrent.Executors;
             strings = { Manifest.permission.READ_MEDIA_IMAGES, Manifest.permission.READ_MEDIA_VIDEO },
             alias = PhotoLibraryPlugin.PERMISSION_MEDIA
         ),
-        @Permission(strings = { Manifest.permission.READ_EXTERNAL_STORAGE }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LEGACY)
+        @Permission(strings = { Manifest.permission.READ_EXTERNAL_STORAGE }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LEGACY),
+        @Permission(strings = { Manifest.permission.ACCESS_MEDIA_LOCATION }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LOCATION)
     }
 )
 public class PhotoLibraryPlugin extends Plugin {
@@ -41,26 +44,59 @@ public class PhotoLibraryPlugin extends Plugin {
 
     static final String PERMISSION_MEDIA = "media";
     static final String PERMISSION_MEDIA_LEGACY = "media_legacy";
+    static final String PERMISSION_MEDIA_LOCATION = "media_location";
 
     private static final String STATE_AUTHORIZED = "authorized";
     private static final String STATE_DENIED = "denied";
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final PhotoLibraryExecutors executors = new PhotoLibraryExecutors();
     private PhotoLibraryService service;
     private boolean pickInProgress = false;
     private PickMediaOptions pendingPickOptions;
+    private boolean streamHandlerInstalled = false;
+    private boolean packedThumbnails = false;
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (service != null) {
+                service.trimMemory(level);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+    };
 
     @Override
     public void load() {
         super.load();
-        service = new PhotoLibraryService(getContext(), getBridge());
+        service = new PhotoLibraryService(getContext(), getBridge(), executors, this::notifyListeners);
+        service.setFileCacheMaxBytes(getConfig().getInt("fileCacheSizeMb", PhotoLibraryDefaults.FILE_CACHE_SIZE_MB) * 1024L * 1024L);
         service.prepareCacheDirectories();
+        packedThumbnails = getConfig().getBoolean("packedThumbnails", false);
+        if (packedThumbnails) {
+            int packSizeMb = getConfig().getInt("thumbnailPackSizeMb", PhotoLibraryDefaults.THUMBNAIL_PACK_SIZE_MB);
+            service.enableThumbnailPack(packSizeMb * 1024L * 1024L);
+            // Packed thumbnails are served by the stream handler, so it is installed up front.
+            installStreamHandler();
+        }
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
     }
 
     @Override
     protected void handleOnDestroy() {
         super.handleOnDestroy();
-        executor.shutdown();
+        getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        executors.shutdown();
+        if (service != null) {
+            service.close();
+        }
         service = null;
     }
 
@@ -94,7 +130,7 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        executors.query.execute(() -> {
             try {
                 JSArray albums = service.fetchAlbums();
                 JSObject result = new JSObject();
@@ -121,13 +157,191 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        // GPS tags are redacted on Android 10+ without ACCESS_MEDIA_LOCATION. Ask once; the page is
+        // returned without coordinates if the user declines.
+        if (
+            options.includeLocation &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q &&
+            getPermissionState(PERMISSION_MEDIA_LOCATION) == PermissionState.PROMPT
+        ) {
+            requestPermissionForAlias(PERMISSION_MEDIA_LOCATION, call, "libraryLocationCallback");
+            return;
+        }
+
+        runGetLibrary(call, options);
+    }
+
+    @PermissionCallback
+    private void libraryLocationCallback(PluginCall call) {
+        GetLibraryOptions options;
+        try {
+            options = GetLibraryOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+        runGetLibrary(call, options);
+    }
+
+    private void runGetLibrary(PluginCall call, GetLibraryOptions options) {
+        String ifNoneMatch = call.getString("ifNoneMatch");
+        runWithStreamHandler(() -> {
+            try {
+                call.resolve(libraryPayload(options, service.fetchLibrary(options, ifNoneMatch)));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getCachedLibrarySnapshot(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        boolean revalidate = call.getBoolean("revalidate", true);
+        Runnable task = () -> {
+            try {
+                JSObject snapshot = service.loadSnapshot();
+                JSObject result = snapshot != null ? snapshot : new JSObject();
+                result.put("found", snapshot != null);
+                call.resolve(result);
+                if (snapshot != null && revalidate) {
+                    service.revalidateSnapshot();
+                }
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        };
+
+        // A snapshot with packed thumbnails is only served once the handler that serves them is installed.
+        if (packedThumbnails) {
+            runWithStreamHandler(task);
+        } else {
+            executors.io.execute(task);
+        }
+    }
+
+    @PluginMethod
+    public void getTimelineBuckets(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        GetLibraryOptions options;
+        PhotoLibraryTimeline.Granularity granularity;
+        try {
+            options = GetLibraryOptions.fromCall(call);
+            granularity = PhotoLibraryTimeline.Granularity.fromValue(call.getString("granularity", "month"));
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        executors.query.execute(() -> {
+            try {
+                call.resolve(service.getTimelineBuckets(options, granularity));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void openLibrarySession(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        GetLibraryOptions options;
+        long ttlMillis;
+        try {
+            options = GetLibraryOptions.fromCall(call);
+            ttlMillis = sessionTtlMillis(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        if (
+            options.includeLocation &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q &&
+            getPermissionState(PERMISSION_MEDIA_LOCATION) == PermissionState.PROMPT
+        ) {
+            requestPermissionForAlias(PERMISSION_MEDIA_LOCATION, call, "sessionLocationCallback");
+            return;
+        }
+
+        runOpenSession(call, options, ttlMillis);
+    }
+
+    @PermissionCallback
+    private void sessionLocationCallback(PluginCall call) {
+        GetLibraryOptions options;
+        long ttlMillis;
+        try {
+            options = GetLibraryOptions.fromCall(call);
+            ttlMillis = sessionTtlMillis(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+        runOpenSession(call, options, ttlMillis);
+    }
+
+    private void runOpenSession(PluginCall call, GetLibraryOptions options, long ttlMillis) {
+        executors.query.execute(() -> {
             try {
-                PhotoLibraryFetchResult result = service.fetchLibrary(options);
-                JSObject payload = new JSObject();
-                payload.put("assets", result.assets);
-                payload.put("totalCount", result.totalCount);
-                payload.put("hasMore", result.hasMore);
+                PhotoLibrarySessions.Session session = service.openSession(options, ttlMillis);
+                JSObject result = new JSObject();
+                result.put("sessionId", session.id);
+                result.put("totalCount", session.ids.length);
+                result.put("expiresAt", session.expiresAt());
+                call.resolve(result);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getLibraryPage(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId is required");
+            return;
+        }
+        int offset = call.getInt("offset", 0);
+        if (offset < 0) {
+            call.reject("offset must be greater than or equal to 0");
+            return;
+        }
+        Integer limit = call.getInt("limit");
+        if (limit != null && limit < 0) {
+            call.reject("limit must be greater than or equal to 0");
+            return;
+        }
+        Integer pageLimit = limit != null && limit > 0 ? limit : null;
+
+        PhotoLibrarySessions.Session session = service.getSession(sessionId);
+        if (session == null) {
+            call.reject(PhotoLibraryService.SESSION_NOT_FOUND);
+            return;
+        }
+
+        runWithStreamHandler(() -> {
+            try {
+                JSObject payload = libraryPayload(session.options, service.fetchSessionPage(session, offset, pageLimit));
+                payload.put("expiresAt", session.expiresAt());
                 call.resolve(payload);
             } catch (Exception ex) {
                 call.reject(ex.getMessage(), ex);
@@ -135,6 +349,94 @@ public class PhotoLibraryPlugin extends Plugin {
         });
     }
 
+    @PluginMethod
+    public void closeLibrarySession(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId is required");
+            return;
+        }
+        service.closeSession(sessionId);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void startHashIndexing(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+        service.startHashIndexing();
+        // Reading the index size may load it from disk.
+        executors.io.execute(() -> call.resolve(service.getHashIndexStatus()));
+    }
+
+    @PluginMethod
+    public void stopHashIndexing(PluginCall call) {
+        service.stopHashIndexing();
+        executors.io.execute(() -> call.resolve(service.getHashIndexStatus()));
+    }
+
+    @PluginMethod
+    public void findSimilarAssets(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        String id = call.getString("id");
+        boolean all = call.getBoolean("all", false);
+        boolean hasId = id != null && !id.isEmpty();
+        if (hasId == all) {
+            call.reject("Exactly one of id or all is required");
+            return;
+        }
+        int threshold = call.getInt("threshold", PhotoLibraryDefaults.SIMILARITY_THRESHOLD);
+        if (threshold < 0 || threshold > 64) {
+            call.reject("threshold must be between 0 and 64");
+            return;
+        }
+
+        executors.decode.execute(() -> {
+            try {
+                JSObject result = all ? service.findSimilarAssetGroups(threshold) : service.findSimilarAssets(id, threshold);
+                if (result == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                call.resolve(result);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    private long sessionTtlMillis(PluginCall call) {
+        Double ttl = call.getDouble("ttl");
+        if (ttl == null) {
+            return PhotoLibraryDefaults.SESSION_TTL_SECONDS * 1000L;
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be greater than 0");
+        }
+        return (long) (ttl * 1000);
+    }
+
+    private JSObject libraryPayload(GetLibraryOptions options, PhotoLibraryFetchResult result) {
+        JSObject payload = new JSObject();
+        if (result.etag != null) {
+            payload.put("etag", result.etag);
+        }
+        if (result.notModified) {
+            payload.put("notModified", true);
+            return payload;
+        }
+        service.putPage(payload, options.columnar, result.json);
+        payload.put("totalCount", result.totalCount);
+        payload.put("hasMore", result.hasMore);
+        return payload;
+    }
+
     @PluginMethod
     public void getPhotoUrl(PluginCall call) {
         if (!hasMediaPermissions()) {
@@ -148,9 +450,17 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        String mode = call.getString("mode", "copy");
+        if (!"copy".equals(mode) && !"stream".equals(mode)) {
+            call.reject("mode must be either 'copy' or 'stream'");
+            return;
+        }
+        boolean stream = "stream".equals(mode);
+        boolean checksum = call.getBoolean("checksum", false);
+
+        Runnable task = () -> {
             try {
-                JSObject file = service.getFullResolutionFile(id);
+                JSObject file = service.getFullResolutionFile(id, stream, checksum);
                 if (file == null) {
                     call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
                     return;
@@ -159,7 +469,13 @@ public class PhotoLibraryPlugin extends Plugin {
             } catch (Exception ex) {
                 call.reject(ex.getMessage(), ex);
             }
-        });
+        };
+
+        if (stream) {
+            runWithStreamHandler(task);
+        } else {
+            executors.io.execute(task);
+        }
     }
 
     @PluginMethod
@@ -178,15 +494,105 @@ public class PhotoLibraryPlugin extends Plugin {
         int width = call.getInt("width", PhotoLibraryDefaults.THUMBNAIL_WIDTH);
         int height = call.getInt("height", PhotoLibraryDefaults.THUMBNAIL_HEIGHT);
         double quality = call.getDouble("quality", PhotoLibraryDefaults.THUMBNAIL_QUALITY);
+        boolean progressive = call.getBoolean("progressive", false);
+
+        executors.decode.execute(() -> {
+            try {
+                JSObject file = service.getThumbnailFile(id, width, height, quality, progressive);
+                if (file == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                call.resolve(file);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getVideoFrames(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        VideoFramesOptions options;
+        try {
+            options = VideoFramesOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        executors.decode.execute(() -> {
+            try {
+                JSArray frames = service.getVideoFrames(options);
+                if (frames == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                JSObject result = new JSObject();
+                result.put("frames", frames);
+                call.resolve(result);
+            } catch (IllegalArgumentException ex) {
+                call.reject(ex.getMessage());
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void exportImage(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        ExportImageOptions options;
+        try {
+            options = ExportImageOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
 
-        executor.execute(() -> {
+        executors.decode.execute(() -> {
             try {
-                JSObject file = service.getThumbnailFile(id, width, height, quality);
+                JSObject file = service.exportImage(options);
                 if (file == null) {
                     call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
                     return;
                 }
                 call.resolve(file);
+            } catch (IllegalArgumentException ex) {
+                call.reject(ex.getMessage());
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void exportAssets(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        ExportAssetsOptions options;
+        try {
+            options = ExportAssetsOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        // Ids are resolved on the query pool; the copies then run on the export pool and resolve the call.
+        executors.query.execute(() -> {
+            try {
+                service.exportAssets(options, call::resolve);
             } catch (Exception ex) {
                 call.reject(ex.getMessage(), ex);
             }
@@ -298,7 +704,7 @@ public class PhotoLibraryPlugin extends Plugin {
         }
 
         final List<Uri> finalUris = uris;
-        executor.execute(() -> {
+        executors.query.execute(() -> {
             try {
                 JSArray pickedAssets = service.createAssetsFromUris(finalUris, options);
                 JSObject resultObject = new JSObject();
@@ -310,6 +716,65 @@ public class PhotoLibraryPlugin extends Plugin {
         });
     }
 
+    /**
+     * Installs the streaming web view client on first use, then schedules {@code task}. When the app
+     * already replaced Capacitor's web view client we leave it alone and the service falls back to
+     * cached copies and inline pages. Library pages always go through here so large ones can be
+     * fetched from the handler instead of crossing the bridge.
+     */
+    private void runWithStreamHandler(Runnable task) {
+        bridge.executeOnMainThread(() -> {
+            ensureStreamHandler();
+            executors.query.execute(task);
+        });
+    }
+
+    private void installStreamHandler() {
+        bridge.executeOnMainThread(this::ensureStreamHandler);
+    }
+
+    private void ensureStreamHandler() {
+        if (streamHandlerInstalled) {
+            return;
+        }
+        BridgeWebViewClient current = bridge.getWebViewClient();
+        if (current == null || current.getClass() == BridgeWebViewClient.class) {
+            bridge.setWebViewClient(new PhotoLibraryWebViewClient(bridge, service.createStreamHandler()));
+            service.setStreamingEnabled(true);
+        } else {
+            Logger.warn("PhotoLibrary", "A custom WebViewClient is installed, streaming falls back to cached copies");
+        }
+        streamHandlerInstalled = true;
+    }
+
+    @PluginMethod
+    public void releasePickedAssets(PluginCall call) {
+        ReleasePickedAssetsOptions options;
+        try {
+            options = ReleasePickedAssetsOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        executors.io.execute(() -> {
+            JSObject result = new JSObject();
+            result.put("released", service.releasePickedItems(options.ids));
+            call.resolve(result);
+        });
+    }
+
+    @PluginMethod
+    public void getPerformanceStats(PluginCall call) {
+        call.resolve(service.getPerformanceStats());
+    }
+
+    @PluginMethod
+    public void resetPerformanceStats(PluginCall call) {
+        service.resetPerformanceStats();
+        call.resolve();
+    }
+
     private JSObject statusObject(@NonNull String state) {
         JSObject result = new JSObject();
         result.put("state", state);
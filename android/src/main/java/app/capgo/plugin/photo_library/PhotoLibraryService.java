@@ -1,65 +1,285 @@
 package app.capgo.plugin.photo_library;
 
+import android.Manifest;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
 import android.media.MediaMetadataRetriever;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.util.Size;
 import androidx.annotation.Nullable;
+import app.capgo.plugin.photo_library.PickedItemRegistry.PickedItem;
 import com.getcapacitor.Bridge;
 import com.getcapacitor.FileUtils;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Logger;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import org.json.JSONException;
 
 final class PhotoLibraryService {
 
     static final String PERMISSION_ERROR = "Permission Denial: This application is not allowed to access photo data.";
     static final String ASSET_NOT_FOUND = "Asset not found";
+    static final String EVENT_THUMBNAIL_UPDATED = "thumbnailUpdated";
+    static final String EVENT_PICK_PROGRESS = "pickMediaProgress";
+    static final String SESSION_NOT_FOUND = "Library session not found or expired";
+    static final String EVENT_SNAPSHOT_CHANGED = "librarySnapshotChanged";
+    static final String EVENT_HASH_INDEX_PROGRESS = "hashIndexProgress";
+    private static final String EXIF_PREVIEW_SUFFIX = "_exif.jpg";
+    /** Session pages look rows up with an {@code IN} list of at most this many ids per query. */
+    private static final int SESSION_IDS_PER_QUERY = 500;
+    /** Images hashed per decode pool task; each batch is appended to the hash index in one write. */
+    private static final int HASH_BATCH_SIZE = 32;
+    /** Longest edge of the thumbnail perceptual hashes are computed from. */
+    private static final int HASH_SOURCE_SIZE = 64;
+    /** EXIF cache entries kept under moderate and low memory pressure; critical pressure clears it. */
+    private static final int EXIF_ENTRIES_MODERATE = 1024;
+    private static final int EXIF_ENTRIES_LOW = 256;
+    /** Streamed originals remembered for the stream handler; older ones are looked up again on request. */
+    private static final int STREAMABLE_ASSETS_MAX = 2048;
+    /** Streamed originals kept under moderate and low memory pressure; critical pressure clears them. */
+    private static final int STREAMABLE_ASSETS_MODERATE = 512;
+    private static final int STREAMABLE_ASSETS_LOW = 128;
+    private static final String[] ASSET_PROJECTION = new String[] {
+        MediaStore.Files.FileColumns._ID,
+        MediaStore.Files.FileColumns.DISPLAY_NAME,
+        MediaStore.Files.FileColumns.MIME_TYPE,
+        MediaStore.Files.FileColumns.MEDIA_TYPE,
+        MediaStore.Files.FileColumns.SIZE,
+        MediaStore.Files.FileColumns.DATE_ADDED,
+        MediaStore.Files.FileColumns.DATE_MODIFIED,
+        MediaStore.Images.Media.DATE_TAKEN,
+        MediaStore.Images.Media.WIDTH,
+        MediaStore.Images.Media.HEIGHT,
+        MediaStore.Video.Media.DURATION,
+        MediaStore.Images.Media.BUCKET_ID,
+        MediaStore.Images.Media.BUCKET_DISPLAY_NAME
+    };
+
+    interface EventListener {
+        void onEvent(String eventName, JSObject data);
+    }
 
     private final Context context;
     private final Bridge bridge;
+    private final PhotoLibraryExecutors executors;
+    private final EventListener eventListener;
     private final ContentResolver resolver;
     private final File cacheRoot;
+    /** Present while the cache root is intact, see {@link #checkCacheMarker}. */
+    private final File cacheMarker;
     private final File thumbnailDirectory;
+    private final File exportDirectory;
+    /** Output of {@link #exportImage}, kept apart from the {@code exportAssets} destinations. */
+    private final File imageExportDirectory;
     private final File fileDirectory;
-    private final DateTimeFormatter isoFormatter;
-    private final Map<String, PickedItem> pickedItems = new ConcurrentHashMap<>();
+    private final PhotoLibraryStats stats = new PhotoLibraryStats();
+    private final PhotoLibraryMemoryPressure memoryPressure = new PhotoLibraryMemoryPressure();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final PhotoLibraryFileCopier copier;
+    private final PhotoLibraryFileCache fileCache;
+    private final PhotoLibraryChecksums checksums;
+    private final PickedItemRegistry pickedItems;
+    /** Picked copies not registered in {@link #pickedItems} yet, pinned so eviction cannot remove them meanwhile. */
+    private final Map<String, Integer> pendingPickedFiles = new ConcurrentHashMap<>();
+    private final PhotoLibraryExifReader exifReader;
+    private final Set<String> pendingThumbnailUpgrades = ConcurrentHashMap.newKeySet();
+    private final Map<File, String> portableDirectories = new ConcurrentHashMap<>();
+    private final PhotoLibrarySessions sessions = new PhotoLibrarySessions();
+    private final PhotoLibrarySnapshotStore snapshots;
+    private final AtomicBoolean revalidatingSnapshot = new AtomicBoolean();
+    private final Map<String, PhotoLibraryTimeline.Buckets> timelines = new ConcurrentHashMap<>();
+    private final PhotoLibraryHashIndex hashIndex;
+    private final AtomicBoolean hashIndexing = new AtomicBoolean();
+    /** Guards starting a run against a stopping run deciding it is done. */
+    private final Object hashIndexingLock = new Object();
+    private volatile boolean hashIndexingStopped = false;
+    private volatile int hashIndexPending = 0;
+    private final Map<String, MediaAsset> streamableAssets = Collections.synchronizedMap(
+        new LinkedHashMap<String, MediaAsset>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MediaAsset> eldest) {
+                return size() > STREAMABLE_ASSETS_MAX;
+            }
+        }
+    );
+    private volatile boolean streamingEnabled = false;
+    private final PhotoLibraryThumbnailPack thumbnailPack;
+    private final AtomicBoolean compactingThumbnailPack = new AtomicBoolean();
+    private volatile boolean thumbnailPackRequested = false;
+    private final PhotoLibraryPageCache pageCache;
+    private final PhotoLibraryGeneration libraryGeneration;
+    private final PhotoLibraryPageHandoff pageHandoff = new PhotoLibraryPageHandoff();
 
-    PhotoLibraryService(Context context, Bridge bridge) {
+    PhotoLibraryService(Context context, Bridge bridge, PhotoLibraryExecutors executors, EventListener eventListener) {
         this.context = context.getApplicationContext();
         this.bridge = bridge;
+        this.executors = executors;
+        this.eventListener = eventListener;
         this.resolver = context.getContentResolver();
         this.cacheRoot = new File(context.getCacheDir(), "photoLibrary");
+        this.cacheMarker = new File(cacheRoot, "cache.marker");
         this.thumbnailDirectory = new File(cacheRoot, "thumbnails");
+        this.exportDirectory = new File(cacheRoot, "exports");
+        this.imageExportDirectory = new File(cacheRoot, "images");
         this.fileDirectory = new File(cacheRoot, "files");
-        this.isoFormatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneOffset.UTC);
+        this.pickedItems = new PickedItemRegistry(
+            new File(new File(context.getFilesDir(), "photoLibrary"), "picked-items.idx"),
+            new File(cacheRoot, "picked-items.idx"),
+            fileDirectory
+        );
+        this.copier = new PhotoLibraryFileCopier(resolver, stats);
+        this.checksums = new PhotoLibraryChecksums(new File(cacheRoot, "checksums"));
+        this.exifReader = new PhotoLibraryExifReader(resolver);
+        this.snapshots = new PhotoLibrarySnapshotStore(new File(cacheRoot, "library-snapshot.bin"));
+        this.hashIndex = new PhotoLibraryHashIndex(new File(cacheRoot, "perceptual-hashes.idx"));
+        this.libraryGeneration = new PhotoLibraryGeneration(this.context);
+        this.pageCache = new PhotoLibraryPageCache();
+        this.thumbnailPack = new PhotoLibraryThumbnailPack(
+            new File(cacheRoot, "thumbnail-pack"),
+            PhotoLibraryDefaults.THUMBNAIL_PACK_SIZE_MB * 1024L * 1024L,
+            pageCache::invalidate
+        );
+        this.fileCache = new PhotoLibraryFileCache(
+            fileDirectory,
+            PhotoLibraryDefaults.FILE_CACHE_MAX_BYTES,
+            this::pinnedFileNames,
+            file -> {
+                checksums.remove(file);
+                pageCache.invalidate();
+            }
+        );
+    }
+
+    void setFileCacheMaxBytes(long maxBytes) {
+        fileCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Keeps thumbnails of library assets in the {@link PhotoLibraryThumbnailPack} instead of one file
+     * each. Packed thumbnails are only reachable through the stream handler, so they are used once it
+     * is installed; until then, or when the app replaced the web view client, files are written.
+     */
+    void enableThumbnailPack(long maxBytes) {
+        thumbnailPack.setMaxBytes(maxBytes);
+        thumbnailPackRequested = true;
+    }
+
+    private boolean usesThumbnailPack() {
+        return thumbnailPackRequested && streamingEnabled;
+    }
+
+    JSObject getPerformanceStats() {
+        JSObject result = stats.toJSObject();
+        result.put("fileCache", fileCache.toJSObject());
+        result.put("executors", executors.toJSObject());
+        result.put("memory", memoryPressure.toJSObject());
+        result.put("pageCache", pageCache.toJSObject());
+        if (thumbnailPackRequested) {
+            result.put("thumbnailPack", thumbnailPack.toJSObject());
+        }
+        return result;
+    }
+
+    void resetPerformanceStats() {
+        stats.reset();
+        executors.resetStats();
+        memoryPressure.reset();
+        pageCache.resetStats();
+    }
+
+    /**
+     * Releases memory for a {@link android.content.ComponentCallbacks2} trim level. Everything
+     * dropped is rebuilt on demand from disk or the media store. This runs on the main thread, so
+     * state whose lock a long operation may hold (index lookups, snapshot writes) is trimmed on the
+     * I/O pool. From low pressure on, background work is paused as well.
+     */
+    void trimMemory(int level) {
+        int severity = memoryPressure.onTrim(level);
+        PhotoLibraryJsonWriter.releaseRetained();
+        int exifEntries = severity == PhotoLibraryMemoryPressure.CRITICAL
+            ? 0
+            : severity == PhotoLibraryMemoryPressure.LOW
+                ? EXIF_ENTRIES_LOW
+                : EXIF_ENTRIES_MODERATE;
+        memoryPressure.recordReleased(exifReader.trimToSize(exifEntries));
+        int streamableEntries = severity == PhotoLibraryMemoryPressure.CRITICAL
+            ? 0
+            : severity == PhotoLibraryMemoryPressure.LOW
+                ? STREAMABLE_ASSETS_LOW
+                : STREAMABLE_ASSETS_MODERATE;
+        memoryPressure.recordReleased(trimStreamableAssets(streamableEntries));
+        memoryPressure.recordReleased(pageCache.invalidate());
+        if (severity == PhotoLibraryMemoryPressure.MODERATE) {
+            return;
+        }
+        boolean critical = severity == PhotoLibraryMemoryPressure.CRITICAL;
+        memoryPressure.recordReleased(pageHandoff.clear());
+        executors.io.execute(() -> {
+            int released = hashIndex.trim(critical);
+            snapshots.trim();
+            // Under critical pressure only the session in use survives; others are reopened on demand.
+            released += sessions.trim(critical ? 1 : Integer.MAX_VALUE);
+            released += timelines.size();
+            timelines.clear();
+            memoryPressure.recordReleased(released);
+        });
+    }
+
+    /** Forgets the least recently streamed originals beyond {@code maxEntries}. Returns how many were dropped. */
+    private int trimStreamableAssets(int maxEntries) {
+        int removed = 0;
+        synchronized (streamableAssets) {
+            Iterator<MediaAsset> iterator = streamableAssets.values().iterator();
+            while (streamableAssets.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
     }
 
     void prepareCacheDirectories() {
@@ -72,9 +292,54 @@ final class PhotoLibraryService {
         if (!fileDirectory.exists()) {
             fileDirectory.mkdirs();
         }
+        if (!exportDirectory.exists()) {
+            exportDirectory.mkdirs();
+        }
+        if (!imageExportDirectory.exists()) {
+            imageExportDirectory.mkdirs();
+        }
+        if (!cacheMarker.exists()) {
+            createCacheMarker();
+        }
+        fileCache.removePartialFiles();
+    }
+
+    void setStreamingEnabled(boolean enabled) {
+        streamingEnabled = enabled;
+    }
+
+    PhotoLibraryStreamHandler createStreamHandler() {
+        return new PhotoLibraryStreamHandler(
+            resolver,
+            this::resolveStreamSource,
+            thumbnailPackRequested ? thumbnailPack : null,
+            pageHandoff
+        );
+    }
+
+    /**
+     * Adds an encoded page to {@code target} as {@code assetsJson}, or {@code columnsJson} for the
+     * columnar format. Large pages are handed to the stream handler instead, when it is installed,
+     * and only their URL is added as {@code assetsUrl} or {@code columnsUrl}.
+     */
+    void putPage(JSObject target, boolean columnar, String json) {
+        if (streamingEnabled && json.length() >= PhotoLibraryPageHandoff.MIN_CHARS) {
+            String url = PhotoLibraryStreamHandler.pageUrlFor(bridge.getLocalUrl(), pageHandoff.offer(json));
+            target.put(columnar ? "columnsUrl" : "assetsUrl", url);
+        } else {
+            target.put(columnar ? "columnsJson" : "assetsJson", json);
+        }
     }
 
     JSArray fetchAlbums() {
+        String generation = libraryGeneration.current();
+        JSArray albums = queryAlbumList();
+        String json = albums.toString();
+        executors.io.execute(() -> snapshots.saveAlbums(new PhotoLibrarySnapshotStore.Albums(generation, System.currentTimeMillis(), json)));
+        return albums;
+    }
+
+    private JSArray queryAlbumList() {
         Map<String, AlbumAccumulator> accumulator = new HashMap<>();
         queryAlbums(getImagesUri(), accumulator);
         queryAlbums(getVideosUri(), accumulator);
@@ -90,31 +355,85 @@ final class PhotoLibraryService {
         return array;
     }
 
-    PhotoLibraryFetchResult fetchLibrary(GetLibraryOptions options) throws IOException {
+    /**
+     * Builds a page, or serves it from the {@link PhotoLibraryPageCache} when the library has not
+     * changed since it was built. When {@code ifNoneMatch} is the tag of that page, only a not
+     * modified result is returned. First pages are also persisted as the warm start snapshot, off
+     * this thread.
+     */
+    PhotoLibraryFetchResult fetchLibrary(GetLibraryOptions options, @Nullable String ifNoneMatch) throws IOException {
+        // Taken before the query, so changes made while the page is built make it stale.
+        String generation = libraryGeneration.current();
+        // Progressive pages depend on which thumbnails exist and schedule their upgrades, so they are built every time.
+        String key = options.progressiveThumbnails ? null : PhotoLibraryPageCache.key(options, pageVariant());
+        if (key != null) {
+            checkCacheMarker();
+            PhotoLibraryFetchResult cached = pageCache.get(key, generation, ifNoneMatch);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PhotoLibraryFetchResult result = fetchLibraryPage(options, generation);
+        PhotoLibrarySnapshotStore.Page snapshot = result.snapshot;
+        if (snapshot != null) {
+            executors.io.execute(() -> snapshots.savePage(snapshot));
+        }
+        return key != null ? pageCache.put(key, generation, result) : result;
+    }
+
+    /** Drops every cached page, so the next request for each is built again. */
+    void invalidatePageCache() {
+        pageCache.invalidate();
+    }
+
+    /** Stops watching the media store for changes. Called when the plugin is destroyed. */
+    void close() {
+        libraryGeneration.close();
+    }
+
+    /**
+     * Drops every cached page when the marker in the cache root is gone: the app's cache was cleared
+     * behind the plugin's back, so thumbnails and copies the pages reference may be missing. One
+     * check per request instead of one per referenced file. Packed thumbnails are also caught when
+     * the stream handler fails to read them.
+     */
+    private void checkCacheMarker() {
+        if (cacheMarker.exists()) {
+            return;
+        }
+        pageCache.filesMissing();
+        createCacheMarker();
+    }
+
+    private void createCacheMarker() {
+        try {
+            if ((cacheRoot.exists() || cacheRoot.mkdirs()) && (cacheMarker.createNewFile() || cacheMarker.exists())) {
+                // Dated to the epoch, so a trim that deletes the oldest cache files first takes it before any page file.
+                //noinspection ResultOfMethodCallIgnored
+                cacheMarker.setLastModified(0);
+            }
+        } catch (IOException e) {
+            Logger.debug("PhotoLibrary", "Unable to create the cache marker: " + e.getMessage());
+        }
+    }
+
+    /** Service state that changes how a page is written, for {@link PhotoLibraryPageCache#key}. */
+    private String pageVariant() {
+        return (streamingEnabled ? "s" : "-") + (usesThumbnailPack() ? "p" : "-") + (hasOriginalAccess() ? "o" : "-");
+    }
+
+    private PhotoLibraryFetchResult fetchLibraryPage(GetLibraryOptions options, String libraryGeneration) throws IOException {
+        String generation = options.isWarmStart() ? libraryGeneration : null;
+        PhotoLibrarySnapshotStore.Entries entries = generation != null ? new PhotoLibrarySnapshotStore.Entries() : null;
         Uri contentUri = getFilesUri();
-        String[] projection = new String[] {
-            MediaStore.Files.FileColumns._ID,
-            MediaStore.Files.FileColumns.DISPLAY_NAME,
-            MediaStore.Files.FileColumns.MIME_TYPE,
-            MediaStore.Files.FileColumns.MEDIA_TYPE,
-            MediaStore.Files.FileColumns.SIZE,
-            MediaStore.Files.FileColumns.DATE_ADDED,
-            MediaStore.Files.FileColumns.DATE_MODIFIED,
-            MediaStore.Images.Media.DATE_TAKEN,
-            MediaStore.Images.Media.WIDTH,
-            MediaStore.Images.Media.HEIGHT,
-            MediaStore.Video.Media.DURATION,
-            MediaStore.Images.Media.BUCKET_ID,
-            MediaStore.Images.Media.BUCKET_DISPLAY_NAME
-        };
+        String[] projection = ASSET_PROJECTION;
 
-        Selection selection = buildSelection(options);
+        Selection selection = Selection.forOptions(options);
         int totalCount = countItems(contentUri, selection);
 
         String sortOrder = buildSortOrder(options);
-        JSArray assetsArray = new JSArray();
+        PhotoLibraryJsonWriter writer = PhotoLibraryJsonWriter.acquire();
         int collected = 0;
-        int skipped = 0;
 
         Bundle queryArgs = new Bundle();
         queryArgs.putString(
@@ -139,52 +458,756 @@ final class PhotoLibraryService {
         }
         
 
-        try (Cursor cursor = resolver.query(contentUri, projection, queryArgs,null)) {
+        int expected = Math.max(0, totalCount - options.offset);
+        PhotoLibraryColumnarPage page = beginPage(writer, options, options.limit != null ? Math.min(options.limit, expected) : expected);
+        try (
+            PhotoLibraryStats.Total rowDecode = stats.total(PhotoLibraryStats.Stage.ROW_DECODE);
+            Cursor cursor = queryPage(contentUri, projection, queryArgs)
+        ) {
             if (cursor != null) {
+                AssetRow.Columns columns = new AssetRow.Columns(cursor);
+                AssetRow row = new AssetRow();
+                int skip = options.limit == null ? options.offset : 0;
+                Map<String, PhotoLibraryExifReader.Metadata> metadata = readPageMetadata(cursor, columns, row, skip, options.limit, options);
+                cursor.moveToPosition(skip - 1);
+                while ((options.limit == null || collected < options.limit) && cursor.moveToNext()) {
+                    boolean added = page != null
+                        ? addColumnarAsset(page, cursor, columns, row, options, metadata, entries, rowDecode)
+                        : writeAsset(writer, cursor, columns, row, options, metadata, entries, rowDecode);
+                    if (added) {
+                        collected++;
+                    }
+                }
+            }
+        }
+        endPage(writer, page);
+
+        int consumed = options.limit != null ? options.offset + collected : Math.min(totalCount, options.offset) + collected;
+        boolean hasMore = consumed < totalCount;
+        String json = writer.toString();
+        PhotoLibrarySnapshotStore.Page snapshot = null;
+        if (entries != null && json.length() <= PhotoLibrarySnapshotStore.MAX_PAGE_CHARS) {
+            snapshot = entries.toPage(generation, options, totalCount, hasMore, json);
+        }
+        return new PhotoLibraryFetchResult(json, totalCount, hasMore, snapshot);
+    }
+
+    /**
+     * Returns the persisted first page and album list, or {@code null} when nothing was saved yet.
+     * Either part can be missing.
+     */
+    @Nullable
+    JSObject loadSnapshot() {
+        PhotoLibrarySnapshotStore.Page page = snapshots.page();
+        PhotoLibrarySnapshotStore.Albums albums = snapshots.albums();
+        if (page != null && !snapshotThumbnailsReachable(page)) {
+            page = null;
+        }
+        if (page == null && albums == null) {
+            return null;
+        }
+        JSObject result = new JSObject();
+        if (page != null) {
+            putPage(result, page.options.columnar, page.json);
+            result.put("totalCount", page.totalCount);
+            result.put("hasMore", page.hasMore);
+            result.put("savedAt", page.savedAt);
+        }
+        if (albums != null) {
+            try {
+                result.put("albums", new JSArray(albums.json));
+                result.put("albumsSavedAt", albums.savedAt);
+            } catch (JSONException e) {
+                Logger.debug("PhotoLibrary", "Ignoring unreadable album snapshot");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that every thumbnail the persisted page references can still be served. A missing file,
+     * for example after the cache was cleared, drops the page so the next warm start page replaces
+     * it. Packed thumbnails also need the stream handler, which may not be installed yet.
+     */
+    private boolean snapshotThumbnailsReachable(PhotoLibrarySnapshotStore.Page page) {
+        for (int i = 0; i < page.thumbnails.length; i++) {
+            String name = page.thumbnails[i];
+            if (name == null) {
+                continue;
+            }
+            if (page.packedThumbnails[i] && !usesThumbnailPack()) {
+                return false;
+            }
+            if (cachedThumbnail(name, page.packedThumbnails[i]) == null) {
+                snapshots.dropPage();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the snapshot with the current MediaStore generation on the query pool. When it is
+     * stale the page and albums are rebuilt with their original options, persisted again, and a
+     * {@link #EVENT_SNAPSHOT_CHANGED} event with the differences is emitted.
+     */
+    void revalidateSnapshot() {
+        if (memoryPressure.isPaused()) {
+            memoryPressure.recordSkipped();
+            return;
+        }
+        if (!revalidatingSnapshot.compareAndSet(false, true)) {
+            return;
+        }
+        executors.query.execute(() -> {
+            try {
+                String generation = libraryGeneration.current();
+                PhotoLibrarySnapshotStore.Page page = snapshots.page();
+                PhotoLibrarySnapshotStore.Albums albums = snapshots.albums();
+                boolean pageStale = page != null && !page.generation.equals(generation);
+                boolean albumsStale = albums != null && !albums.generation.equals(generation);
+                if (!pageStale && !albumsStale) {
+                    return;
+                }
+
+                JSObject event = new JSObject();
+                boolean changed = false;
+                if (pageStale) {
+                    PhotoLibraryFetchResult fresh = fetchLibraryPage(page.options, generation);
+                    if (fresh.snapshot != null) {
+                        snapshots.savePage(fresh.snapshot);
+                        changed = PhotoLibrarySnapshotStore.diff(page, fresh.snapshot, event) || fresh.totalCount != page.totalCount;
+                    }
+                    event.put("totalCount", fresh.totalCount);
+                    event.put("hasMore", fresh.hasMore);
+                }
+                if (albumsStale) {
+                    JSArray fresh = queryAlbumList();
+                    String json = fresh.toString();
+                    snapshots.saveAlbums(new PhotoLibrarySnapshotStore.Albums(generation, System.currentTimeMillis(), json));
+                    boolean albumsChanged = !json.equals(albums.json);
+                    if (albumsChanged) {
+                        event.put("albums", fresh);
+                    }
+                    event.put("albumsChanged", albumsChanged);
+                    changed |= albumsChanged;
+                }
+                if (changed) {
+                    eventListener.onEvent(EVENT_SNAPSHOT_CHANGED, event);
+                }
+            } catch (IOException | RuntimeException e) {
+                Logger.error("PhotoLibrary", "Failed to revalidate the library snapshot", e);
+            } finally {
+                revalidatingSnapshot.set(false);
+            }
+        });
+    }
+
+    /**
+     * Counts the assets matching {@code options} per day, month or year of {@code DATE_ADDED}, in
+     * {@code getLibrary} order. Results are cached per granularity, filter and time zone, and reused
+     * while the MediaStore generation is unchanged.
+     */
+    JSObject getTimelineBuckets(GetLibraryOptions options, PhotoLibraryTimeline.Granularity granularity) {
+        String generation = libraryGeneration.current();
+        ZoneId zone = ZoneId.systemDefault();
+        String key = granularity.value + ":" + options.includeImages + ":" + options.includeVideos;
+        PhotoLibraryTimeline.Buckets cached = timelines.get(key);
+        if (cached != null && cached.generation.equals(generation) && cached.zone.equals(zone.getId())) {
+            return cached.toJSObject();
+        }
+
+        Selection selection = Selection.forOptions(options);
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection.selection);
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selection.args);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.Images.Media.DATE_ADDED + " DESC");
+
+        PhotoLibraryTimeline.Builder builder = new PhotoLibraryTimeline.Builder(granularity, zone);
+        try (Cursor cursor = queryPage(getFilesUri(), new String[] { MediaStore.Files.FileColumns.DATE_ADDED }, queryArgs)) {
+            while (cursor != null && cursor.moveToNext()) {
+                builder.add(cursor.getLong(0));
+            }
+        }
+        PhotoLibraryTimeline.Buckets buckets = new PhotoLibraryTimeline.Buckets(generation, zone.getId(), builder.build(), builder.count());
+        timelines.put(key, buckets);
+        return buckets.toJSObject();
+    }
+
+    /**
+     * Snapshots the ordered ids matching {@code options} into a new session. {@code offset} and
+     * {@code limit} of the options are ignored; pages are requested through {@link #fetchSessionPage}.
+     */
+    PhotoLibrarySessions.Session openSession(GetLibraryOptions options, long ttlMillis) {
+        Selection selection = Selection.forOptions(options);
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection.selection);
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selection.args);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.Images.Media.DATE_ADDED + " DESC");
+
+        long[] ids = new long[0];
+        try (Cursor cursor = queryPage(getFilesUri(), new String[] { MediaStore.Files.FileColumns._ID }, queryArgs)) {
+            if (cursor != null) {
+                ids = new long[cursor.getCount()];
+                int count = 0;
+                while (cursor.moveToNext() && count < ids.length) {
+                    ids[count++] = cursor.getLong(0);
+                }
+                if (count < ids.length) {
+                    ids = Arrays.copyOf(ids, count);
+                }
+            }
+        }
+        return sessions.open(options, ids, ttlMillis);
+    }
+
+    /**
+     * Serves a page of a session by looking its ids up, in snapshot order. Assets deleted since the
+     * snapshot are left out of the page but still count towards {@code totalCount}.
+     */
+    PhotoLibraryFetchResult fetchSessionPage(PhotoLibrarySessions.Session session, int offset, @Nullable Integer limit) throws IOException {
+        GetLibraryOptions options = session.options;
+        long[] ids = session.ids;
+        int start = Math.min(offset, ids.length);
+        int end = limit != null ? (int) Math.min(ids.length, (long) start + limit) : ids.length;
+
+        PhotoLibraryJsonWriter writer = PhotoLibraryJsonWriter.acquire();
+        PhotoLibraryColumnarPage page = beginPage(writer, options, end - start);
+        AssetRow row = new AssetRow();
+        PhotoLibraryStats.Total rowDecode = stats.total(PhotoLibraryStats.Stage.ROW_DECODE);
+        for (int chunkStart = start; chunkStart < end; chunkStart += SESSION_IDS_PER_QUERY) {
+            int chunkEnd = Math.min(end, chunkStart + SESSION_IDS_PER_QUERY);
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, idSelection(ids, chunkStart, chunkEnd));
+
+            try (Cursor cursor = queryPage(getFilesUri(), ASSET_PROJECTION, queryArgs)) {
+                if (cursor == null) {
+                    continue;
+                }
+                AssetRow.Columns columns = new AssetRow.Columns(cursor);
+                Map<Long, Integer> positions = new HashMap<>(cursor.getCount() * 2);
                 while (cursor.moveToNext()) {
-                    if (options.limit == null && options.offset > 0 && skipped < options.offset) {
-                        skipped++;
+                    positions.put(cursor.getLong(columns.id), cursor.getPosition());
+                }
+                Map<String, PhotoLibraryExifReader.Metadata> metadata = readPageMetadata(cursor, columns, row, 0, null, options);
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    Integer position = positions.get(ids[i]);
+                    if (position == null || !cursor.moveToPosition(position)) {
                         continue;
                     }
-                    if (options.limit != null && collected >= options.limit) {
-                        break;
+                    if (page != null) {
+                        addColumnarAsset(page, cursor, columns, row, options, metadata, null, rowDecode);
+                    } else {
+                        writeAsset(writer, cursor, columns, row, options, metadata, null, rowDecode);
                     }
-                    JSObject asset = buildAsset(cursor, options);
-                    if (asset != null) {
-                        assetsArray.put(asset);
-                        collected++;
+                }
+            }
+        }
+        rowDecode.close();
+        endPage(writer, page);
+        return new PhotoLibraryFetchResult(writer.toString(), ids.length, end < ids.length, null);
+    }
+
+    void closeSession(String sessionId) {
+        sessions.close(sessionId);
+    }
+
+    @Nullable
+    PhotoLibrarySessions.Session getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * Starts hashing every image whose current version is not in the perceptual hash index. Images
+     * are listed on the query pool and hashed in batches on the decode pool, each batch scheduling
+     * the next so thumbnail requests queued meanwhile are not held back. Hashes are persisted per
+     * batch, so a run that is stopped or killed resumes with the remaining images. A run that is
+     * still finishing after {@link #stopHashIndexing} is told to carry on instead.
+     */
+    void startHashIndexing() {
+        synchronized (hashIndexingLock) {
+            hashIndexingStopped = false;
+            if (hashIndexing.get()) {
+                return;
+            }
+            hashIndexing.set(true);
+        }
+        executors.query.execute(() -> {
+            try {
+                HashBacklog backlog = listUnhashedImages();
+                hashIndexPending = backlog.count;
+                executors.decode.execute(() -> hashBatch(backlog));
+            } catch (RuntimeException e) {
+                Logger.error("PhotoLibrary", "Failed to list images for hashing", e);
+                hashIndexing.set(false);
+            }
+        });
+    }
+
+    /** Stops indexing after the current batch; hashes computed so far are kept. */
+    void stopHashIndexing() {
+        hashIndexingStopped = true;
+    }
+
+    JSObject getHashIndexStatus() {
+        boolean running = hashIndexing.get();
+        JSObject result = new JSObject();
+        result.put("running", running);
+        result.put("indexed", hashIndex.size());
+        result.put("pending", running ? hashIndexPending : 0);
+        return result;
+    }
+
+    /**
+     * Finds images within {@code threshold} bits of {@code identifier}, hashing it first when the
+     * index has no hash for its current version. Returns {@code null} when it cannot be found.
+     */
+    @Nullable
+    JSObject findSimilarAssets(String identifier, int threshold) {
+        ParsedIdentifier parsed = ParsedIdentifier.parse(identifier);
+        if (parsed == null) {
+            return null;
+        }
+        if (parsed.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+            throw new IllegalArgumentException("Only images can be compared");
+        }
+        Long hash = currentHash(parsed.id);
+        if (hash == null) {
+            return null;
+        }
+        JSArray matches = new JSArray();
+        for (PhotoLibraryHashIndex.Match match : hashIndex.near(hash, threshold)) {
+            if (match.id == parsed.id) {
+                continue;
+            }
+            JSObject item = new JSObject();
+            item.put("id", "image:" + match.id);
+            item.put("distance", match.distance);
+            matches.put(item);
+        }
+        JSObject result = getHashIndexStatus();
+        result.put("matches", matches);
+        return result;
+    }
+
+    /** Groups all indexed images into clusters of near duplicates. */
+    JSObject findSimilarAssetGroups(int threshold) {
+        JSArray groups = new JSArray();
+        for (long[] group : hashIndex.groups(threshold)) {
+            JSArray ids = new JSArray();
+            for (long id : group) {
+                ids.put("image:" + id);
+            }
+            JSObject item = new JSObject();
+            item.put("ids", ids);
+            groups.put(item);
+        }
+        JSObject result = getHashIndexStatus();
+        result.put("groups", groups);
+        return result;
+    }
+
+    /** Images still to hash in one indexing run, most recently added first. */
+    private static final class HashBacklog {
+
+        final long[] ids;
+        final long[] modified;
+        final long[] sizes;
+        int count = 0;
+        int next = 0;
+        int failed = 0;
+
+        HashBacklog(int capacity) {
+            ids = new long[capacity];
+            modified = new long[capacity];
+            sizes = new long[capacity];
+        }
+    }
+
+    /** Lists images missing from the hash index and drops index entries of deleted images. */
+    private HashBacklog listUnhashedImages() {
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.SIZE
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, MediaStore.Files.FileColumns.MEDIA_TYPE + "=?");
+        queryArgs.putStringArray(
+            ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS,
+            new String[] { String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) }
+        );
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.Files.FileColumns.DATE_ADDED + " DESC");
+
+        try (Cursor cursor = queryPage(getFilesUri(), projection, queryArgs)) {
+            if (cursor == null) {
+                return new HashBacklog(0);
+            }
+            HashBacklog backlog = new HashBacklog(cursor.getCount());
+            Set<Long> present = new HashSet<>(cursor.getCount() * 2);
+            while (cursor.moveToNext() && backlog.count < backlog.ids.length) {
+                long id = cursor.getLong(0);
+                long modified = cursor.getLong(1);
+                long size = cursor.getLong(2);
+                present.add(id);
+                if (!hashIndex.isCurrent(id, modified, size)) {
+                    backlog.ids[backlog.count] = id;
+                    backlog.modified[backlog.count] = modified;
+                    backlog.sizes[backlog.count] = size;
+                    backlog.count++;
+                }
+            }
+            hashIndex.retainAll(present);
+            return backlog;
+        }
+    }
+
+    private void hashBatch(HashBacklog backlog) {
+        if (memoryPressure.isPaused() && !hashIndexingStopped) {
+            // Resume once the pause lapses, unless the plugin was torn down meanwhile.
+            memoryPressure.recordSkipped();
+            mainHandler.postDelayed(
+                () -> {
+                    if (!executors.decode.isShutdown()) {
+                        executors.decode.execute(() -> hashBatch(backlog));
                     }
+                },
+                memoryPressure.remainingPauseMillis()
+            );
+            return;
+        }
+        try {
+            int start = backlog.next;
+            int end = Math.min(backlog.count, start + HASH_BATCH_SIZE);
+            long[] ids = new long[end - start];
+            long[] modified = new long[end - start];
+            long[] sizes = new long[end - start];
+            long[] hashes = new long[end - start];
+            int hashed = 0;
+            for (int i = start; i < end && !hashIndexingStopped; i++) {
+                Long hash = perceptualHash(backlog.ids[i]);
+                backlog.next = i + 1;
+                if (hash == null) {
+                    backlog.failed++;
+                    continue;
                 }
+                ids[hashed] = backlog.ids[i];
+                modified[hashed] = backlog.modified[i];
+                sizes[hashed] = backlog.sizes[i];
+                hashes[hashed] = hash;
+                hashed++;
             }
+            hashIndex.putAll(ids, modified, sizes, hashes, hashed);
+            hashIndexPending = backlog.count - backlog.next;
+
+            boolean done;
+            synchronized (hashIndexingLock) {
+                done = backlog.next >= backlog.count || hashIndexingStopped;
+                if (done) {
+                    hashIndexing.set(false);
+                }
+            }
+            JSObject event = new JSObject();
+            event.put("indexed", hashIndex.size());
+            event.put("pending", backlog.count - backlog.next);
+            event.put("failed", backlog.failed);
+            event.put("done", done);
+            eventListener.onEvent(EVENT_HASH_INDEX_PROGRESS, event);
+            if (!done) {
+                executors.decode.execute(() -> hashBatch(backlog));
+            }
+        } catch (RuntimeException e) {
+            Logger.error("PhotoLibrary", "Perceptual hash indexing failed", e);
+            hashIndexing.set(false);
         }
+    }
 
-        int consumed = options.limit != null ? options.offset + collected : Math.min(totalCount, options.offset) + collected;
-        boolean hasMore = consumed < totalCount;
-        return new PhotoLibraryFetchResult(assetsArray, totalCount, hasMore);
+    /** Returns the hash of the current version of an image, computing and storing it when needed. */
+    @Nullable
+    private Long currentHash(long id) {
+        String[] projection = new String[] { MediaStore.Files.FileColumns.DATE_MODIFIED, MediaStore.Files.FileColumns.SIZE };
+        String selection = MediaStore.Files.FileColumns._ID + "=?";
+        String[] args = new String[] { String.valueOf(id) };
+        long modified;
+        long size;
+        try (Cursor cursor = resolver.query(getFilesUri(), projection, selection, args, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+            modified = cursor.getLong(0);
+            size = cursor.getLong(1);
+        }
+        if (hashIndex.isCurrent(id, modified, size)) {
+            return hashIndex.hash(id);
+        }
+        Long hash = perceptualHash(id);
+        if (hash != null) {
+            hashIndex.putAll(new long[] { id }, new long[] { modified }, new long[] { size }, new long[] { hash }, 1);
+        }
+        return hash;
+    }
+
+    /** Computes the difference hash of an image from its system thumbnail. */
+    @Nullable
+    private Long perceptualHash(long id) {
+        Uri uri = contentUriFor(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE, id);
+        Bitmap bitmap;
+        try {
+            bitmap = loadThumbnailBitmap(uri, id, MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE, HASH_SOURCE_SIZE, HASH_SOURCE_SIZE);
+        } catch (RuntimeException e) {
+            Logger.debug("PhotoLibrary", "Could not load thumbnail for hashing: " + e.getMessage());
+            return null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap scaled = scaleBitmapFit(bitmap, HASH_SOURCE_SIZE, HASH_SOURCE_SIZE);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && scaled.getConfig() == Bitmap.Config.HARDWARE) {
+            // Hardware bitmaps cannot be read back directly.
+            Bitmap software = scaled.copy(Bitmap.Config.ARGB_8888, false);
+            scaled.recycle();
+            if (software == null) {
+                return null;
+            }
+            scaled = software;
+        }
+        int width = scaled.getWidth();
+        int height = scaled.getHeight();
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        scaled.recycle();
+        return PhotoLibraryHashIndex.dHash(pixels, width, height);
+    }
+
+    /**
+     * Selects the rows {@code ids[start..end)}. Ids are numbers we parsed or queried ourselves, so they
+     * are inlined without bind arguments.
+     */
+    private static String idSelection(long[] ids, int start, int end) {
+        StringBuilder selection = new StringBuilder(MediaStore.Files.FileColumns._ID).append(" IN (");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                selection.append(',');
+            }
+            selection.append(ids[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Exports {@code options.ids} into the destination directory. All ids are resolved first with
+     * batched lookups, then copied by at most {@code concurrency} workers on the export pool (capped at
+     * its size). Assets already exported there from the same version are skipped. {@code callback}
+     * receives the per-item outcome once every item is done.
+     */
+    void exportAssets(ExportAssetsOptions options, PhotoLibraryExportJob.Callback callback) throws IOException {
+        File directory = exportDestination(options.destinationDir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create destination directory " + directory.getAbsolutePath());
+        }
+        PhotoLibraryExportJob job = new PhotoLibraryExportJob(
+            options.ids,
+            resolveExportSources(options.ids),
+            directory,
+            portableDirectory(directory),
+            copier,
+            stats,
+            eventListener
+        );
+        job.start(executors.export, Math.min(options.concurrency, executors.export.getMaximumPoolSize()), callback);
+    }
+
+    /**
+     * Absolute paths and {@code file://} URLs are used as given; other paths are relative to the
+     * export directory and must stay inside it. Exported files are never evicted; the caller owns
+     * them.
+     */
+    private File exportDestination(String destinationDir) throws IOException {
+        if (destinationDir.startsWith("file://")) {
+            String path = Uri.parse(destinationDir).getPath();
+            if (path == null) {
+                throw new IllegalArgumentException("destinationDir is not a valid file URL");
+            }
+            return new File(path).getCanonicalFile();
+        }
+        File directory = new File(destinationDir);
+        if (directory.isAbsolute()) {
+            return directory.getCanonicalFile();
+        }
+        File root = exportDirectory.getCanonicalFile();
+        File resolved = new File(root, destinationDir).getCanonicalFile();
+        if (!resolved.getPath().startsWith(root.getPath() + File.separator)) {
+            throw new IllegalArgumentException("destinationDir must not leave the export directory");
+        }
+        return resolved;
+    }
+
+    private Map<String, PhotoLibraryExportJob.Source> resolveExportSources(List<String> identifiers) throws IOException {
+        Map<String, PhotoLibraryExportJob.Source> sources = new HashMap<>(identifiers.size() * 2);
+        Map<Long, String> mediaIdentifiers = new HashMap<>(identifiers.size() * 2);
+        for (String identifier : identifiers) {
+            PickedItem picked = resolvePickedItem(identifier);
+            if (picked != null) {
+                File file = picked.file;
+                sources.put(identifier, new PhotoLibraryExportJob.Source(Uri.fromFile(file), file.getName(), file.lastModified(), file.length()));
+                continue;
+            }
+            ParsedIdentifier parsed = ParsedIdentifier.parse(identifier);
+            if (parsed != null) {
+                mediaIdentifiers.put(parsed.id, identifier);
+            }
+        }
+
+        long[] ids = new long[mediaIdentifiers.size()];
+        int count = 0;
+        for (Long id : mediaIdentifiers.keySet()) {
+            ids[count++] = id;
+        }
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.DISPLAY_NAME,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.MEDIA_TYPE,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.SIZE
+        };
+        for (int start = 0; start < ids.length; start += SESSION_IDS_PER_QUERY) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, idSelection(ids, start, Math.min(ids.length, start + SESSION_IDS_PER_QUERY)));
+            try (Cursor cursor = queryPage(getFilesUri(), projection, queryArgs)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    String identifier = mediaIdentifiers.get(id);
+                    Uri uri = contentUriFor(cursor.getInt(3), id);
+                    if (identifier == null || uri == null) {
+                        continue;
+                    }
+                    String displayName = cursor.getString(1);
+                    String fileName = displayName != null && !displayName.isEmpty()
+                        ? displayName.replace('/', '_')
+                        : identifier.replace(':', '_') + PhotoLibraryUtils.guessExtension(cursor.getString(2));
+                    sources.put(identifier, new PhotoLibraryExportJob.Source(uri, fileName, cursor.getLong(4), cursor.getLong(5)));
+                }
+            }
+        }
+        return sources;
     }
 
+    /** Starts a result page: a columnar page when requested, otherwise the asset array. */
+    @Nullable
+    private PhotoLibraryColumnarPage beginPage(PhotoLibraryJsonWriter writer, GetLibraryOptions options, int expectedRows) {
+        if (options.columnar) {
+            return newColumnarPage(options, expectedRows);
+        }
+        writer.beginArray();
+        return null;
+    }
+
+    private void endPage(PhotoLibraryJsonWriter writer, @Nullable PhotoLibraryColumnarPage page) {
+        if (page != null) {
+            page.writeTo(writer);
+        } else {
+            writer.endArray();
+        }
+    }
+
+    /** Runs the page query. Rows are fetched lazily while iterating and count as row decode time. */
+    @Nullable
+    private Cursor queryPage(Uri uri, String[] projection, Bundle queryArgs) {
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.QUERY)) {
+            return resolver.query(uri, projection, queryArgs, null);
+        }
+    }
+
+    /**
+     * Copies and describes the picked URIs on the I/O pool, emitting a progress event as each one
+     * completes. The result keeps the order of {@code uris}.
+     */
     JSArray createAssetsFromUris(List<Uri> uris, PickMediaOptions options) throws IOException {
+        int total = uris.size();
+        AtomicInteger completed = new AtomicInteger();
+        // Identifier registered for each uri, so a failed batch can release what it already copied.
+        AtomicReferenceArray<String> registered = new AtomicReferenceArray<>(total);
+        List<Future<JSObject>> futures = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            final Uri uri = uris.get(i);
+            futures.add(
+                executors.io.submit(() -> {
+                    JSObject asset = null;
+                    try {
+                        asset = createAssetFromUri(uri, options, identifier -> registered.set(index, identifier));
+                        return asset;
+                    } finally {
+                        JSObject event = new JSObject();
+                        event.put("index", index);
+                        event.put("completed", completed.incrementAndGet());
+                        event.put("total", total);
+                        if (asset != null) {
+                            event.put("id", asset.getString("id"));
+                        }
+                        eventListener.onEvent(EVENT_PICK_PROGRESS, event);
+                    }
+                })
+            );
+        }
+
         JSArray array = new JSArray();
-        for (Uri uri : uris) {
-            JSObject asset = createAssetFromUri(uri, options);
-            if (asset != null) {
-                try {
+        IOException failure = null;
+        List<String> dropped = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            try {
+                JSObject asset = futures.get(i).get();
+                if (asset != null) {
                     array.put(asset);
-                } catch (Exception e) {
-                    Logger.error("PhotoLibrary", "Failed to add picked asset", e);
                 }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException && failure == null) {
+                    failure = (IOException) e.getCause();
+                } else {
+                    Logger.error("PhotoLibrary", "Failed to add picked asset", e.getCause());
+                    // The item is left out of the result, so nothing can refer to its identifier.
+                    String identifier = registered.get(i);
+                    if (identifier != null) {
+                        dropped.add(identifier);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<JSObject> pending : futures) {
+                    pending.cancel(true);
+                }
+                releasePickedItems(registeredIdentifiers(registered));
+                throw new IOException("Interrupted while processing picked media", e);
             }
         }
+        if (failure != null) {
+            // The caller only sees the error, so every copy made by this batch is orphaned.
+            releasePickedItems(registeredIdentifiers(registered));
+            throw failure;
+        }
+        if (!dropped.isEmpty()) {
+            releasePickedItems(dropped);
+        }
         return array;
     }
 
-    @Nullable
-    private JSObject createAssetFromUri(Uri uri, PickMediaOptions options) throws IOException {
-        InputStream stream = resolver.openInputStream(uri);
-        if (stream == null) {
-            return null;
+    private static List<String> registeredIdentifiers(AtomicReferenceArray<String> registered) {
+        List<String> identifiers = new ArrayList<>(registered.length());
+        for (int i = 0; i < registered.length(); i++) {
+            String identifier = registered.get(i);
+            if (identifier != null) {
+                identifiers.add(identifier);
+            }
         }
+        return identifiers;
+    }
 
+    @Nullable
+    private JSObject createAssetFromUri(Uri uri, PickMediaOptions options, Consumer<String> onRegistered) throws IOException {
         String mimeType = resolver.getType(uri);
         String type = (mimeType != null && mimeType.startsWith("video")) ? "video" : "image";
         String identifier = "picked:" + UUID.randomUUID();
@@ -204,15 +1227,23 @@ final class PhotoLibraryService {
             }
         }
 
-        String extension = guessExtension(mimeType);
-        File file = new File(fileDirectory, hashed(identifier) + extension);
-        try (InputStream in = stream; FileOutputStream out = new FileOutputStream(file)) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
+        String extension = PhotoLibraryUtils.guessExtension(mimeType);
+        File file;
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.COPY)) {
+            // The digest needed for deduplication doubles as the checksum, so either needs the hashing copy.
+            file = copyPickedContent(uri, extension, options.deduplicate || options.checksum);
         }
+        if (file == null) {
+            return null;
+        }
+        String resolvedMime = mimeType != null ? mimeType : ("image".equals(type) ? "image/jpeg" : "application/octet-stream");
+        PickedItem picked = new PickedItem(file, resolvedMime, type, uri);
+        try {
+            pickedItems.put(identifier, picked);
+        } finally {
+            releasePickedFile(file);
+        }
+        onRegistered.accept(identifier);
 
         long size = file.length();
         if (size <= 0 && reportedSize > 0) {
@@ -226,12 +1257,14 @@ final class PhotoLibraryService {
         if ("image".equals(type)) {
             BitmapFactory.Options opts = new BitmapFactory.Options();
             opts.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(file.getAbsolutePath(), opts);
+            try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.BITMAP_LOAD)) {
+                BitmapFactory.decodeFile(file.getAbsolutePath(), opts);
+            }
             width = opts.outWidth;
             height = opts.outHeight;
         } else if ("video".equals(type)) {
             MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            try {
+            try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.BITMAP_LOAD)) {
                 retriever.setDataSource(file.getAbsolutePath());
                 String widthVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
                 String heightVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
@@ -261,10 +1294,6 @@ final class PhotoLibraryService {
             }
         }
 
-        String resolvedMime = mimeType != null ? mimeType : ("image".equals(type) ? "image/jpeg" : "application/octet-stream");
-        PickedItem picked = new PickedItem(file, resolvedMime, type);
-        pickedItems.put(identifier, picked);
-
         JSObject asset = new JSObject();
         try {
             asset.put("id", identifier);
@@ -279,10 +1308,12 @@ final class PhotoLibraryService {
             asset.put("size", size);
 
             JSObject fileObject = createFileObject(file, resolvedMime);
+            if (options.checksum) {
+                fileObject.put("checksum", checksums.get(file));
+            }
             asset.put("file", fileObject);
 
             JSObject thumbnail = ensurePickedThumbnail(
-                identifier,
                 picked,
                 options.thumbnailWidth,
                 options.thumbnailHeight,
@@ -294,7 +1325,8 @@ final class PhotoLibraryService {
         } catch (Exception e) {
             Logger.error("PhotoLibrary", "Failed to build picked asset", e);
             pickedItems.remove(identifier);
-            if (file.exists()) {
+            if (file.exists() && !pinnedFileNames().contains(file.getName())) {
+                fileCache.remove(file);
                 //noinspection ResultOfMethodCallIgnored
                 file.delete();
             }
@@ -304,11 +1336,115 @@ final class PhotoLibraryService {
         return asset;
     }
 
+    /**
+     * Forgets picked identifiers and deletes their copies unless another identifier still uses them.
+     * Returns how many identifiers were registered.
+     */
+    int releasePickedItems(List<String> identifiers) {
+        List<File> files = new ArrayList<>(identifiers.size());
+        for (String identifier : identifiers) {
+            PickedItem removed = pickedItems.remove(identifier);
+            if (removed != null) {
+                files.add(removed.file);
+            }
+        }
+        Set<String> pinned = pinnedFileNames();
+        for (File file : files) {
+            if (pinned.contains(file.getName())) {
+                continue;
+            }
+            fileCache.remove(file);
+            checksums.remove(file);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        return files.size();
+    }
+
+    /**
+     * Looks up a picked identifier, including ones persisted by a previous process. If the cached
+     * copy was cleared with the app cache, it is copied again from the source URI while the
+     * persisted read permission still holds.
+     */
+    @Nullable
+    private PickedItem resolvePickedItem(String identifier) throws IOException {
+        if (!identifier.startsWith("picked:")) {
+            return null;
+        }
+        PickedItem picked = pickedItems.get(identifier);
+        if (picked == null || picked.file.exists()) {
+            return picked;
+        }
+        if (picked.sourceUri == null) {
+            return null;
+        }
+
+        File file;
+        try {
+            file = copyPickedContent(picked.sourceUri, PhotoLibraryUtils.guessExtension(picked.mimeType), false);
+        } catch (SecurityException e) {
+            Logger.debug("PhotoLibrary", "Picked source is no longer readable: " + e.getMessage());
+            return null;
+        }
+        if (file == null) {
+            return null;
+        }
+        PickedItem restored = new PickedItem(file, picked.mimeType, picked.type, picked.sourceUri);
+        try {
+            pickedItems.put(identifier, restored);
+        } finally {
+            releasePickedFile(file);
+        }
+        return restored;
+    }
+
+    /**
+     * Copies picked content into the cache. With {@code hashed}, the SHA-256 and size are computed
+     * during the copy and name the file, so picking the same content again reuses the existing file
+     * and new identifiers are cheap aliases. Otherwise every pick gets its own file and the copy can
+     * use a zero-copy channel transfer. The file stays pinned until the caller has registered it and
+     * calls {@link #releasePickedFile}.
+     */
     @Nullable
-    JSObject getFullResolutionFile(String assetId) throws IOException {
-        PickedItem picked = pickedItems.get(assetId);
+    private File copyPickedContent(Uri uri, String extension, boolean hashed) throws IOException {
+        MessageDigest digest = hashed ? PhotoLibraryChecksums.newDigest() : null;
+        File partial = copier.copyToPartial(uri, fileDirectory, "picked", digest);
+        if (partial == null) {
+            return null;
+        }
+
+        String hex = digest != null ? PhotoLibraryChecksums.toHex(digest.digest()) : null;
+        String name = hex != null ? hex : UUID.randomUUID().toString().replace("-", "");
+        File file = new File(fileDirectory, "picked_" + name + "_" + partial.length() + extension);
+        pendingPickedFiles.merge(file.getName(), 1, Integer::sum);
+        if (fileCache.touch(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return file;
+        }
+        if (!partial.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            releasePickedFile(file);
+            throw new IOException("Unable to move picked file into the cache");
+        }
+        fileCache.record(file);
+        if (hex != null) {
+            checksums.record(file, hex);
+        }
+        return file;
+    }
+
+    @Nullable
+    JSObject getFullResolutionFile(String assetId, boolean stream, boolean checksum) throws IOException {
+        PickedItem picked = resolvePickedItem(assetId);
         if (picked != null) {
-            return createFileObject(picked.file, picked.mimeType);
+            fileCache.touch(picked.file);
+            JSObject result = createFileObject(picked.file, picked.mimeType);
+            if (checksum) {
+                result.put("checksum", checksums.get(picked.file));
+            }
+            return result;
         }
 
         MediaAsset asset = findAsset(assetId);
@@ -316,7 +1452,11 @@ final class PhotoLibraryService {
             return null;
         }
 
-        File file = ensureFullFile(asset);
+        if (stream && streamingEnabled) {
+            return createStreamObject(asset);
+        }
+
+        File file = ensureFullFile(asset, checksum);
         if (file == null) {
             return null;
         }
@@ -326,35 +1466,312 @@ final class PhotoLibraryService {
         result.put("webPath", portablePath(file));
         result.put("mimeType", asset.mimeType);
         result.put("size", size);
+        if (checksum) {
+            result.put("checksum", checksums.get(file));
+        }
+        return result;
+    }
+
+    @Nullable
+    JSObject getThumbnailFile(String assetId, int width, int height, double quality, boolean progressive) throws IOException {
+        PickedItem picked = resolvePickedItem(assetId);
+        if (picked != null) {
+            return ensurePickedThumbnail(picked, width, height, quality);
+        }
+
+        MediaAsset asset = findAsset(assetId);
+        if (asset == null) {
+            return null;
+        }
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        return thumbnailObject(asset, width, height, quality, progressive);
+    }
+
+    /**
+     * Extracts scaled frames from a video with a single {@link MediaMetadataRetriever}. Frames are
+     * cached next to the thumbnails, and only missing ones are decoded. Returns {@code null} when
+     * the asset does not exist.
+     */
+    @Nullable
+    JSArray getVideoFrames(VideoFramesOptions options) throws IOException {
+        String sourcePath = null;
+        Uri sourceUri = null;
+        PickedItem picked = resolvePickedItem(options.id);
+        if (picked != null) {
+            if (!"video".equals(picked.type)) {
+                throw new IllegalArgumentException("Asset is not a video");
+            }
+            sourcePath = picked.file.getAbsolutePath();
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset == null) {
+                return null;
+            }
+            if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+                throw new IllegalArgumentException("Asset is not a video");
+            }
+            sourceUri = asset.uri;
+        }
+
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        String prefix = PhotoLibraryUtils.hashed(options.id);
+        JSArray frames = new JSArray();
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            if (sourcePath != null) {
+                retriever.setDataSource(sourcePath);
+            } else {
+                retriever.setDataSource(context, sourceUri);
+            }
+
+            long[] timesMs = frameTimes(options, retriever);
+            for (long timeMs : timesMs) {
+                File target = new File(
+                    thumbnailDirectory,
+                    String.format(Locale.US, "%s_frame%d_%dx%d_q%d.jpg", prefix, timeMs, options.width, options.height, qualityPercent)
+                );
+                if (!target.exists()) {
+                    Bitmap frame = extractFrame(retriever, timeMs * 1000, options.width, options.height);
+                    if (frame == null) {
+                        continue;
+                    }
+                    writeJpeg(frame, target, qualityPercent);
+                }
+                JSObject entry = createFileObject(target, "image/jpeg");
+                entry.put("time", timeMs / 1000.0);
+                frames.put(entry);
+            }
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IOException("Unable to read video frames", e);
+        } finally {
+            retriever.release();
+        }
+        return frames;
+    }
+
+    private long[] frameTimes(VideoFramesOptions options, MediaMetadataRetriever retriever) {
+        if (options.timestamps != null) {
+            long[] times = new long[options.timestamps.length];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = Math.round(options.timestamps[i] * 1000);
+            }
+            return times;
+        }
+
+        long durationMs = 0;
+        String durationValue = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        if (durationValue != null) {
+            try {
+                durationMs = Long.parseLong(durationValue);
+            } catch (NumberFormatException ignored) {}
+        }
+        // Sample the middle of each of `count` equal segments so the first frame is not a black
+        // fade-in and the last one is not past the end.
+        long[] times = new long[options.count];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = Math.round((i + 0.5) * durationMs / options.count);
+        }
+        return times;
+    }
+
+    @Nullable
+    private Bitmap extractFrame(MediaMetadataRetriever retriever, long timeUs, int width, int height) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+        }
+        Bitmap frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null) {
+            return null;
+        }
+        Bitmap scaled = scaleBitmapFit(frame, width, height);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Decodes an image with sampling, applies its EXIF orientation, scales it to fit the requested
+     * bounds and encodes it into {@code cache/photoLibrary/images}. Only the encoded file is
+     * returned, so the full size bitmap never reaches the web view. Writing a new version of the
+     * source deletes the exports of earlier versions with the same options. Returns {@code null}
+     * when the asset does not exist.
+     */
+    @Nullable
+    JSObject exportImage(ExportImageOptions options) throws IOException {
+        Uri source;
+        String version;
+        PickedItem picked = resolvePickedItem(options.id);
+        if (picked != null) {
+            if (!"image".equals(picked.type)) {
+                throw new IllegalArgumentException("Asset is not an image");
+            }
+            source = Uri.fromFile(picked.file);
+            version = picked.file.getName();
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset == null) {
+                return null;
+            }
+            if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+                throw new IllegalArgumentException("Asset is not an image");
+            }
+            source = asset.uri;
+            // An edit in place can keep the size, so the modification time is part of the version.
+            version = asset.dateModified + ":" + asset.size;
+        }
+
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        String extension = "jpeg".equals(options.format) ? ".jpg" : "." + options.format;
+        String key = String.format(
+            Locale.US,
+            "%s|%dx%d|%s|%d",
+            options.id,
+            options.maxWidth,
+            options.maxHeight,
+            options.format,
+            qualityPercent
+        );
+        // Every version of the source shares the prefix, so earlier ones can be found and deleted.
+        String prefix = PhotoLibraryUtils.hashed(key) + "_";
+        File target = new File(imageExportDirectory, prefix + PhotoLibraryUtils.hashed(version) + extension);
+        if (!target.exists()) {
+            Bitmap bitmap = decodeOriented(source, options.maxWidth, options.maxHeight);
+            if (bitmap == null) {
+                throw new IOException("Unable to decode image");
+            }
+            Bitmap scaled = bitmap;
+            if (
+                (options.maxWidth > 0 && bitmap.getWidth() > options.maxWidth) ||
+                (options.maxHeight > 0 && bitmap.getHeight() > options.maxHeight)
+            ) {
+                int boundWidth = options.maxWidth > 0 ? options.maxWidth : Integer.MAX_VALUE;
+                int boundHeight = options.maxHeight > 0 ? options.maxHeight : Integer.MAX_VALUE;
+                scaled = scaleBitmapFit(bitmap, boundWidth, boundHeight);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                }
+            }
+
+            if (!imageExportDirectory.exists() && !imageExportDirectory.mkdirs()) {
+                scaled.recycle();
+                throw new IOException("Unable to create " + imageExportDirectory);
+            }
+            File partial = File.createTempFile(target.getName(), ".tmp", imageExportDirectory);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(partial), 64 * 1024)) {
+                scaled.compress(compressFormat(options.format), qualityPercent, out);
+            } finally {
+                scaled.recycle();
+            }
+            if (!partial.renameTo(target)) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                throw new IOException("Unable to write exported image");
+            }
+            removeSupersededExports(prefix, target);
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(target.getAbsolutePath(), bounds);
+
+        String mimeType = "jpeg".equals(options.format) ? "image/jpeg" : "image/" + options.format;
+        JSObject result = createFileObject(target, mimeType);
+        result.put("width", bounds.outWidth);
+        result.put("height", bounds.outHeight);
         return result;
     }
 
+    /** Deletes the exports of earlier versions that share {@code prefix}, leaving partial writes alone. */
+    private void removeSupersededExports(String prefix, File current) {
+        File[] files = imageExportDirectory.listFiles(
+            (dir, name) -> name.startsWith(prefix) && !name.equals(current.getName()) && !name.endsWith(".tmp")
+        );
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Decodes {@code source} with the largest power of two sample size that keeps the oriented image
+     * at least {@code maxWidth} x {@code maxHeight} ({@code 0} means unbounded), then rotates it upright.
+     */
     @Nullable
-    JSObject getThumbnailFile(String assetId, int width, int height, double quality) throws IOException {
-        PickedItem picked = pickedItems.get(assetId);
-        if (picked != null) {
-            return ensurePickedThumbnail(assetId, picked, width, height, quality);
+    private Bitmap decodeOriented(Uri source, int maxWidth, int maxHeight) throws IOException {
+        int orientation = readExifOrientation(source);
+        boolean transposed =
+            orientation == ExifInterface.ORIENTATION_ROTATE_90 ||
+            orientation == ExifInterface.ORIENTATION_ROTATE_270 ||
+            orientation == ExifInterface.ORIENTATION_TRANSPOSE ||
+            orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
+                return null;
+            }
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        int width = transposed ? bounds.outHeight : bounds.outWidth;
+        int height = transposed ? bounds.outWidth : bounds.outHeight;
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = 1;
+        if (width > 0 && height > 0) {
+            while (
+                (maxWidth <= 0 || width / (opts.inSampleSize * 2) >= maxWidth) &&
+                (maxHeight <= 0 || height / (opts.inSampleSize * 2) >= maxHeight) &&
+                (maxWidth > 0 || maxHeight > 0)
+            ) {
+                opts.inSampleSize *= 2;
+            }
         }
 
-        MediaAsset asset = findAsset(assetId);
-        if (asset == null) {
-            return null;
+        Bitmap decoded;
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
+                return null;
+            }
+            decoded = BitmapFactory.decodeStream(in, null, opts);
         }
-        if (width <= 0 || height <= 0) {
+        if (decoded == null) {
             return null;
         }
+        return applyExifOrientation(decoded, orientation);
+    }
 
-        File file = ensureThumbnail(asset, width, height, quality);
-        if (file == null) {
-            return null;
+    private int readExifOrientation(Uri source) {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source, "r")) {
+            if (descriptor == null) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            ExifInterface exif = new ExifInterface(descriptor.getFileDescriptor());
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
         }
-        long size = file.length();
-        JSObject result = new JSObject();
-        result.put("path", file.getAbsolutePath());
-        result.put("webPath", portablePath(file));
-        result.put("mimeType", "image/jpeg");
-        result.put("size", size);
-        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat compressFormat(String format) {
+        if ("png".equals(format)) {
+            return Bitmap.CompressFormat.PNG;
+        }
+        if ("webp".equals(format)) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.JPEG;
     }
 
     private void queryAlbums(Uri uri, Map<String, AlbumAccumulator> accumulator) {
@@ -382,33 +1799,10 @@ final class PhotoLibraryService {
         }
     }
 
-    private Selection buildSelection(GetLibraryOptions options) {
-        StringBuilder selection = new StringBuilder();
-        List<String> args = new ArrayList<>();
-
-        if (options.includeImages && options.includeVideos) {
-            selection
-                .append("(")
-                .append(MediaStore.Files.FileColumns.MEDIA_TYPE)
-                .append("=? OR ")
-                .append(MediaStore.Files.FileColumns.MEDIA_TYPE)
-                .append("=? )");
-            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
-            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
-        } else if (options.includeImages) {
-            selection.append(MediaStore.Files.FileColumns.MEDIA_TYPE).append("=?");
-            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
-        } else {
-            selection.append(MediaStore.Files.FileColumns.MEDIA_TYPE).append("=?");
-            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
-        }
-
-        return new Selection(selection.toString(), args.toArray(new String[0]));
-    }
-
     private int countItems(Uri uri, Selection selection) {
         int count = 0;
         try (
+            PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.QUERY);
             Cursor cursor = resolver.query(
                 uri,
                 new String[] { MediaStore.Files.FileColumns._ID },
@@ -435,95 +1829,267 @@ final class PhotoLibraryService {
         return builder.toString();
     }
 
-    private JSObject buildAsset(Cursor cursor, GetLibraryOptions options) throws IOException {
-        int mediaType = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MEDIA_TYPE));
-        if (mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE && mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
-            return null;
+    /**
+     * Writes the asset at the cursor's current row as one element of the page array, and adds it to
+     * {@code entries} when the page is persisted. Reading the row is timed into {@code rowDecode}.
+     * Returns {@code false}, writing nothing, when the row is not an image or video.
+     */
+    private boolean writeAsset(
+        PhotoLibraryJsonWriter writer,
+        Cursor cursor,
+        AssetRow.Columns columns,
+        AssetRow row,
+        GetLibraryOptions options,
+        Map<String, PhotoLibraryExifReader.Metadata> metadata,
+        @Nullable PhotoLibrarySnapshotStore.Entries entries,
+        PhotoLibraryStats.Total rowDecode
+    ) throws IOException {
+        long decodeStart = System.nanoTime();
+        if (!row.read(cursor, columns)) {
+            rowDecode.add(System.nanoTime() - decodeStart);
+            return false;
+        }
+        String identifier = row.identifier();
+        writer.beginObject();
+        row.writeTo(writer, identifier, options.includeAlbumData);
+        rowDecode.add(System.nanoTime() - decodeStart);
+        MediaAsset assetInfo = resolvesFiles(options) ? mediaAsset(row, identifier) : null;
+
+        Thumbnail thumbnail = null;
+        if (options.thumbnailWidth > 0 && options.thumbnailHeight > 0) {
+            thumbnail = resolveThumbnail(
+                assetInfo,
+                options.thumbnailWidth,
+                options.thumbnailHeight,
+                options.thumbnailQuality,
+                options.progressiveThumbnails,
+                usesThumbnailPack()
+            );
+            if (thumbnail != null) {
+                writer.name("thumbnail");
+                if (thumbnail.file != null) {
+                    beginFileObject(writer, thumbnail.file, "image/jpeg");
+                } else {
+                    // A packed thumbnail has no file of its own, so it only gets a web path.
+                    writer.beginObject();
+                    writer.name("webPath").value(PhotoLibraryStreamHandler.thumbnailUrlPrefix(bridge.getLocalUrl()) + thumbnail.name);
+                    writer.name("mimeType").repeatedValue("image/jpeg");
+                    writer.name("size").value(thumbnail.length);
+                }
+                if (thumbnail.preview) {
+                    writer.name("isPreview").value(true);
+                }
+                writer.endObject();
+            }
         }
 
-        long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID));
-        String mimeType = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE));
-        String displayName = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME));
-        long size = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE));
-
-        long dateTaken = getLong(cursor, MediaStore.Images.Media.DATE_TAKEN);
-        if (dateTaken <= 0) {
-            long dateAdded = getLong(cursor, MediaStore.Files.FileColumns.DATE_ADDED);
-            dateTaken = dateAdded > 0 ? dateAdded * 1000 : 0;
+        if (options.includeFullResolutionData && options.streamFullResolution && streamingEnabled) {
+            StreamedOriginal original = streamOriginal(assetInfo);
+            writer.name("file").beginObject();
+            writer.name("path").value(original.path);
+            writer.name("webPath").value(original.webPath);
+            writer.name("mimeType").repeatedValue(original.mimeType);
+            writer.name("size").value(original.size);
+            writer.endObject();
+        } else if (options.includeFullResolutionData) {
+            File full = ensureFullFile(assetInfo, options.checksum);
+            if (full != null) {
+                writer.name("file");
+                beginFileObject(writer, full, assetInfo.mimeType);
+                if (options.checksum) {
+                    writer.name("checksum").value(checksums.get(full));
+                }
+                writer.endObject();
+            }
         }
-        long dateModified = getLong(cursor, MediaStore.Files.FileColumns.DATE_MODIFIED);
-        if (dateModified > 0) {
-            dateModified = dateModified * 1000;
+
+        writer.name("size").value(row.size);
+
+        PhotoLibraryExifReader.Metadata exif = metadata.get(identifier);
+        if (exif != null) {
+            exif.writeTo(writer, options.includeExif, options.includeLocation);
         }
+        writer.endObject();
+        addSnapshotEntry(entries, identifier, row, thumbnail);
+        return true;
+    }
 
-        int width = getInt(cursor, MediaStore.Images.Media.WIDTH);
-        int height = getInt(cursor, MediaStore.Images.Media.HEIGHT);
-        long duration = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO ? getLong(cursor, MediaStore.Video.Media.DURATION) : 0;
+    private PhotoLibraryColumnarPage newColumnarPage(GetLibraryOptions options, int expectedRows) {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options, expectedRows);
+        if (options.thumbnailWidth > 0 && options.thumbnailHeight > 0 && usesThumbnailPack()) {
+            page.enableThumbnails(null, PhotoLibraryStreamHandler.thumbnailUrlPrefix(bridge.getLocalUrl()), true);
+        } else if (options.thumbnailWidth > 0 && options.thumbnailHeight > 0) {
+            page.enableThumbnails(thumbnailDirectory.getAbsolutePath() + "/", portableDirectory(thumbnailDirectory), false);
+        }
+        if (options.includeFullResolutionData && options.streamFullResolution && streamingEnabled) {
+            // Streamed originals have no shared path prefix; web paths share the handler URL.
+            page.enableFiles("", PhotoLibraryStreamHandler.urlFor(bridge.getLocalUrl(), ""), true, false);
+        } else if (options.includeFullResolutionData) {
+            page.enableFiles(fileDirectory.getAbsolutePath() + "/", portableDirectory(fileDirectory), false, options.checksum);
+        }
+        return page;
+    }
 
-        String bucketId = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID));
+    /** Columnar counterpart of {@link #writeAsset}. */
+    private boolean addColumnarAsset(
+        PhotoLibraryColumnarPage page,
+        Cursor cursor,
+        AssetRow.Columns columns,
+        AssetRow row,
+        GetLibraryOptions options,
+        Map<String, PhotoLibraryExifReader.Metadata> metadata,
+        @Nullable PhotoLibrarySnapshotStore.Entries entries,
+        PhotoLibraryStats.Total rowDecode
+    ) throws IOException {
+        long decodeStart = System.nanoTime();
+        if (!row.read(cursor, columns)) {
+            rowDecode.add(System.nanoTime() - decodeStart);
+            return false;
+        }
+        String identifier = row.identifier();
+        page.add(row, identifier, metadata.get(identifier));
+        rowDecode.add(System.nanoTime() - decodeStart);
+        MediaAsset assetInfo = resolvesFiles(options) ? mediaAsset(row, identifier) : null;
+
+        Thumbnail thumbnail = null;
+        PhotoLibraryColumnarPage.FileColumn thumbnails = page.thumbnailColumn();
+        if (thumbnails != null) {
+            thumbnail = resolveThumbnail(
+                assetInfo,
+                options.thumbnailWidth,
+                options.thumbnailHeight,
+                options.thumbnailQuality,
+                options.progressiveThumbnails,
+                page.packedThumbnails()
+            );
+            if (thumbnail != null) {
+                thumbnails.add(thumbnail.name, null, "image/jpeg", thumbnail.length, thumbnail.preview, null);
+            } else {
+                thumbnails.addMissing();
+            }
+        }
 
-        Uri assetUri = contentUriFor(mediaType, id);
-        if (assetUri == null) {
-            return null;
+        PhotoLibraryColumnarPage.FileColumn files = page.fileColumn();
+        if (files != null && options.streamFullResolution && streamingEnabled) {
+            streamableAssets.put(assetInfo.identifier, assetInfo);
+            String webName = Uri.encode(assetInfo.identifier);
+            files.add(assetInfo.uri.toString(), webName, assetInfo.mimeType, assetInfo.size > 0 ? assetInfo.size : -1, false, null);
+        } else if (files != null) {
+            File full = ensureFullFile(assetInfo, options.checksum);
+            if (full != null) {
+                files.add(full.getName(), null, assetInfo.mimeType, full.length(), false, options.checksum ? checksums.get(full) : null);
+            } else {
+                files.addMissing();
+            }
         }
+        addSnapshotEntry(entries, identifier, row, thumbnail);
+        return true;
+    }
 
-        String assetType = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE ? "image" : "video";
-        String identifier = assetType + ":" + id;
+    /** Whether rows of the page need a {@link MediaAsset}, to resolve a thumbnail or a full resolution file. */
+    private static boolean resolvesFiles(GetLibraryOptions options) {
+        return options.includeFullResolutionData || (options.thumbnailWidth > 0 && options.thumbnailHeight > 0);
+    }
 
-        MediaAsset assetInfo = new MediaAsset(identifier, assetUri, mediaType, mimeType, displayName);
+    private MediaAsset mediaAsset(AssetRow row, String identifier) {
+        return new MediaAsset(
+            identifier,
+            contentUriFor(row.mediaType, row.id),
+            row.mediaType,
+            row.mimeType,
+            row.displayName,
+            row.size,
+            row.dateModified
+        );
+    }
 
-        JSObject asset = new JSObject();
-        asset.put("id", identifier);
-        asset.put("fileName", displayName != null ? displayName : (identifier + guessExtension(mimeType)));
-        asset.put("type", assetType);
-        asset.put("width", width);
-        asset.put("height", height);
-        asset.put("mimeType", mimeType != null ? mimeType : "application/octet-stream");
-        if (duration > 0) {
-            asset.put("duration", duration / 1000.0);
-        }
-        if (dateTaken > 0) {
-            asset.put("creationDate", isoFormatter.format(Instant.ofEpochMilli(dateTaken)));
-        }
-        if (dateModified > 0) {
-            asset.put("modificationDate", isoFormatter.format(Instant.ofEpochMilli(dateModified)));
+    private static void addSnapshotEntry(
+        @Nullable PhotoLibrarySnapshotStore.Entries entries,
+        String identifier,
+        AssetRow row,
+        @Nullable Thumbnail thumbnail
+    ) {
+        if (entries == null) {
+            return;
         }
-        if (bucketId != null && options.includeAlbumData) {
-            JSArray albums = new JSArray();
-            albums.put(bucketId);
-            asset.put("albumIds", albums);
+        if (thumbnail == null) {
+            entries.add(identifier, row.dateModified, null, false);
+        } else {
+            entries.add(identifier, row.dateModified, thumbnail.name, thumbnail.file == null);
         }
+    }
 
-        JSObject thumbnail = null;
-        if (options.thumbnailWidth > 0 && options.thumbnailHeight > 0) {
-            File thumb = ensureThumbnail(assetInfo, options.thumbnailWidth, options.thumbnailHeight, options.thumbnailQuality);
-            if (thumb != null) {
-                thumbnail = new JSObject();
-                thumbnail.put("path", thumb.getAbsolutePath());
-                thumbnail.put("webPath", portablePath(thumb));
-                thumbnail.put("mimeType", "image/jpeg");
-                thumbnail.put("size", thumb.length());
+    /**
+     * Resolves EXIF metadata for the image rows of the page before anything is written: cached
+     * entries directly, the rest read in parallel on the metadata pool. The cursor position is left
+     * wherever the scan stopped.
+     */
+    private Map<String, PhotoLibraryExifReader.Metadata> readPageMetadata(
+        Cursor cursor,
+        AssetRow.Columns columns,
+        AssetRow row,
+        int skip,
+        @Nullable Integer limit,
+        GetLibraryOptions options
+    ) throws IOException {
+        if (!options.includeExif && !options.includeLocation) {
+            return Collections.emptyMap();
+        }
+        boolean original = options.includeLocation && hasOriginalAccess();
+        Map<String, PhotoLibraryExifReader.Metadata> result = new HashMap<>();
+        List<String> pending = new ArrayList<>();
+        List<Future<PhotoLibraryExifReader.Metadata>> futures = new ArrayList<>();
+        int rows = 0;
+        cursor.moveToPosition(skip - 1);
+        while ((limit == null || rows < limit) && cursor.moveToNext()) {
+            if (!row.read(cursor, columns)) {
+                continue;
+            }
+            rows++;
+            Uri uri = contentUriFor(row.mediaType, row.id);
+            if (row.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE || uri == null) {
+                continue;
+            }
+            String identifier = row.identifier();
+            String version = row.dateModified + ":" + row.size;
+            PhotoLibraryExifReader.Metadata cached = exifReader.cached(identifier, version, original);
+            stats.recordCache(PhotoLibraryStats.Cache.EXIF, cached != null);
+            if (cached != null) {
+                result.put(identifier, cached);
+            } else {
+                pending.add(identifier);
+                futures.add(executors.metadata.submit(() -> exifReader.read(identifier, version, uri, original)));
             }
-        }
-        if (thumbnail != null) {
-            asset.put("thumbnail", thumbnail);
         }
 
-        if (options.includeFullResolutionData) {
-            File full = ensureFullFile(assetInfo);
-            if (full != null) {
-                JSObject file = new JSObject();
-                file.put("path", full.getAbsolutePath());
-                file.put("webPath", portablePath(full));
-                file.put("mimeType", mimeType != null ? mimeType : "application/octet-stream");
-                file.put("size", full.length());
-                asset.put("file", file);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                PhotoLibraryExifReader.Metadata metadata = futures.get(i).get();
+                if (metadata != null) {
+                    result.put(pending.get(i), metadata);
+                }
+            } catch (ExecutionException e) {
+                Logger.debug("PhotoLibrary", "Failed to read EXIF for " + pending.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<PhotoLibraryExifReader.Metadata> future : futures) {
+                    future.cancel(true);
+                }
+                throw new IOException("Interrupted while reading EXIF metadata", e);
             }
         }
+        return result;
+    }
 
-        asset.put("size", size);
-
-        return asset;
+    /**
+     * Whether unredacted originals can be opened. Android 10 strips GPS tags from files unless the
+     * app holds {@code ACCESS_MEDIA_LOCATION}.
+     */
+    private boolean hasOriginalAccess() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return true;
+        }
+        return context.checkSelfPermission(Manifest.permission.ACCESS_MEDIA_LOCATION) == PackageManager.PERMISSION_GRANTED;
     }
 
     @Nullable
@@ -538,7 +2104,12 @@ final class PhotoLibraryService {
             return null;
         }
 
-        String[] projection = new String[] { MediaStore.Files.FileColumns.DISPLAY_NAME, MediaStore.Files.FileColumns.MIME_TYPE };
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns.DISPLAY_NAME,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.DATE_MODIFIED
+        };
 
         String selection = MediaStore.Files.FileColumns._ID + "=?";
         String[] args = new String[] { String.valueOf(parsed.id) };
@@ -547,33 +2118,80 @@ final class PhotoLibraryService {
             if (cursor != null && cursor.moveToFirst()) {
                 String displayName = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME));
                 String mimeType = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE));
-                return new MediaAsset(identifier, uri, parsed.mediaType, mimeType, displayName);
+                long size = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE));
+                long dateModified = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED));
+                return new MediaAsset(identifier, uri, parsed.mediaType, mimeType, displayName, size, dateModified);
             }
         }
         return null;
     }
 
+    /**
+     * Registers an original with {@link PhotoLibraryStreamHandler} and describes how it is served
+     * instead of a cached copy. Both the object and the page forms are written from this.
+     */
+    private StreamedOriginal streamOriginal(MediaAsset asset) {
+        streamableAssets.put(asset.identifier, asset);
+        return new StreamedOriginal(
+            asset.uri.toString(),
+            PhotoLibraryStreamHandler.urlFor(bridge.getLocalUrl(), asset.identifier),
+            asset.mimeType != null ? asset.mimeType : "application/octet-stream",
+            asset.size > 0 ? asset.size : -1
+        );
+    }
+
+    private JSObject createStreamObject(MediaAsset asset) {
+        StreamedOriginal original = streamOriginal(asset);
+        JSObject result = new JSObject();
+        result.put("path", original.path);
+        result.put("webPath", original.webPath);
+        result.put("mimeType", original.mimeType);
+        result.put("size", original.size);
+        return result;
+    }
+
+    /**
+     * Resolves a stream handler request. Assets handed out recently are remembered; others, such as
+     * URLs kept by the web view across a restart, cost one lookup by id.
+     */
+    @Nullable
+    private PhotoLibraryStreamHandler.StreamSource resolveStreamSource(String identifier) {
+        MediaAsset asset = streamableAssets.get(identifier);
+        if (asset == null) {
+            asset = findAsset(identifier);
+            if (asset == null) {
+                return null;
+            }
+            streamableAssets.put(identifier, asset);
+        }
+        String mimeType = asset.mimeType != null ? asset.mimeType : "application/octet-stream";
+        return new PhotoLibraryStreamHandler.StreamSource(asset.uri, mimeType);
+    }
+
+    /**
+     * Returns the cached copy of {@code asset}, copying it first if needed. With {@code checksum}
+     * the copy is hashed inline and the digest is stored in {@link PhotoLibraryChecksums}.
+     */
     @Nullable
-    private File ensureFullFile(MediaAsset asset) throws IOException {
-        String extension = guessExtension(asset.mimeType);
-        File target = new File(fileDirectory, hashed(asset.identifier) + extension);
-        if (target.exists()) {
+    private File ensureFullFile(MediaAsset asset, boolean checksum) throws IOException {
+        String extension = PhotoLibraryUtils.guessExtension(asset.mimeType);
+        File target = new File(fileDirectory, PhotoLibraryUtils.hashed(asset.identifier) + extension);
+        boolean cached = fileCache.touch(target);
+        stats.recordCache(PhotoLibraryStats.Cache.FILE, cached);
+        if (cached) {
             return target;
         }
 
-        try (InputStream in = resolver.openInputStream(asset.uri)) {
-            if (in == null) {
+        MessageDigest digest = checksum ? PhotoLibraryChecksums.newDigest() : null;
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.COPY)) {
+            if (copier.copy(asset.uri, target, digest) < 0) {
                 return null;
             }
-            try (FileOutputStream out = new FileOutputStream(target)) {
-                byte[] buffer = new byte[8192];
-                int read;
-                while ((read = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, read);
-                }
-            }
         }
-
+        fileCache.record(target);
+        if (digest != null) {
+            checksums.record(target, PhotoLibraryChecksums.toHex(digest.digest()));
+        }
         return target;
     }
 
@@ -582,66 +2200,323 @@ final class PhotoLibraryService {
             int maxWidth,
             int maxHeight
     ) {
-        int srcW = src.getWidth();
-        int srcH = src.getHeight();
-
-        float scale = Math.min(
-                (float) maxWidth / srcW,
-                (float) maxHeight / srcH
-        );
+        int[] size = PhotoLibraryUtils.fitSize(src.getWidth(), src.getHeight(), maxWidth, maxHeight);
+        return Bitmap.createScaledBitmap(src, size[0], size[1], true);
+    }
 
-        int dstW = Math.round(srcW * scale);
-        int dstH = Math.round(srcH * scale);
+    @Nullable
+    private JSObject thumbnailObject(MediaAsset asset, int width, int height, double quality, boolean progressive) throws IOException {
+        Thumbnail thumbnail = resolveThumbnail(asset, width, height, quality, progressive, usesThumbnailPack());
+        return thumbnail != null ? thumbnailFileObject(thumbnail) : null;
+    }
 
-        return Bitmap.createScaledBitmap(src, dstW, dstH, true);
+    private JSObject thumbnailFileObject(Thumbnail thumbnail) {
+        JSObject result;
+        if (thumbnail.file != null) {
+            result = createFileObject(thumbnail.file, "image/jpeg");
+        } else {
+            result = new JSObject();
+            result.put("webPath", PhotoLibraryStreamHandler.thumbnailUrlPrefix(bridge.getLocalUrl()) + thumbnail.name);
+            result.put("mimeType", "image/jpeg");
+            result.put("size", thumbnail.length);
+        }
+        if (thumbnail.preview) {
+            result.put("isPreview", true);
+        }
+        return result;
     }
 
+    /**
+     * Returns the thumbnail to hand out now. With {@code progressive}, the embedded EXIF preview is
+     * returned while the final thumbnail is rendered in the background. With {@code packed}, the
+     * thumbnails are kept in the {@link PhotoLibraryThumbnailPack} instead of files.
+     */
     @Nullable
-    private File ensureThumbnail(MediaAsset asset, int width, int height, double quality) throws IOException {
+    private Thumbnail resolveThumbnail(MediaAsset asset, int width, int height, double quality, boolean progressive, boolean packed)
+        throws IOException {
+        if (progressive && hasEmbeddedPreview(asset) && cachedThumbnail(thumbnailName(asset, width, height, quality), packed) == null) {
+            Thumbnail preview = ensureExifPreview(asset, packed);
+            if (preview != null) {
+                scheduleThumbnailUpgrade(asset, width, height, quality);
+                return preview;
+            }
+        }
+        return ensureThumbnail(asset, width, height, quality, packed);
+    }
+
+    private static String thumbnailName(MediaAsset asset, int width, int height, double quality) {
         int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(quality * 100)));
-        String name = String.format(Locale.US, "%s_%dx%d_q%d.jpg", hashed(asset.identifier), width, height, qualityPercent);
-        File target = new File(thumbnailDirectory, name);
-        if (target.exists()) {
-            return target;
+        return String.format(Locale.US, "%s_%dx%d_q%d.jpg", PhotoLibraryUtils.hashed(asset.identifier), width, height, qualityPercent);
+    }
+
+    /** Returns the stored thumbnail called {@code name}, or {@code null}. A pack lookup touches no file. */
+    @Nullable
+    private Thumbnail cachedThumbnail(String name, boolean packed) {
+        if (packed) {
+            long length = thumbnailPack.lookup(name);
+            return length >= 0 ? new Thumbnail(name, null, length) : null;
+        }
+        File file = new File(thumbnailDirectory, name);
+        long length = file.length();
+        // length() is 0 for missing files and saves the separate exists() call.
+        return length > 0 ? new Thumbnail(name, file, length) : null;
+    }
+
+    /** Stores an encoded thumbnail in the pack or as a file, timed as a write. */
+    @Nullable
+    private Thumbnail storeThumbnail(String name, ByteArrayOutputStream encoded, boolean packed) throws IOException {
+        if (!packed) {
+            File target = new File(thumbnailDirectory, name);
+            writeEncoded(encoded, target);
+            return cachedThumbnail(name, false);
+        }
+        boolean compactionDue;
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.WRITE)) {
+            compactionDue = thumbnailPack.put(name, encoded.toByteArray(), encoded.size());
+        }
+        stats.recordBytesWritten(encoded.size());
+        if (compactionDue && compactingThumbnailPack.compareAndSet(false, true)) {
+            executors.io.execute(() -> {
+                try {
+                    thumbnailPack.compact();
+                } finally {
+                    compactingThumbnailPack.set(false);
+                }
+            });
         }
+        return new Thumbnail(name, null, encoded.size());
+    }
 
-        Bitmap bitmap = null;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            try {
-                bitmap = resolver.loadThumbnail(asset.uri, new Size(width, height), null);
-            } catch (IOException e) {
-                Logger.debug("PhotoLibrary", "loadThumbnail failed: " + e.getMessage());
+    private boolean hasEmbeddedPreview(MediaAsset asset) {
+        if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE || asset.mimeType == null) {
+            return false;
+        }
+        return (
+            asset.mimeType.equals("image/jpeg") ||
+            (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && (asset.mimeType.equals("image/heic") || asset.mimeType.equals("image/heif")))
+        );
+    }
+
+    /**
+     * Extracts the small preview most cameras embed in the EXIF block. Only the header is read,
+     * so this stays cheap even for very large originals. Returns {@code null} when there is none.
+     */
+    @Nullable
+    private Thumbnail ensureExifPreview(MediaAsset asset, boolean packed) {
+        String name = PhotoLibraryUtils.hashed(asset.identifier) + EXIF_PREVIEW_SUFFIX;
+        Thumbnail cached = cachedThumbnail(name, packed);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] bytes;
+        int orientation;
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(asset.uri, "r")) {
+            if (descriptor == null) {
+                return null;
             }
+            ExifInterface exif = new ExifInterface(descriptor.getFileDescriptor());
+            bytes = exif.getThumbnailBytes();
+            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException e) {
+            Logger.debug("PhotoLibrary", "Reading EXIF preview failed: " + e.getMessage());
+            return null;
+        }
+        if (bytes == null || bytes.length == 0) {
+            return null;
         }
 
-        if (bitmap == null) {
-            ParsedIdentifier parsed = ParsedIdentifier.parse(asset.identifier);
-            if (parsed != null) {
-                long id = parsed.id;
-                if (asset.mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
-                    bitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
-                } else if (asset.mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
-                    bitmap = MediaStore.Video.Thumbnails.getThumbnail(resolver, id, MediaStore.Video.Thumbnails.MINI_KIND, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        if (orientation == ExifInterface.ORIENTATION_NORMAL || orientation == ExifInterface.ORIENTATION_UNDEFINED) {
+            out.write(bytes, 0, bytes.length);
+        } else {
+            Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            if (decoded == null) {
+                out.write(bytes, 0, bytes.length);
+            } else {
+                Bitmap oriented = applyExifOrientation(decoded, orientation);
+                oriented.compress(Bitmap.CompressFormat.JPEG, 90, out);
+                oriented.recycle();
+            }
+        }
+        try {
+            return storeThumbnail(name, out, packed);
+        } catch (IOException e) {
+            Logger.debug("PhotoLibrary", "Storing EXIF preview failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void scheduleThumbnailUpgrade(MediaAsset asset, int width, int height, double quality) {
+        if (memoryPressure.isPaused()) {
+            // The preview stays in place; a later request schedules the upgrade again.
+            memoryPressure.recordSkipped();
+            return;
+        }
+        String key = thumbnailName(asset, width, height, quality);
+        if (!pendingThumbnailUpgrades.add(key)) {
+            return;
+        }
+        executors.decode.execute(() -> {
+            try {
+                if (memoryPressure.isPaused()) {
+                    memoryPressure.recordSkipped();
+                    return;
+                }
+                Thumbnail thumbnail = ensureThumbnail(asset, width, height, quality, usesThumbnailPack());
+                if (thumbnail != null) {
+                    JSObject event = new JSObject();
+                    event.put("id", asset.identifier);
+                    event.put("width", width);
+                    event.put("height", height);
+                    event.put("thumbnail", thumbnailFileObject(thumbnail));
+                    eventListener.onEvent(EVENT_THUMBNAIL_UPDATED, event);
                 }
+            } catch (Exception e) {
+                Logger.error("PhotoLibrary", "Failed to upgrade thumbnail", e);
+            } finally {
+                pendingThumbnailUpgrades.remove(key);
             }
+        });
+    }
+
+    private Bitmap applyExifOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    @Nullable
+    private Thumbnail ensureThumbnail(MediaAsset asset, int width, int height, double quality, boolean packed) throws IOException {
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(quality * 100)));
+        String name = thumbnailName(asset, width, height, quality);
+        Thumbnail cached = cachedThumbnail(name, packed);
+        stats.recordCache(PhotoLibraryStats.Cache.THUMBNAIL, cached != null);
+        if (cached != null) {
+            return cached;
         }
 
+        ParsedIdentifier parsed = ParsedIdentifier.parse(asset.identifier);
+        Bitmap bitmap = parsed != null ? loadThumbnailBitmap(asset.uri, parsed.id, asset.mediaType, width, height) : null;
         if (bitmap == null) {
             return null;
         }
 
-        Bitmap scaled = scaleBitmapFit(bitmap, width, height);
+        Bitmap scaled;
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.SCALE)) {
+            scaled = scaleBitmapFit(bitmap, width, height);
+        }
         if (bitmap != scaled) {
             bitmap.recycle();
         }
 
-        try (FileOutputStream out = new FileOutputStream(target)) {
-            scaled.compress(Bitmap.CompressFormat.JPEG, qualityPercent, out);
+        return storeThumbnail(name, encodeJpeg(scaled, qualityPercent), packed);
+    }
+
+    /**
+     * Loads the system thumbnail of a MediaStore item, which the media provider usually has cached
+     * already. Before Q, or when loading fails, the fixed size mini thumbnail is used.
+     */
+    @Nullable
+    private Bitmap loadThumbnailBitmap(Uri uri, long id, int mediaType, int width, int height) {
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.BITMAP_LOAD)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                try {
+                    return resolver.loadThumbnail(uri, new Size(width, height), null);
+                } catch (IOException e) {
+                    Logger.debug("PhotoLibrary", "loadThumbnail failed: " + e.getMessage());
+                }
+            }
+
+            if (mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+                return MediaStore.Images.Thumbnails.getThumbnail(resolver, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+            } else if (mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+                return MediaStore.Video.Thumbnails.getThumbnail(resolver, id, MediaStore.Video.Thumbnails.MINI_KIND, null);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compresses {@code bitmap} into {@code target} through a temp file so concurrent requests for
+     * the same thumbnail never observe a partial JPEG. The bitmap is recycled. Thumbnails are small,
+     * so they are encoded in memory first and compression and disk writes are timed separately.
+     */
+    private void writeJpeg(Bitmap bitmap, File target, int qualityPercent) throws IOException {
+        writeEncoded(encodeJpeg(bitmap, qualityPercent), target);
+    }
+
+    /** Compresses {@code bitmap} in memory and recycles it. */
+    private ByteArrayOutputStream encodeJpeg(Bitmap bitmap, int qualityPercent) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(32 * 1024);
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.COMPRESS)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, qualityPercent, encoded);
         } finally {
-            scaled.recycle();
+            bitmap.recycle();
         }
+        return encoded;
+    }
 
-        return target;
+    private void writeEncoded(ByteArrayOutputStream encoded, File target) throws IOException {
+        try (PhotoLibraryStats.Span ignored = stats.begin(PhotoLibraryStats.Stage.WRITE)) {
+            File partial = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                encoded.writeTo(out);
+            }
+            if (!partial.renameTo(target)) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                return;
+            }
+        }
+        stats.recordBytesWritten(encoded.size());
+    }
+
+    /** Decodes an image file at the smallest power of two sample size that still covers the bounds. */
+    @Nullable
+    private Bitmap decodeSampledFile(File file, int width, int height) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = 1;
+        if (bounds.outWidth > 0 && bounds.outHeight > 0) {
+            while (bounds.outWidth / (opts.inSampleSize * 2) >= width && bounds.outHeight / (opts.inSampleSize * 2) >= height) {
+                opts.inSampleSize *= 2;
+            }
+        }
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), opts);
     }
 
     private Uri contentUriFor(int mediaType, long id) {
@@ -674,22 +2549,6 @@ final class PhotoLibraryService {
         return MediaStore.Files.getContentUri("external");
     }
 
-    private long getLong(Cursor cursor, String column) {
-        int index = cursor.getColumnIndex(column);
-        if (index == -1) {
-            return 0;
-        }
-        return cursor.getLong(index);
-    }
-
-    private int getInt(Cursor cursor, String column) {
-        int index = cursor.getColumnIndex(column);
-        if (index == -1) {
-            return 0;
-        }
-        return cursor.getInt(index);
-    }
-
     private JSObject createFileObject(File file, String mimeType) {
         JSObject result = new JSObject();
         try {
@@ -703,19 +2562,45 @@ final class PhotoLibraryService {
         return result;
     }
 
-    private JSObject ensurePickedThumbnail(String identifier, PickedItem picked, int width, int height, double quality) throws IOException {
+    /**
+     * Opens an object describing {@code file}, in the same shape as {@link #createFileObject}. The
+     * caller may add members and closes it.
+     */
+    private void beginFileObject(PhotoLibraryJsonWriter writer, File file, @Nullable String mimeType) {
+        writer.beginObject();
+        writer.name("path").value(file.getAbsolutePath());
+        writer.name("webPath").value(portableDirectory(file.getParentFile()), file.getName());
+        writer.name("mimeType").repeatedValue(mimeType != null ? mimeType : "application/octet-stream");
+        writer.name("size").value(file.length());
+    }
+
+    private Set<String> pinnedFileNames() {
+        Set<String> names = new HashSet<>(pendingPickedFiles.keySet());
+        for (PickedItem item : pickedItems.values()) {
+            names.add(item.file.getName());
+        }
+        return names;
+    }
+
+    private void releasePickedFile(File file) {
+        pendingPickedFiles.computeIfPresent(file.getName(), (name, holds) -> holds > 1 ? holds - 1 : null);
+    }
+
+    private JSObject ensurePickedThumbnail(PickedItem picked, int width, int height, double quality) throws IOException {
         if (width <= 0 || height <= 0) {
             return null;
         }
 
+        // Keyed by the cached file, so aliases of the same picked content share thumbnails.
         File target = new File(
             thumbnailDirectory,
-            String.format(Locale.US, "%s_%dx%d_q%.0f.jpg", hashed(identifier), width, height, quality * 100)
+            String.format(Locale.US, "%s_%dx%d_q%.0f.jpg", PhotoLibraryUtils.hashed(picked.file.getName()), width, height, quality * 100)
         );
 
+        int qualityPercent = (int) Math.round(Math.max(0, Math.min(1, quality)) * 100);
         if (!target.exists()) {
             if ("image".equals(picked.type)) {
-                Bitmap bitmap = BitmapFactory.decodeFile(picked.file.getAbsolutePath());
+                Bitmap bitmap = decodeSampledFile(picked.file, width, height);
                 if (bitmap == null) {
                     return null;
                 }
@@ -723,10 +2608,7 @@ final class PhotoLibraryService {
                 if (scaled != bitmap) {
                     bitmap.recycle();
                 }
-                try (FileOutputStream out = new FileOutputStream(target)) {
-                    scaled.compress(Bitmap.CompressFormat.JPEG, (int) Math.round(Math.max(0, Math.min(1, quality)) * 100), out);
-                }
-                scaled.recycle();
+                writeJpeg(scaled, target, qualityPercent);
             } else if ("video".equals(picked.type)) {
                 Bitmap bitmap;
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
@@ -746,11 +2628,7 @@ final class PhotoLibraryService {
                     return null;
                 }
 
-                try (FileOutputStream out = new FileOutputStream(target)) {
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, (int) Math.round(Math.max(0, Math.min(1, quality)) * 100), out);
-                } finally {
-                    bitmap.recycle();
-                }
+                writeJpeg(bitmap, target, qualityPercent);
             } else {
                 return null;
             }
@@ -767,50 +2645,14 @@ final class PhotoLibraryService {
         return FileUtils.getPortablePath(context, host, Uri.fromFile(file));
     }
 
-    private String hashed(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encoded = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : encoded) {
-                sb.append(String.format(Locale.US, "%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return String.valueOf(input.hashCode());
-        }
-    }
-
-    private String guessExtension(@Nullable String mimeType) {
-        if (mimeType == null) {
-            return ".dat";
-        }
-        if (mimeType.equals("image/jpeg")) {
-            return ".jpg";
-        } else if (mimeType.equals("image/png")) {
-            return ".png";
-        } else if (mimeType.equals("image/gif")) {
-            return ".gif";
-        } else if (mimeType.equals("video/mp4")) {
-            return ".mp4";
-        } else if (mimeType.equals("video/quicktime")) {
-            return ".mov";
-        }
-        String subtype = mimeType.substring(mimeType.indexOf('/') + 1);
-        return "." + subtype;
-    }
-
-    private static final class PickedItem {
-
-        final File file;
-        final String mimeType;
-        final String type;
-
-        PickedItem(File file, String mimeType, String type) {
-            this.file = file;
-            this.mimeType = mimeType;
-            this.type = type;
+    /** Web path prefix of files in {@code directory}, ending with a slash. Cached per directory. */
+    private String portableDirectory(File directory) {
+        String prefix = portableDirectories.get(directory);
+        if (prefix == null) {
+            prefix = portablePath(directory) + "/";
+            portableDirectories.put(directory, prefix);
         }
+        return prefix;
     }
 
     private static final class AlbumAccumulator {
@@ -826,44 +2668,36 @@ final class PhotoLibraryService {
         }
     }
 
-    private static final class Selection {
+    /** A stored thumbnail: a file in {@link #thumbnailDirectory}, or an entry of the thumbnail pack. */
+    private static final class Thumbnail {
 
-        final String selection;
-        final String[] args;
+        final String name;
+        @Nullable
+        final File file;
+        final long length;
+        final boolean preview;
 
-        Selection(String selection, String[] args) {
-            this.selection = selection;
-            this.args = args;
+        Thumbnail(String name, @Nullable File file, long length) {
+            this.name = name;
+            this.file = file;
+            this.length = length;
+            this.preview = name.endsWith(EXIF_PREVIEW_SUFFIX);
         }
     }
 
-    private static final class ParsedIdentifier {
-
-        final long id;
-        final int mediaType;
+    /** File object fields of a streamed original. {@code path} is the source content URI because nothing is written to disk. */
+    private static final class StreamedOriginal {
 
-        private ParsedIdentifier(long id, int mediaType) {
-            this.id = id;
-            this.mediaType = mediaType;
-        }
+        final String path;
+        final String webPath;
+        final String mimeType;
+        final long size;
 
-        static ParsedIdentifier parse(String identifier) {
-            if (identifier == null) {
-                return null;
-            }
-            String[] parts = identifier.split(":");
-            if (parts.length != 2) {
-                return null;
-            }
-            try {
-                long id = Long.parseLong(parts[1]);
-                int mediaType = "video".equals(parts[0])
-                    ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
-                    : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
-                return new ParsedIdentifier(id, mediaType);
-            } catch (NumberFormatException ex) {
-                return null;
-            }
+        StreamedOriginal(String path, String webPath, String mimeType, long size) {
+            this.path = path;
+            this.webPath = webPath;
+            this.mimeType = mimeType;
+            this.size = size;
         }
     }
 
@@ -874,13 +2708,18 @@ final class PhotoLibraryService {
         final int mediaType;
         final String mimeType;
         final String displayName;
+        final long size;
+        /** MediaStore modification time, in seconds. */
+        final long dateModified;
 
-        MediaAsset(String identifier, Uri uri, int mediaType, String mimeType, String displayName) {
+        MediaAsset(String identifier, Uri uri, int mediaType, String mimeType, String displayName, long size, long dateModified) {
             this.identifier = identifier;
             this.uri = uri;
             this.mediaType = mediaType;
             this.mimeType = mimeType;
             this.displayName = displayName;
+            this.size = size;
+            this.dateModified = dateModified;
         }
     }
 }
@@ -0,0 +1,112 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Open library sessions. A session is the ordered id list of a query taken once, so later pages
+ * are served by id and stay consistent while the library changes. Sessions expire after their TTL
+ * without access; expired ones are dropped whenever sessions are touched.
+ */
+final class PhotoLibrarySessions {
+
+    /** Older sessions are closed first when more than this are open. */
+    private static final int MAX_SESSIONS = 8;
+
+    static final class Session {
+
+        final String id;
+        final GetLibraryOptions options;
+        /** MediaStore row ids in query order. */
+        final long[] ids;
+        final long ttlMillis;
+        private volatile long lastAccess;
+
+        private Session(String id, GetLibraryOptions options, long[] ids, long ttlMillis) {
+            this.id = id;
+            this.options = options;
+            this.ids = ids;
+            this.ttlMillis = ttlMillis;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        long expiresAt() {
+            return lastAccess + ttlMillis;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt();
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    Session open(GetLibraryOptions options, long[] ids, long ttlMillis) {
+        removeExpired();
+        while (sessions.size() >= MAX_SESSIONS) {
+            Session oldest = null;
+            for (Session session : sessions.values()) {
+                if (oldest == null || session.lastAccess < oldest.lastAccess) {
+                    oldest = session;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            sessions.remove(oldest.id);
+        }
+        Session session = new Session(UUID.randomUUID().toString(), options, ids, ttlMillis);
+        sessions.put(session.id, session);
+        return session;
+    }
+
+    /** Returns the session and extends its TTL, or {@code null} when it is unknown or expired. */
+    @Nullable
+    Session get(String id) {
+        removeExpired();
+        Session session = sessions.get(id);
+        if (session != null) {
+            session.lastAccess = System.currentTimeMillis();
+        }
+        return session;
+    }
+
+    void close(String id) {
+        sessions.remove(id);
+    }
+
+    /**
+     * Drops expired sessions and then all but the {@code keep} most recently used ones. Returns how
+     * many sessions were dropped.
+     */
+    int trim(int keep) {
+        int before = sessions.size();
+        removeExpired();
+        while (sessions.size() > keep) {
+            Session oldest = null;
+            for (Session session : sessions.values()) {
+                if (oldest == null || session.lastAccess < oldest.lastAccess) {
+                    oldest = session;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            sessions.remove(oldest.id);
+        }
+        return Math.max(0, before - sessions.size());
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last served first library page and album list, persisted so a cold start can show them
+ * before any query runs. Both are stored with the {@link PhotoLibraryGeneration} they were built
+ * at, so they can be revalidated later. The whole snapshot is one small binary file that is
+ * rewritten atomically when it changes.
+ *
+ * <p>Only warm start pages are persisted (see {@link GetLibraryOptions#isWarmStart}). They
+ * reference no copies of originals, and the thumbnails they reference are recorded so the service
+ * can check they still exist before serving the page.
+ */
+final class PhotoLibrarySnapshotStore {
+
+    private static final int FORMAT_VERSION = 2;
+    /** Pages encoded larger than this are not persisted; the snapshot is meant for a first screen. */
+    static final int MAX_PAGE_CHARS = 2 * 1024 * 1024;
+    /** Largest {@code limit} of a persisted page. */
+    static final int MAX_PAGE_ROWS = 500;
+
+    static final class Page {
+
+        final String generation;
+        final long savedAt;
+        final GetLibraryOptions options;
+        final int totalCount;
+        final boolean hasMore;
+        /** Identifiers of the page in order, with the modification time of each. */
+        final String[] identifiers;
+        final long[] modified;
+        /** Name of the thumbnail written for each entry, {@code null} when it has none. */
+        final String[] thumbnails;
+        /** Whether each thumbnail is in the thumbnail pack rather than a file. */
+        final boolean[] packedThumbnails;
+        final String json;
+
+        Page(
+            String generation,
+            long savedAt,
+            GetLibraryOptions options,
+            int totalCount,
+            boolean hasMore,
+            String[] identifiers,
+            long[] modified,
+            String[] thumbnails,
+            boolean[] packedThumbnails,
+            String json
+        ) {
+            this.generation = generation;
+            this.savedAt = savedAt;
+            this.options = options;
+            this.totalCount = totalCount;
+            this.hasMore = hasMore;
+            this.identifiers = identifiers;
+            this.modified = modified;
+            this.thumbnails = thumbnails;
+            this.packedThumbnails = packedThumbnails;
+            this.json = json;
+        }
+    }
+
+    static final class Albums {
+
+        final String generation;
+        final long savedAt;
+        final String json;
+
+        Albums(String generation, long savedAt, String json) {
+            this.generation = generation;
+            this.savedAt = savedAt;
+            this.json = json;
+        }
+    }
+
+    /** Collects the identifiers of a page while it is written. */
+    static final class Entries {
+
+        private String[] identifiers = new String[64];
+        private long[] modified = new long[64];
+        private String[] thumbnails = new String[64];
+        private boolean[] packedThumbnails = new boolean[64];
+        private int size = 0;
+
+        void add(String identifier, long modifiedMillis, @Nullable String thumbnail, boolean packedThumbnail) {
+            if (size == identifiers.length) {
+                identifiers = Arrays.copyOf(identifiers, size * 2);
+                modified = Arrays.copyOf(modified, size * 2);
+                thumbnails = Arrays.copyOf(thumbnails, size * 2);
+                packedThumbnails = Arrays.copyOf(packedThumbnails, size * 2);
+            }
+            identifiers[size] = identifier;
+            modified[size] = modifiedMillis;
+            thumbnails[size] = thumbnail;
+            packedThumbnails[size] = packedThumbnail;
+            size++;
+        }
+
+        Page toPage(String generation, GetLibraryOptions options, int totalCount, boolean hasMore, String json) {
+            return new Page(
+                generation,
+                System.currentTimeMillis(),
+                options,
+                totalCount,
+                hasMore,
+                Arrays.copyOf(identifiers, size),
+                Arrays.copyOf(modified, size),
+                Arrays.copyOf(thumbnails, size),
+                Arrays.copyOf(packedThumbnails, size),
+                json
+            );
+        }
+    }
+
+    private final File file;
+    @Nullable
+    private Page page;
+    @Nullable
+    private Albums albums;
+    private boolean loaded = false;
+
+    PhotoLibrarySnapshotStore(File file) {
+        this.file = file;
+    }
+
+    @Nullable
+    synchronized Page page() {
+        ensureLoaded();
+        return page;
+    }
+
+    @Nullable
+    synchronized Albums albums() {
+        ensureLoaded();
+        return albums;
+    }
+
+    /** Persists {@code page}, unless the saved page was built at the same generation with the same content. */
+    synchronized void savePage(Page page) {
+        ensureLoaded();
+        if (this.page != null && this.page.generation.equals(page.generation) && this.page.json.equals(page.json)) {
+            return;
+        }
+        this.page = page;
+        write();
+    }
+
+    /** Forgets the saved page, for example because files it references are gone. */
+    synchronized void dropPage() {
+        ensureLoaded();
+        if (page != null) {
+            page = null;
+            write();
+        }
+    }
+
+    synchronized void saveAlbums(Albums albums) {
+        ensureLoaded();
+        this.albums = albums;
+        write();
+    }
+
+    /** Drops the loaded snapshot; it is read from disk again on next use. */
+    synchronized void trim() {
+        page = null;
+        albums = null;
+        loaded = false;
+    }
+
+    /**
+     * Compares two versions of the first page by identifier and puts the {@code added} and
+     * {@code removed} ids, and the {@code changed} ids whose modification time differs, into
+     * {@code target}. Returns whether anything differs.
+     */
+    static boolean diff(Page previous, Page current, JSObject target) {
+        Map<String, Long> before = new HashMap<>(previous.identifiers.length * 2);
+        for (int i = 0; i < previous.identifiers.length; i++) {
+            before.put(previous.identifiers[i], previous.modified[i]);
+        }
+        JSArray added = new JSArray();
+        JSArray changed = new JSArray();
+        for (int i = 0; i < current.identifiers.length; i++) {
+            Long modified = before.remove(current.identifiers[i]);
+            if (modified == null) {
+                added.put(current.identifiers[i]);
+            } else if (modified != current.modified[i]) {
+                changed.put(current.identifiers[i]);
+            }
+        }
+        JSArray removed = new JSArray();
+        for (String identifier : before.keySet()) {
+            removed.put(identifier);
+        }
+        target.put("added", added);
+        target.put("removed", removed);
+        target.put("changed", changed);
+        return added.length() > 0 || removed.length() > 0 || changed.length() > 0;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            if (in.readBoolean()) {
+                String generation = in.readUTF();
+                long savedAt = in.readLong();
+                GetLibraryOptions options = GetLibraryOptions.readFrom(in);
+                int totalCount = in.readInt();
+                boolean hasMore = in.readBoolean();
+                int count = in.readInt();
+                String[] identifiers = new String[count];
+                long[] modified = new long[count];
+                String[] thumbnails = new String[count];
+                boolean[] packedThumbnails = new boolean[count];
+                for (int i = 0; i < count; i++) {
+                    identifiers[i] = in.readUTF();
+                    modified[i] = in.readLong();
+                    String thumbnail = in.readUTF();
+                    thumbnails[i] = thumbnail.isEmpty() ? null : thumbnail;
+                    packedThumbnails[i] = in.readBoolean();
+                }
+                page = new Page(
+                    generation,
+                    savedAt,
+                    options,
+                    totalCount,
+                    hasMore,
+                    identifiers,
+                    modified,
+                    thumbnails,
+                    packedThumbnails,
+                    readString(in)
+                );
+            }
+            if (in.readBoolean()) {
+                albums = new Albums(in.readUTF(), in.readLong(), readString(in));
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.debug("PhotoLibrary", "Discarding unreadable library snapshot: " + e.getMessage());
+            page = null;
+            albums = null;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private void write() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(page != null);
+            if (page != null) {
+                out.writeUTF(page.generation);
+                out.writeLong(page.savedAt);
+                page.options.writeTo(out);
+                out.writeInt(page.totalCount);
+                out.writeBoolean(page.hasMore);
+                out.writeInt(page.identifiers.length);
+                for (int i = 0; i < page.identifiers.length; i++) {
+                    out.writeUTF(page.identifiers[i]);
+                    out.writeLong(page.modified[i]);
+                    out.writeUTF(page.thumbnails[i] != null ? page.thumbnails[i] : "");
+                    out.writeBoolean(page.packedThumbnails[i]);
+                }
+                writeString(out, page.json);
+            }
+            out.writeBoolean(albums != null);
+            if (albums != null) {
+                out.writeUTF(albums.generation);
+                out.writeLong(albums.savedAt);
+                writeString(out, albums.json);
+            }
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to persist library snapshot", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /** Like {@code writeUTF}, without its 64 KB limit. */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
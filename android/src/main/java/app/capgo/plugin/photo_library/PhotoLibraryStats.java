@@ -0,0 +1,281 @@
+package app.capgo.plugin.photo_library;
+
+import android.os.Trace;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide counters reported through {@code getPerformanceStats}. Every recorder is lock free
+ * so it can be called from any worker thread.
+ */
+final class PhotoLibraryStats {
+
+    /** Timed stages. Each {@link Span} is also emitted as a {@code PhotoLibrary.<name>} trace section. */
+    enum Stage {
+        QUERY("query"),
+        ROW_DECODE("rowDecode"),
+        BITMAP_LOAD("bitmapLoad"),
+        SCALE("scale"),
+        COMPRESS("compress"),
+        WRITE("write"),
+        COPY("copy");
+
+        final String key;
+        final String section;
+
+        Stage(String key) {
+            this.key = key;
+            this.section = "PhotoLibrary." + key;
+        }
+    }
+
+    enum Cache {
+        THUMBNAIL("thumbnail"),
+        FILE("file"),
+        EXIF("exif");
+
+        final String key;
+
+        Cache(String key) {
+            this.key = key;
+        }
+    }
+
+    /** A running stage. Close it on the thread that began it, so trace sections stay balanced. */
+    final class Span implements AutoCloseable {
+
+        private final Stage stage;
+        private final long start = System.nanoTime();
+        private boolean closed = false;
+
+        private Span(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            histograms[stage.ordinal()].record(System.nanoTime() - start);
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * A stage made of many short steps, such as decoding the rows of a page. The steps are summed and
+     * recorded as one sample when it is closed, with no trace section or allocation per step.
+     */
+    final class Total implements AutoCloseable {
+
+        private final Stage stage;
+        private long nanos = 0;
+
+        private Total(Stage stage) {
+            this.stage = stage;
+        }
+
+        void add(long nanos) {
+            this.nanos += nanos;
+        }
+
+        @Override
+        public void close() {
+            if (nanos > 0) {
+                histograms[stage.ordinal()].record(nanos);
+                nanos = 0;
+            }
+        }
+    }
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final AtomicLongArray cacheHits = new AtomicLongArray(Cache.values().length);
+    private final AtomicLongArray cacheMisses = new AtomicLongArray(Cache.values().length);
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong copyCount = new AtomicLong();
+    private final AtomicLong copyBytes = new AtomicLong();
+    private final AtomicLong copyNanos = new AtomicLong();
+    private final AtomicLong channelCopies = new AtomicLong();
+    private final AtomicLong streamCopies = new AtomicLong();
+    private volatile long lastCopyBytesPerSecond = 0;
+
+    PhotoLibraryStats() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    Span begin(Stage stage) {
+        Trace.beginSection(stage.section);
+        return new Span(stage);
+    }
+
+    Total total(Stage stage) {
+        return new Total(stage);
+    }
+
+    void recordCache(Cache cache, boolean hit) {
+        if (hit) {
+            cacheHits.incrementAndGet(cache.ordinal());
+        } else {
+            cacheMisses.incrementAndGet(cache.ordinal());
+        }
+    }
+
+    void recordBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void recordCopy(long bytes, long durationNanos, boolean channelTransfer) {
+        copyCount.incrementAndGet();
+        copyBytes.addAndGet(bytes);
+        copyNanos.addAndGet(durationNanos);
+        bytesWritten.addAndGet(bytes);
+        if (channelTransfer) {
+            channelCopies.incrementAndGet();
+        } else {
+            streamCopies.incrementAndGet();
+        }
+        lastCopyBytesPerSecond = bytesPerSecond(bytes, durationNanos);
+    }
+
+    void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < cacheHits.length(); i++) {
+            cacheHits.set(i, 0);
+            cacheMisses.set(i, 0);
+        }
+        bytesWritten.set(0);
+        copyCount.set(0);
+        copyBytes.set(0);
+        copyNanos.set(0);
+        channelCopies.set(0);
+        streamCopies.set(0);
+        lastCopyBytesPerSecond = 0;
+    }
+
+    JSObject toJSObject() {
+        long bytes = copyBytes.get();
+        long nanos = copyNanos.get();
+        JSObject copy = new JSObject();
+        copy.put("count", copyCount.get());
+        copy.put("bytes", bytes);
+        copy.put("totalMs", nanos / 1_000_000L);
+        copy.put("bytesPerSecond", bytesPerSecond(bytes, nanos));
+        copy.put("lastBytesPerSecond", lastCopyBytesPerSecond);
+        copy.put("channelCopies", channelCopies.get());
+        copy.put("streamCopies", streamCopies.get());
+
+        JSObject stages = new JSObject();
+        for (Stage stage : Stage.values()) {
+            stages.put(stage.key, histograms[stage.ordinal()].toJSObject());
+        }
+
+        JSObject caches = new JSObject();
+        for (Cache cache : Cache.values()) {
+            long hits = cacheHits.get(cache.ordinal());
+            long misses = cacheMisses.get(cache.ordinal());
+            JSObject entry = new JSObject();
+            entry.put("hits", hits);
+            entry.put("misses", misses);
+            entry.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0);
+            caches.put(cache.key, entry);
+        }
+
+        JSObject result = new JSObject();
+        result.put("copy", copy);
+        result.put("stages", stages);
+        result.put("caches", caches);
+        result.put("bytesWritten", bytesWritten.get());
+        return result;
+    }
+
+    private static long bytesPerSecond(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return (long) (bytes * 1_000_000_000.0 / nanos);
+    }
+
+    /**
+     * Latency histogram with power of two microsecond buckets: bucket {@code i} counts samples
+     * below {@code 2^i} microseconds, the last one everything slower. Percentiles report the bucket bound.
+     */
+    private static final class Histogram {
+
+        private static final int BUCKETS = 28;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        JSObject toJSObject() {
+            long samples = count.get();
+            long max = maxNanos.get();
+            JSObject result = new JSObject();
+            result.put("count", samples);
+            result.put("totalMs", totalNanos.get() / 1_000_000.0);
+            result.put("averageMs", samples > 0 ? totalNanos.get() / 1_000_000.0 / samples : 0);
+            result.put("maxMs", max / 1_000_000.0);
+            result.put("p50Ms", percentile(0.50, samples, max));
+            result.put("p90Ms", percentile(0.90, samples, max));
+            result.put("p99Ms", percentile(0.99, samples, max));
+
+            JSArray histogram = new JSArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = buckets.get(i);
+                if (bucketCount > 0) {
+                    JSObject bucket = new JSObject();
+                    bucket.put("upperMs", i == BUCKETS - 1 ? max / 1_000_000.0 : upperMicros(i) / 1000.0);
+                    bucket.put("count", bucketCount);
+                    histogram.put(bucket);
+                }
+            }
+            result.put("histogram", histogram);
+            return result;
+        }
+
+        private double percentile(double quantile, long samples, long max) {
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * samples);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperMicros(i) * 1000L, max) / 1_000_000.0;
+                }
+            }
+            return max / 1_000_000.0;
+        }
+
+        private static long upperMicros(int bucket) {
+            return 1L << bucket;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves original media straight from its {@code content://} URI so the web view can display or
+ * scrub it without a copy in the cache directory. Honours single {@code Range} requests. Also serves
+ * thumbnails kept in the {@link PhotoLibraryThumbnailPack}, which have no file of their own, and
+ * large library pages handed off by {@link PhotoLibraryPageHandoff}.
+ */
+final class PhotoLibraryStreamHandler {
+
+    static final String PATH_PREFIX = "/_capgo_photo_library_/";
+    static final String ASSET_SEGMENT = "asset";
+    static final String THUMBNAIL_SEGMENT = "thumbnail";
+    static final String PAGE_SEGMENT = "page";
+
+    interface SourceResolver {
+        @Nullable
+        StreamSource resolve(String identifier);
+    }
+
+    static final class StreamSource {
+
+        final Uri uri;
+        final String mimeType;
+
+        StreamSource(Uri uri, String mimeType) {
+            this.uri = uri;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final SourceResolver sourceResolver;
+    @Nullable
+    private final PhotoLibraryThumbnailPack thumbnailPack;
+    private final PhotoLibraryPageHandoff pageHandoff;
+
+    PhotoLibraryStreamHandler(
+        ContentResolver resolver,
+        SourceResolver sourceResolver,
+        @Nullable PhotoLibraryThumbnailPack thumbnailPack,
+        PhotoLibraryPageHandoff pageHandoff
+    ) {
+        this.resolver = resolver;
+        this.sourceResolver = sourceResolver;
+        this.thumbnailPack = thumbnailPack;
+        this.pageHandoff = pageHandoff;
+    }
+
+    static String urlFor(String localUrl, String identifier) {
+        return localUrl + PATH_PREFIX + ASSET_SEGMENT + "/" + Uri.encode(identifier);
+    }
+
+    /** URL prefix of packed thumbnails; thumbnail names are URL safe and appended as they are. */
+    static String thumbnailUrlPrefix(String localUrl) {
+        return localUrl + PATH_PREFIX + THUMBNAIL_SEGMENT + "/";
+    }
+
+    static String pageUrlFor(String localUrl, String token) {
+        return localUrl + PATH_PREFIX + PAGE_SEGMENT + "/" + token;
+    }
+
+    boolean canHandle(WebResourceRequest request) {
+        String path = request.getUrl().getPath();
+        return path != null && path.startsWith(PATH_PREFIX) && "GET".equalsIgnoreCase(request.getMethod());
+    }
+
+    @Nullable
+    WebResourceResponse handle(WebResourceRequest request) {
+        List<String> segments = request.getUrl().getPathSegments();
+        if (segments.size() == 3 && THUMBNAIL_SEGMENT.equals(segments.get(1))) {
+            return serveThumbnail(segments.get(2));
+        }
+        if (segments.size() == 3 && PAGE_SEGMENT.equals(segments.get(1))) {
+            return servePage(segments.get(2));
+        }
+        if (segments.size() != 3 || !ASSET_SEGMENT.equals(segments.get(1))) {
+            return errorResponse(404, "Not Found");
+        }
+
+        StreamSource source = sourceResolver.resolve(segments.get(2));
+        if (source == null) {
+            return errorResponse(404, "Not Found");
+        }
+
+        try {
+            return serve(source, findHeader(request.getRequestHeaders(), "Range"));
+        } catch (IOException | SecurityException e) {
+            Logger.error("PhotoLibrary", "Failed to stream asset", e);
+            return errorResponse(500, "Internal Server Error");
+        }
+    }
+
+    private WebResourceResponse serveThumbnail(String name) {
+        if (thumbnailPack == null) {
+            return errorResponse(404, "Not Found");
+        }
+        PhotoLibraryThumbnailPack.Blob blob;
+        try {
+            blob = thumbnailPack.open(name);
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to read packed thumbnail", e);
+            return errorResponse(500, "Internal Server Error");
+        }
+        if (blob == null) {
+            return errorResponse(404, "Not Found");
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-cache");
+        headers.put("Content-Length", String.valueOf(blob.length));
+        return new WebResourceResponse("image/jpeg", null, 200, "OK", headers, new BoundedInputStream(blob.stream, blob.length));
+    }
+
+    private WebResourceResponse servePage(String token) {
+        byte[] page = pageHandoff.take(token);
+        if (page == null) {
+            return errorResponse(404, "Not Found");
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        headers.put("Content-Length", String.valueOf(page.length));
+        return new WebResourceResponse("application/json", "utf-8", 200, "OK", headers, new ByteArrayInputStream(page));
+    }
+
+    private WebResourceResponse serve(StreamSource source, @Nullable String rangeHeader) throws IOException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source.uri, "r");
+        if (descriptor == null) {
+            return errorResponse(404, "Not Found");
+        }
+
+        long length = descriptor.getStatSize();
+        if (length < 0) {
+            // Pipes and other non seekable descriptors can only be served from the beginning.
+            descriptor.close();
+            InputStream in = resolver.openInputStream(source.uri);
+            if (in == null) {
+                return errorResponse(404, "Not Found");
+            }
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Cache-Control", "no-cache");
+            return new WebResourceResponse(source.mimeType, null, 200, "OK", headers, in);
+        }
+
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("Cache-Control", "no-cache");
+
+        long[] range = rangeHeader != null ? parseRange(rangeHeader, length) : null;
+        if (rangeHeader != null && range == null) {
+            in.close();
+            headers.put("Content-Range", "bytes */" + length);
+            return new WebResourceResponse(source.mimeType, null, 416, "Range Not Satisfiable", headers, emptyStream());
+        }
+
+        if (range == null) {
+            headers.put("Content-Length", String.valueOf(length));
+            return new WebResourceResponse(source.mimeType, null, 200, "OK", headers, in);
+        }
+
+        long start = range[0];
+        long end = range[1];
+        try {
+            in.getChannel().position(start);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        headers.put("Content-Length", String.valueOf(end - start + 1));
+        headers.put("Content-Range", String.format(Locale.US, "bytes %d-%d/%d", start, end, length));
+        return new WebResourceResponse(source.mimeType, null, 206, "Partial Content", headers, new BoundedInputStream(in, end - start + 1));
+    }
+
+    /**
+     * Parses a single {@code bytes=} range into inclusive {@code [start, end]} offsets. Returns
+     * {@code null} when the header is malformed, asks for several ranges, or is not satisfiable.
+     */
+    @Nullable
+    static long[] parseRange(String header, long length) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') != -1 || length <= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0 || start >= length || end < start) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String findHeader(@Nullable Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static WebResourceResponse errorResponse(int status, String reason) {
+        return new WebResourceResponse("text/plain", "utf-8", status, reason, new HashMap<>(), emptyStream());
+    }
+
+    private static InputStream emptyStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int value = super.read();
+            if (value != -1) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(count, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Thumbnails packed into a few large segment files instead of one file each. Blobs are appended to
+ * the active segment and located through an append-only index log of {@code (segment, offset,
+ * length)} records, so a lookup is a map access rather than a file system call. Entries are evicted
+ * least recently used first once the live bytes exceed the budget. Evicted and replaced blobs stay
+ * in their segment as dead bytes until {@link #compact} copies the live blobs of mostly dead
+ * segments forward and deletes them.
+ */
+final class PhotoLibraryThumbnailPack {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final String INDEX_NAME = "index";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    static final long SEGMENT_MAX_BYTES = 16L * 1024L * 1024L;
+    /** Share of dead bytes from which a sealed segment is compacted. */
+    private static final double COMPACT_DEAD_RATIO = 0.5;
+
+    /** An open blob: a stream positioned at its first byte, which the caller bounds to {@code length}. */
+    static final class Blob {
+
+        final FileInputStream stream;
+        final long length;
+
+        Blob(FileInputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+    }
+
+    private static final class Entry {
+
+        int segment;
+        long offset;
+        final int length;
+        /** Set once the entry left the map, so a compaction does not move it back in. */
+        boolean released;
+
+        Entry(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** A live blob copied out of a segment by {@link #compact}, and where its copy went. */
+    private static final class Move {
+
+        final Entry entry;
+        final int segment;
+        final long offset;
+        @Nullable
+        Segment target;
+        long targetOffset;
+
+        Move(Entry entry) {
+            this.entry = entry;
+            this.segment = entry.segment;
+            this.offset = entry.offset;
+        }
+    }
+
+    private static final class Segment {
+
+        final int number;
+        long length;
+        long liveBytes;
+
+        Segment(int number, long length) {
+            this.number = number;
+            this.length = length;
+        }
+
+        long deadBytes() {
+            return length - liveBytes;
+        }
+    }
+
+    private final File directory;
+    private final File indexFile;
+    /** Runs after entries were evicted, while the pack is locked. */
+    private final Runnable onEvicted;
+    /** Access ordered, so iteration starts with the least recently used entry. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private long maxBytes;
+    private long liveBytes = 0;
+    private int records = 0;
+    private boolean truncated = false;
+    private boolean loaded = false;
+    private boolean compacting = false;
+    @Nullable
+    private Segment active;
+    @Nullable
+    private FileOutputStream segmentOut;
+    @Nullable
+    private DataOutputStream indexOut;
+    private long evictionCount = 0;
+    private long compactions = 0;
+    private long reclaimedBytes = 0;
+
+    PhotoLibraryThumbnailPack(File directory, long maxBytes, Runnable onEvicted) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_NAME);
+        this.maxBytes = maxBytes;
+        this.onEvicted = onEvicted;
+    }
+
+    static boolean isSegmentName(String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    /** A value of {@code 0} or less disables eviction. */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        ensureLoaded();
+        evict(null);
+    }
+
+    /** Length of the blob stored under {@code key}, or {@code -1}. Counts as a use. */
+    synchronized long lookup(String key) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        return entry != null ? entry.length : -1;
+    }
+
+    /**
+     * Opens the blob stored under {@code key}. The stream is opened while the pack is locked, so a
+     * compaction that deletes the segment afterwards does not affect it. A segment deleted behind
+     * the pack's back, for example when the system clears the app's cache, is forgotten with its
+     * entries and reported as evicted.
+     */
+    @Nullable
+    synchronized Blob open(String key) throws IOException {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        File file = segmentFile(entry.segment);
+        if (!file.exists()) {
+            forgetSegment(entry.segment);
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(entry.offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new Blob(in, entry.length);
+    }
+
+    /**
+     * Appends {@code data[0, length)} under {@code key}, replacing a previous blob, and evicts older
+     * entries if the budget is exceeded. Returns {@code true} when a segment is due for {@link #compact}.
+     */
+    synchronized boolean put(String key, byte[] data, int length) throws IOException {
+        ensureLoaded();
+        Segment segment = activeSegment(length);
+        FileOutputStream out = segmentOut;
+        if (out == null) {
+            out = new FileOutputStream(segmentFile(segment.number), true);
+            segmentOut = out;
+        }
+        long offset = segment.length;
+        try {
+            out.write(data, 0, length);
+        } finally {
+            // Counted even when the write failed part way, the bytes are dead either way.
+            segment.length = out.getChannel().size();
+        }
+
+        Entry entry = new Entry(segment.number, offset, length);
+        release(entries.put(key, entry));
+        segment.liveBytes += length;
+        liveBytes += length;
+        appendRecord(key, entry);
+        evict(key);
+        return compactionDue();
+    }
+
+    /**
+     * Copies the live blobs of sealed segments that are mostly dead to fresh segments and deletes
+     * them. The copying runs without the pack locked, so lookups and reads go on meanwhile; the
+     * moved entries are then switched over, skipping any that were replaced or evicted in between.
+     * The index is rewritten before the old segments go away, so a crash at any point leaves every
+     * indexed blob readable. Call it off the main thread.
+     */
+    void compact() {
+        List<Segment> sources = new ArrayList<>();
+        List<Move> moves = new ArrayList<>();
+        synchronized (this) {
+            ensureLoaded();
+            if (compacting) {
+                return;
+            }
+            Set<Integer> numbers = new HashSet<>();
+            for (Segment segment : segments.values()) {
+                if (isCompactable(segment)) {
+                    sources.add(segment);
+                    numbers.add(segment.number);
+                }
+            }
+            if (sources.isEmpty()) {
+                return;
+            }
+            // Iterating the values does not count as a use, so the LRU order is kept.
+            for (Entry entry : entries.values()) {
+                if (numbers.contains(entry.segment)) {
+                    moves.add(new Move(entry));
+                }
+            }
+            compacting = true;
+        }
+
+        List<Segment> targets = new ArrayList<>();
+        try {
+            copyBlobs(moves, targets);
+        } catch (IOException e) {
+            // Copied entries are still switched over; the rest stay where they are.
+            Logger.error("PhotoLibrary", "Failed to compact thumbnail pack", e);
+        }
+
+        synchronized (this) {
+            compacting = false;
+            finishCompaction(sources, targets, moves);
+        }
+    }
+
+    synchronized JSObject toJSObject() {
+        ensureLoaded();
+        long totalBytes = 0;
+        for (Segment segment : segments.values()) {
+            totalBytes += segment.length;
+        }
+        JSObject result = new JSObject();
+        result.put("entries", entries.size());
+        result.put("segments", segments.size());
+        result.put("liveBytes", liveBytes);
+        result.put("deadBytes", totalBytes - liveBytes);
+        result.put("maxBytes", Math.max(0, maxBytes));
+        result.put("evictions", evictionCount);
+        result.put("compactions", compactions);
+        result.put("reclaimedBytes", reclaimedBytes);
+        return result;
+    }
+
+    /** Copies every moved blob to segments reserved for the compaction. Runs without the pack locked. */
+    private void copyBlobs(List<Move> moves, List<Segment> targets) throws IOException {
+        moves.sort((a, b) -> a.segment != b.segment ? Integer.compare(a.segment, b.segment) : Long.compare(a.offset, b.offset));
+        byte[] buffer = new byte[64 * 1024];
+        RandomAccessFile in = null;
+        int source = 0;
+        FileOutputStream out = null;
+        Segment target = null;
+        long written = 0;
+        try {
+            for (Move move : moves) {
+                int length = move.entry.length;
+                if (target == null || (written > 0 && written + length > SEGMENT_MAX_BYTES)) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    target = reserveSegment();
+                    targets.add(target);
+                    out = new FileOutputStream(segmentFile(target.number), true);
+                    written = 0;
+                }
+                if (in == null || move.segment != source) {
+                    // Sorted by segment, so each source is opened once.
+                    if (in != null) {
+                        in.close();
+                    }
+                    in = new RandomAccessFile(segmentFile(move.segment), "r");
+                    source = move.segment;
+                }
+                in.seek(move.offset);
+                int remaining = length;
+                while (remaining > 0) {
+                    int read = Math.min(buffer.length, remaining);
+                    in.readFully(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                move.target = target;
+                move.targetOffset = written;
+                written += length;
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /** Adds an empty sealed segment that only the running compaction writes to. */
+    private synchronized Segment reserveSegment() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = new Segment(number, 0);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private void finishCompaction(List<Segment> sources, List<Segment> targets, List<Move> moves) {
+        for (Segment target : targets) {
+            target.length = segmentFile(target.number).length();
+        }
+        for (Move move : moves) {
+            Entry entry = move.entry;
+            if (move.target == null || entry.released) {
+                // Not copied, or replaced or evicted meanwhile, which leaves the copy dead.
+                continue;
+            }
+            // Updated in place: re-inserting would count as a use and reorder the LRU.
+            Segment source = segments.get(entry.segment);
+            if (source != null) {
+                source.liveBytes -= entry.length;
+            }
+            move.target.liveBytes += entry.length;
+            entry.segment = move.target.number;
+            entry.offset = move.targetOffset;
+        }
+        if (!rewriteIndex()) {
+            return;
+        }
+        long reclaimed = 0;
+        for (Segment source : sources) {
+            if (source.liveBytes > 0) {
+                // A failed copy left blobs behind.
+                continue;
+            }
+            reclaimed += source.length;
+            segments.remove(source.number);
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(source.number).delete();
+        }
+        for (Segment target : targets) {
+            reclaimed -= target.length;
+            if (target.liveBytes == 0) {
+                segments.remove(target.number);
+                //noinspection ResultOfMethodCallIgnored
+                segmentFile(target.number).delete();
+            }
+        }
+        compactions++;
+        reclaimedBytes += Math.max(0, reclaimed);
+    }
+
+    /** Returns the segment to append {@code length} bytes to, sealing the current one when full. */
+    private Segment activeSegment(int length) throws IOException {
+        Segment current = active;
+        if (current != null && (current.length == 0 || current.length + length <= SEGMENT_MAX_BYTES)) {
+            return current;
+        }
+        closeSegment();
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        Segment segment = new Segment(number, 0);
+        segments.put(number, segment);
+        active = segment;
+        return segment;
+    }
+
+    private void release(@Nullable Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        entry.released = true;
+        liveBytes -= entry.length;
+        Segment segment = segments.get(entry.segment);
+        if (segment != null) {
+            segment.liveBytes -= entry.length;
+        }
+    }
+
+    /** Drops the entries of a segment whose file is gone and writes the index again. */
+    private void forgetSegment(int number) {
+        Logger.debug("PhotoLibrary", "Thumbnail pack segment " + number + " is gone, forgetting its entries");
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.segment == number) {
+                iterator.remove();
+                release(entry);
+            }
+        }
+        Segment segment = segments.remove(number);
+        if (segment != null) {
+            // Nothing is left to reclaim, should a running compaction have picked it.
+            segment.length = 0;
+            if (segment == active) {
+                closeSegment();
+            }
+        }
+        if (directory.exists() || directory.mkdirs()) {
+            rewriteIndex();
+        }
+        onEvicted.run();
+    }
+
+    private void evict(@Nullable String keep) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        long evicted = evictionCount;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (liveBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            release(eldest.getValue());
+            appendRecord(eldest.getKey(), null);
+            evictionCount++;
+        }
+        if (evictionCount != evicted) {
+            onEvicted.run();
+        }
+    }
+
+    private boolean compactionDue() {
+        if (compacting) {
+            return false;
+        }
+        for (Segment segment : segments.values()) {
+            if (isCompactable(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Sealed and mostly dead. Segments reserved by a running compaction are still empty and never qualify. */
+    private boolean isCompactable(Segment segment) {
+        return segment != active && segment.length > 0 && segment.deadBytes() >= segment.length * COMPACT_DEAD_RATIO;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!isSegmentName(name)) {
+                    continue;
+                }
+                try {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(number, new Segment(number, file.length()));
+                } catch (NumberFormatException ignored) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+        loadIndex();
+
+        for (Iterator<Segment> iterator = segments.values().iterator(); iterator.hasNext(); ) {
+            Segment segment = iterator.next();
+            if (segment.liveBytes == 0) {
+                // Left behind by an interrupted compaction or fully evicted.
+                iterator.remove();
+                //noinspection ResultOfMethodCallIgnored
+                segmentFile(segment.number).delete();
+            }
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            if (last.length < SEGMENT_MAX_BYTES) {
+                active = last;
+            }
+        }
+        if (truncated || (records > 32 && records > entries.size() * 2)) {
+            rewriteIndex();
+        }
+    }
+
+    private void loadIndex() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                //noinspection ResultOfMethodCallIgnored
+                indexFile.delete();
+                return;
+            }
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException end) {
+                    break;
+                }
+                String key = in.readUTF();
+                records++;
+                release(entries.remove(key));
+                if (kind == RECORD_REMOVE) {
+                    continue;
+                }
+                Entry entry = new Entry(in.readInt(), in.readLong(), in.readInt());
+                Segment segment = segments.get(entry.segment);
+                if (segment == null || entry.offset + entry.length > segment.length) {
+                    // The blob never reached the disk.
+                    continue;
+                }
+                entries.put(key, entry);
+                segment.liveBytes += entry.length;
+                liveBytes += entry.length;
+            }
+        } catch (IOException e) {
+            // A record cut short by process death only loses that thumbnail.
+            truncated = true;
+            Logger.debug("PhotoLibrary", "Thumbnail pack index truncated: " + e.getMessage());
+        }
+    }
+
+    private void appendRecord(String key, @Nullable Entry entry) {
+        try {
+            DataOutputStream out = indexOut;
+            if (out == null) {
+                boolean fresh = !indexFile.exists() || indexFile.length() == 0;
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+                if (fresh) {
+                    out.writeInt(FORMAT_VERSION);
+                }
+                indexOut = out;
+            }
+            writeRecord(out, key, entry);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            // Without its record the blob is dead after a restart and is simply rendered again.
+            Logger.error("PhotoLibrary", "Failed to update thumbnail pack index", e);
+            closeIndex();
+        }
+    }
+
+    /** Writes the live entries to a fresh log, least recently used first so the order survives a restart. */
+    private boolean rewriteIndex() {
+        closeIndex();
+        File temp = new File(directory, INDEX_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to rewrite thumbnail pack index", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(indexFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+        records = entries.size();
+        truncated = false;
+        return true;
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, @Nullable Entry entry) throws IOException {
+        if (entry == null) {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(key);
+            return;
+        }
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(key);
+        out.writeInt(entry.segment);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private void closeSegment() {
+        active = null;
+        if (segmentOut != null) {
+            try {
+                segmentOut.close();
+            } catch (IOException ignored) {}
+            segmentOut = null;
+        }
+    }
+
+    private void closeIndex() {
+        if (indexOut != null) {
+            try {
+                indexOut.close();
+            } catch (IOException ignored) {}
+            indexOut = null;
+        }
+    }
+}
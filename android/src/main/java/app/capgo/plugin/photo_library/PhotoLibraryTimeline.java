@@ -0,0 +1,138 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Locale;
+
+/**
+ * Asset counts per day, month or year in library order, for date scrubbers. Buckets are built in one
+ * pass over the sort column of {@code getLibrary} pages ({@code DATE_ADDED}, newest first), so the
+ * {@code offset} of a bucket is exactly the {@code getLibrary} offset of its first asset.
+ */
+final class PhotoLibraryTimeline {
+
+    enum Granularity {
+        DAY("day"),
+        MONTH("month"),
+        YEAR("year");
+
+        final String value;
+
+        Granularity(String value) {
+            this.value = value;
+        }
+
+        static Granularity fromValue(String value) {
+            for (Granularity granularity : values()) {
+                if (granularity.value.equals(value)) {
+                    return granularity;
+                }
+            }
+            throw new IllegalArgumentException("granularity must be one of 'day', 'month' or 'year'");
+        }
+    }
+
+    /** Built buckets with the MediaStore generation and time zone they are valid for. */
+    static final class Buckets {
+
+        final String generation;
+        final String zone;
+        final JSArray buckets;
+        final int totalCount;
+
+        Buckets(String generation, String zone, JSArray buckets, int totalCount) {
+            this.generation = generation;
+            this.zone = zone;
+            this.buckets = buckets;
+            this.totalCount = totalCount;
+        }
+
+        JSObject toJSObject() {
+            JSObject result = new JSObject();
+            result.put("buckets", buckets);
+            result.put("totalCount", totalCount);
+            return result;
+        }
+    }
+
+    /**
+     * Accumulates buckets from timestamps visited newest first. A bucket's bounds are computed once
+     * when it starts, so most rows cost a range check. Rows out of order, such as items without a
+     * date, start a new bucket instead of being merged into an earlier one, so offsets stay exact.
+     */
+    static final class Builder {
+
+        private final Granularity granularity;
+        private final ZoneId zone;
+        private final JSArray buckets = new JSArray();
+        private int offset = 0;
+        private int bucketOffset = 0;
+        private long bucketStart = Long.MAX_VALUE;
+        private long bucketEnd = Long.MIN_VALUE;
+        private String bucketDate;
+
+        Builder(Granularity granularity, ZoneId zone) {
+            this.granularity = granularity;
+            this.zone = zone;
+        }
+
+        void add(long epochSeconds) {
+            if (epochSeconds < bucketStart || epochSeconds >= bucketEnd) {
+                flush();
+                startBucket(epochSeconds);
+            }
+            offset++;
+        }
+
+        JSArray build() {
+            flush();
+            return buckets;
+        }
+
+        int count() {
+            return offset;
+        }
+
+        private void startBucket(long epochSeconds) {
+            LocalDate date = Instant.ofEpochSecond(epochSeconds).atZone(zone).toLocalDate();
+            LocalDate next;
+            switch (granularity) {
+                case YEAR:
+                    date = date.withDayOfYear(1);
+                    next = date.plusYears(1);
+                    bucketDate = String.format(Locale.US, "%04d", date.getYear());
+                    break;
+                case MONTH:
+                    date = date.withDayOfMonth(1);
+                    next = date.plusMonths(1);
+                    bucketDate = String.format(Locale.US, "%04d-%02d", date.getYear(), date.getMonthValue());
+                    break;
+                default:
+                    next = date.plusDays(1);
+                    bucketDate = date.toString();
+                    break;
+            }
+            bucketStart = date.atStartOfDay(zone).toEpochSecond();
+            bucketEnd = next.atStartOfDay(zone).toEpochSecond();
+            bucketOffset = offset;
+        }
+
+        private void flush() {
+            if (offset == bucketOffset) {
+                return;
+            }
+            JSObject bucket = new JSObject();
+            bucket.put("date", bucketDate);
+            bucket.put("start", bucketStart * 1000L);
+            bucket.put("offset", bucketOffset);
+            bucket.put("count", offset - bucketOffset);
+            buckets.put(bucket);
+            bucketOffset = offset;
+        }
+    }
+
+    private PhotoLibraryTimeline() {}
+}
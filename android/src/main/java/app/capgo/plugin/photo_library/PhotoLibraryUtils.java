@@ -0,0 +1,50 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Small pure helpers shared by the service. They have no Android dependencies so they can be benchmarked on a plain JVM. */
+final class PhotoLibraryUtils {
+
+    private PhotoLibraryUtils() {}
+
+    /** Stable file name safe key for {@code input}. */
+    static String hashed(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return PhotoLibraryChecksums.toHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(input.hashCode());
+        }
+    }
+
+    static String guessExtension(@Nullable String mimeType) {
+        if (mimeType == null) {
+            return ".dat";
+        }
+        if (mimeType.equals("image/jpeg")) {
+            return ".jpg";
+        } else if (mimeType.equals("image/png")) {
+            return ".png";
+        } else if (mimeType.equals("image/gif")) {
+            return ".gif";
+        } else if (mimeType.equals("video/mp4")) {
+            return ".mp4";
+        } else if (mimeType.equals("video/quicktime")) {
+            return ".mov";
+        }
+        String subtype = mimeType.substring(mimeType.indexOf('/') + 1);
+        return "." + subtype;
+    }
+
+    /**
+     * Size of a {@code srcWidth} x {@code srcHeight} image scaled to fit inside the bounds while
+     * keeping its aspect ratio. Returns {@code { width, height }}.
+     */
+    static int[] fitSize(int srcWidth, int srcHeight, int maxWidth, int maxHeight) {
+        float scale = Math.min((float) maxWidth / srcWidth, (float) maxHeight / srcHeight);
+        return new int[] { Math.round(srcWidth * scale), Math.round(srcHeight * scale) };
+    }
+}
@@ -0,0 +1,31 @@
+package app.capgo.plugin.photo_library;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+/**
+ * Bridge web view client that routes the plugin's streaming paths to
+ * {@link PhotoLibraryStreamHandler} and leaves every other request to Capacitor.
+ */
+final class PhotoLibraryWebViewClient extends BridgeWebViewClient {
+
+    private final String localHost;
+    private final PhotoLibraryStreamHandler streamHandler;
+
+    PhotoLibraryWebViewClient(Bridge bridge, PhotoLibraryStreamHandler streamHandler) {
+        super(bridge);
+        this.localHost = bridge.getHost();
+        this.streamHandler = streamHandler;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (localHost != null && localHost.equals(request.getUrl().getHost()) && streamHandler.canHandle(request)) {
+            return streamHandler.handle(request);
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+}
@@ -10,6 +10,8 @@ final class PickMediaOptions {
     final int thumbnailWidth;
     final int thumbnailHeight;
     final double thumbnailQuality;
+    final boolean checksum;
+    final boolean deduplicate;
 
     private PickMediaOptions(
         int selectionLimit,
@@ -17,7 +19,9 @@ final class PickMediaOptions {
         boolean includeVideos,
         int thumbnailWidth,
         int thumbnailHeight,
-        double thumbnailQuality
+        double thumbnailQuality,
+        boolean checksum,
+        boolean deduplicate
     ) {
         this.selectionLimit = selectionLimit;
         this.includeImages = includeImages;
@@ -25,6 +29,8 @@ final class PickMediaOptions {
         this.thumbnailWidth = thumbnailWidth;
         this.thumbnailHeight = thumbnailHeight;
         this.thumbnailQuality = thumbnailQuality;
+        this.checksum = checksum;
+        this.deduplicate = deduplicate;
     }
 
     static PickMediaOptions fromCall(PluginCall call) {
@@ -46,6 +52,18 @@ final class PickMediaOptions {
         double thumbnailQuality = qualityOption != null ? qualityOption : 0.7;
         thumbnailQuality = Math.max(0.0, Math.min(1.0, thumbnailQuality));
 
-        return new PickMediaOptions(limit, includeImages, includeVideos, thumbnailWidth, thumbnailHeight, thumbnailQuality);
+        boolean checksum = call.getBoolean("checksum", false);
+        boolean deduplicate = call.getBoolean("deduplicate", false);
+
+        return new PickMediaOptions(
+            limit,
+            includeImages,
+            includeVideos,
+            thumbnailWidth,
+            thumbnailHeight,
+            thumbnailQuality,
+            checksum,
+            deduplicate
+        );
     }
 }
@@ -0,0 +1,207 @@
+package app.capgo.plugin.photo_library;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps {@code picked:} identifiers to their cached files. Entries are appended to a small binary
+ * log in the app's files directory, so identifiers keep resolving after the process is killed or
+ * the cache is cleared. The log is read once, on first access, into a hash map. Entries are kept
+ * until they are released.
+ */
+final class PickedItemRegistry {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    static final class PickedItem {
+
+        final File file;
+        final String mimeType;
+        final String type;
+        @Nullable
+        final Uri sourceUri;
+
+        PickedItem(File file, String mimeType, String type, @Nullable Uri sourceUri) {
+            this.file = file;
+            this.mimeType = mimeType;
+            this.type = type;
+            this.sourceUri = sourceUri;
+        }
+    }
+
+    private final File indexFile;
+    /** Where earlier versions kept the log, inside the cache. Moved to {@link #indexFile} on load. */
+    private final File legacyIndexFile;
+    private final File fileDirectory;
+    private final Map<String, PickedItem> items = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private int records = 0;
+    private boolean truncated = false;
+
+    PickedItemRegistry(File indexFile, File legacyIndexFile, File fileDirectory) {
+        this.indexFile = indexFile;
+        this.legacyIndexFile = legacyIndexFile;
+        this.fileDirectory = fileDirectory;
+    }
+
+    @Nullable
+    PickedItem get(String identifier) {
+        ensureLoaded();
+        return items.get(identifier);
+    }
+
+    Collection<PickedItem> values() {
+        ensureLoaded();
+        return items.values();
+    }
+
+    synchronized void put(String identifier, PickedItem item) {
+        ensureLoaded();
+        items.put(identifier, item);
+        append(RECORD_PUT, identifier, item);
+    }
+
+    /** Removes {@code identifier} and returns its item, or {@code null} when it was not registered. */
+    @Nullable
+    synchronized PickedItem remove(String identifier) {
+        ensureLoaded();
+        PickedItem removed = items.remove(identifier);
+        if (removed != null) {
+            append(RECORD_REMOVE, identifier, null);
+        }
+        return removed;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            if (!indexFile.exists() && legacyIndexFile.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                indexFile.getParentFile().mkdirs();
+                //noinspection ResultOfMethodCallIgnored
+                legacyIndexFile.renameTo(indexFile);
+            }
+            load();
+            // Rewrite the log when a torn record would hide later appends, or once removals make up
+            // most of it.
+            if (truncated || (records > 32 && records > items.size() * 2)) {
+                compact();
+            }
+            loaded = true;
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                //noinspection ResultOfMethodCallIgnored
+                indexFile.delete();
+                return;
+            }
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException end) {
+                    break;
+                }
+                String identifier = in.readUTF();
+                records++;
+                if (kind == RECORD_REMOVE) {
+                    items.remove(identifier);
+                    continue;
+                }
+                String fileName = in.readUTF();
+                String mimeType = in.readUTF();
+                String type = in.readUTF();
+                String source = in.readUTF();
+                Uri sourceUri = source.isEmpty() ? null : Uri.parse(source);
+                items.put(identifier, new PickedItem(new File(fileDirectory, fileName), mimeType, type, sourceUri));
+            }
+        } catch (IOException e) {
+            // A record cut short by process death only loses that record.
+            truncated = true;
+            Logger.debug("PhotoLibrary", "Picked items index truncated: " + e.getMessage());
+        }
+    }
+
+    private void compact() {
+        //noinspection ResultOfMethodCallIgnored
+        indexFile.getParentFile().mkdirs();
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, PickedItem> entry : new ArrayList<>(items.entrySet())) {
+                writeRecord(out, RECORD_PUT, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to compact picked items index", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(indexFile)) {
+            records = items.size();
+            truncated = false;
+        }
+    }
+
+    private void append(byte kind, String identifier, @Nullable PickedItem item) {
+        if (truncated) {
+            // The log could not be rewritten on load, so an append would sit behind the torn record.
+            // The map already holds this change, so writing it whole persists it.
+            compact();
+            return;
+        }
+        boolean fresh = !indexFile.exists() || indexFile.length() == 0;
+        if (fresh) {
+            //noinspection ResultOfMethodCallIgnored
+            indexFile.getParentFile().mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+            if (fresh) {
+                out.writeInt(FORMAT_VERSION);
+            }
+            writeRecord(out, kind, identifier, item);
+            records++;
+        } catch (IOException e) {
+            Logger.error("PhotoLibrary", "Failed to persist picked item", e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte kind, String identifier, @Nullable PickedItem item) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(identifier);
+        if (kind == RECORD_REMOVE || item == null) {
+            return;
+        }
+        out.writeUTF(item.file.getName());
+        out.writeUTF(item.mimeType);
+        out.writeUTF(item.type);
+        out.writeUTF(item.sourceUri != null ? item.sourceUri.toString() : "");
+    }
+}
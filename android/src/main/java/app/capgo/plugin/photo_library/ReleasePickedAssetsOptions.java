@@ -0,0 +1,39 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONException;
+
+final class ReleasePickedAssetsOptions {
+
+    /** Distinct {@code picked:} identifiers in request order. */
+    final List<String> ids;
+
+    private ReleasePickedAssetsOptions(List<String> ids) {
+        this.ids = ids;
+    }
+
+    static ReleasePickedAssetsOptions fromCall(PluginCall call) {
+        JSArray array = call.getArray("ids");
+        if (array == null) {
+            throw new IllegalArgumentException("Parameter 'ids' is required");
+        }
+        Set<String> ids = new LinkedHashSet<>(array.length() * 2);
+        try {
+            for (int i = 0; i < array.length(); i++) {
+                String id = array.getString(i);
+                if (id == null || id.isEmpty()) {
+                    throw new IllegalArgumentException("ids must be non-empty strings");
+                }
+                ids.add(id);
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("ids must be non-empty strings");
+        }
+        return new ReleasePickedAssetsOptions(new ArrayList<>(ids));
+    }
+}
@@ -0,0 +1,41 @@
+package app.capgo.plugin.photo_library;
+
+import android.provider.MediaStore;
+import java.util.ArrayList;
+import java.util.List;
+
+/** SQL selection and arguments for the MediaStore files table, built from library options. */
+final class Selection {
+
+    final String selection;
+    final String[] args;
+
+    Selection(String selection, String[] args) {
+        this.selection = selection;
+        this.args = args;
+    }
+
+    static Selection forOptions(GetLibraryOptions options) {
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+
+        if (options.includeImages && options.includeVideos) {
+            selection
+                .append("(")
+                .append(MediaStore.Files.FileColumns.MEDIA_TYPE)
+                .append("=? OR ")
+                .append(MediaStore.Files.FileColumns.MEDIA_TYPE)
+                .append("=? )");
+            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+        } else if (options.includeImages) {
+            selection.append(MediaStore.Files.FileColumns.MEDIA_TYPE).append("=?");
+            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+        } else {
+            selection.append(MediaStore.Files.FileColumns.MEDIA_TYPE).append("=?");
+            args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+        }
+
+        return new Selection(selection.toString(), args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,71 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+import org.json.JSONException;
+
+final class VideoFramesOptions {
+
+    static final int MAX_FRAMES = 100;
+
+    final String id;
+    final int count;
+    final double[] timestamps;
+    final int width;
+    final int height;
+    final double quality;
+
+    private VideoFramesOptions(String id, int count, double[] timestamps, int width, int height, double quality) {
+        this.id = id;
+        this.count = count;
+        this.timestamps = timestamps;
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+    }
+
+    static VideoFramesOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        double[] timestamps = null;
+        JSArray timestampValues = call.getArray("timestamps");
+        if (timestampValues != null && timestampValues.length() > 0) {
+            if (timestampValues.length() > MAX_FRAMES) {
+                throw new IllegalArgumentException("timestamps cannot contain more than " + MAX_FRAMES + " entries");
+            }
+            timestamps = new double[timestampValues.length()];
+            for (int i = 0; i < timestamps.length; i++) {
+                try {
+                    timestamps[i] = timestampValues.getDouble(i);
+                } catch (JSONException ex) {
+                    throw new IllegalArgumentException("timestamps must only contain numbers");
+                }
+                if (timestamps[i] < 0) {
+                    throw new IllegalArgumentException("timestamps must be greater than or equal to 0");
+                }
+            }
+        }
+
+        int count = call.getInt("count", 0);
+        if (timestamps == null) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Either 'count' or 'timestamps' is required");
+            }
+            if (count > MAX_FRAMES) {
+                throw new IllegalArgumentException("count cannot be greater than " + MAX_FRAMES);
+            }
+        }
+
+        int width = Math.max(1, call.getInt("width", PhotoLibraryDefaults.THUMBNAIL_WIDTH));
+        int height = Math.max(1, call.getInt("height", PhotoLibraryDefaults.THUMBNAIL_HEIGHT));
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.THUMBNAIL_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new VideoFramesOptions(id, count, timestamps, width, height, quality);
+    }
+}
@@ -0,0 +1,277 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Stand-in for the MediaStore provider, backed by an in-memory SQLite table shaped like the files
+ * table. It answers the queries {@link PhotoLibraryService} makes (files, images and video
+ * collections, single items, Bundle selections with sort, limit and offset) and serves one fixture
+ * JPEG for every item, as both its content and its system thumbnail. Register it with
+ * {@code Robolectric.setupContentProvider(FakeMediaStoreProvider.class, MediaStore.AUTHORITY)}.
+ */
+public class FakeMediaStoreProvider extends ContentProvider {
+
+    static final int ALBUM_COUNT = 24;
+    /** Every tenth item is a video. */
+    static final int VIDEO_EVERY = 10;
+
+    private static final String TABLE = "files";
+    private static final int FILES = 1;
+    private static final int FILE_ID = 2;
+    private static final int IMAGES = 3;
+    private static final int IMAGE_ID = 4;
+    private static final int VIDEOS = 5;
+    private static final int VIDEO_ID = 6;
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/file", FILES);
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/file/#", FILE_ID);
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/images/media", IMAGES);
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/images/media/#", IMAGE_ID);
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/video/media", VIDEOS);
+        MATCHER.addURI(MediaStore.AUTHORITY, "*/video/media/#", VIDEO_ID);
+    }
+
+    private SQLiteDatabase database;
+    private File fixture;
+
+    @Override
+    public boolean onCreate() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL(
+            "CREATE TABLE " +
+            TABLE +
+            " (" +
+            MediaStore.Files.FileColumns._ID +
+            " INTEGER PRIMARY KEY, " +
+            MediaStore.Files.FileColumns.DISPLAY_NAME +
+            " TEXT, " +
+            MediaStore.Files.FileColumns.MIME_TYPE +
+            " TEXT, " +
+            MediaStore.Files.FileColumns.MEDIA_TYPE +
+            " INTEGER, " +
+            MediaStore.Files.FileColumns.SIZE +
+            " INTEGER, " +
+            MediaStore.Files.FileColumns.DATE_ADDED +
+            " INTEGER, " +
+            MediaStore.Files.FileColumns.DATE_MODIFIED +
+            " INTEGER, " +
+            MediaStore.Images.Media.DATE_TAKEN +
+            " INTEGER, " +
+            MediaStore.Images.Media.WIDTH +
+            " INTEGER, " +
+            MediaStore.Images.Media.HEIGHT +
+            " INTEGER, " +
+            MediaStore.Video.Media.DURATION +
+            " INTEGER, " +
+            MediaStore.Images.Media.BUCKET_ID +
+            " TEXT, " +
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME +
+            " TEXT)"
+        );
+        // MediaStore indexes its sort columns as well; without these every page would sort the table.
+        database.execSQL("CREATE INDEX files_date_added ON " + TABLE + " (" + MediaStore.Files.FileColumns.DATE_ADDED + ")");
+        database.execSQL("CREATE INDEX files_media_type ON " + TABLE + " (" + MediaStore.Files.FileColumns.MEDIA_TYPE + ")");
+        return true;
+    }
+
+    /**
+     * Inserts {@code count} items, newest first by id, spread over {@link #ALBUM_COUNT} albums. The
+     * same {@code seed} always produces the same library.
+     */
+    void seed(int count, long seed) {
+        Random random = new Random(seed);
+        long now = 1_700_000_000L;
+        SQLiteStatement insert = database.compileStatement(
+            "INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+        );
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                boolean video = i % VIDEO_EVERY == 0;
+                long dateAdded = now - i * 90L - random.nextInt(60);
+                int album = random.nextInt(ALBUM_COUNT);
+                insert.clearBindings();
+                insert.bindLong(1, i + 1);
+                insert.bindString(2, (video ? "VID_" : "IMG_") + (i + 1) + (video ? ".mp4" : ".jpg"));
+                insert.bindString(3, video ? "video/mp4" : "image/jpeg");
+                insert.bindLong(
+                    4,
+                    video ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE
+                );
+                insert.bindLong(5, video ? 20_000_000L + random.nextInt(50_000_000) : 1_500_000L + random.nextInt(3_000_000));
+                insert.bindLong(6, dateAdded);
+                insert.bindLong(7, dateAdded + random.nextInt(3600));
+                insert.bindLong(8, dateAdded * 1000L);
+                insert.bindLong(9, i % 3 == 0 ? 3024 : 4032);
+                insert.bindLong(10, i % 3 == 0 ? 4032 : 3024);
+                insert.bindLong(11, video ? 5_000L + random.nextInt(120_000) : 0);
+                insert.bindString(12, String.valueOf(1000 + album));
+                insert.bindString(13, "Album " + album);
+                insert.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            insert.close();
+        }
+    }
+
+    /** Content URI of the item with {@code id}, as the service builds it. */
+    static Uri itemUri(long id, boolean video) {
+        Uri collection = video
+            ? MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL)
+            : MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL);
+        return ContentUris.withAppendedId(collection, id);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+        return query(uri, projection, queryArgs, null);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        int match = MATCHER.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            throw new IllegalArgumentException("Unsupported URI " + uri);
+        }
+        Bundle args = queryArgs != null ? queryArgs : Bundle.EMPTY;
+        StringBuilder where = new StringBuilder();
+        String selection = args.getString(ContentResolver.QUERY_ARG_SQL_SELECTION);
+        if (selection != null && !selection.isEmpty()) {
+            where.append('(').append(selection).append(')');
+        }
+        String scope = scope(match, uri);
+        if (scope != null) {
+            where.append(where.length() > 0 ? " AND " : "").append(scope);
+        }
+
+        String limit = null;
+        int count = args.getInt(ContentResolver.QUERY_ARG_LIMIT, -1);
+        int offset = args.getInt(ContentResolver.QUERY_ARG_OFFSET, 0);
+        if (count >= 0 || offset > 0) {
+            limit = count + (offset > 0 ? " OFFSET " + offset : "");
+        }
+        return database.query(
+            TABLE,
+            projection,
+            where.length() > 0 ? where.toString() : null,
+            args.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+            null,
+            null,
+            args.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER),
+            limit
+        );
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        int match = MATCHER.match(uri);
+        if (match != FILE_ID && match != IMAGE_ID && match != VIDEO_ID) {
+            return null;
+        }
+        try (Cursor cursor = query(uri, new String[] { MediaStore.Files.FileColumns.MIME_TYPE }, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = MATCHER.match(uri);
+        if (match != FILE_ID && match != IMAGE_ID && match != VIDEO_ID) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(fixture(), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /** Serves the fixture as the system thumbnail requested by {@link ContentResolver#loadThumbnail}. */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts) throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = openFile(uri, "r");
+        return new AssetFileDescriptor(descriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The fake media store is read only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The fake media store is read only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The fake media store is read only");
+    }
+
+    private static String scope(int match, Uri uri) {
+        switch (match) {
+            case IMAGES:
+                return MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
+            case VIDEOS:
+                return MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO;
+            case FILE_ID:
+            case IMAGE_ID:
+            case VIDEO_ID:
+                return MediaStore.Files.FileColumns._ID + "=" + ContentUris.parseId(uri);
+            default:
+                return null;
+        }
+    }
+
+    /** A 1024x768 JPEG with some detail, so decoding and scaling do representative work. */
+    private synchronized File fixture() throws FileNotFoundException {
+        if (fixture != null) {
+            return fixture;
+        }
+        File file = new File(getContext().getCacheDir(), "fake-media-store-fixture.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(1024, 768, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int y = 0; y < 768; y += 32) {
+            for (int x = 0; x < 1024; x += 32) {
+                paint.setColor(Color.rgb(x / 4, y / 3, (x + y) / 8));
+                canvas.drawRect(x, y, x + 32, y + 32, paint);
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to write fixture: " + e.getMessage());
+        } finally {
+            bitmap.recycle();
+        }
+        fixture = file;
+        return file;
+    }
+}
@@ -0,0 +1,43 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs {@link PhotoLibraryBenchmarks} on the host JVM. Skipped unless the build is started with
+ * {@code -PphotoLibraryBenchmark=true}, so regular test runs stay fast. The GC profiler adds
+ * {@code gc.alloc.rate.norm}, the bytes allocated per operation, next to each score. Results are
+ * also written to {@code build/reports/benchmarks/photo-library.json}.
+ */
+public class PhotoLibraryBenchmarkTest {
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        assumeTrue(Boolean.getBoolean("photoLibrary.benchmark"));
+
+        File report = new File("build/reports/benchmarks/photo-library.json");
+        //noinspection ResultOfMethodCallIgnored
+        report.getParentFile().mkdirs();
+
+        Options options = new OptionsBuilder()
+            .include(PhotoLibraryBenchmarks.class.getName() + "\\." + System.getProperty("photoLibrary.benchmark.filter", ".*"))
+            .addProfiler(GCProfiler.class)
+            .forks(Integer.getInteger("photoLibrary.benchmark.forks", 0))
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .resultFormat(ResultFormatType.JSON)
+            .result(report.getPath())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,213 @@
+package app.capgo.plugin.photo_library;
+
+import android.provider.MediaStore;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmarks for the per-asset work that does not need a device. Run them with
+ * {@code ./gradlew testDebugUnitTest --tests '*PhotoLibraryBenchmarkTest' -PphotoLibraryBenchmark=true}.
+ */
+public class PhotoLibraryBenchmarks {
+
+    private static final String[] MIME_TYPES = {
+        "image/jpeg",
+        "image/png",
+        "image/heic",
+        "image/webp",
+        "video/mp4",
+        "video/quicktime",
+        "video/3gpp",
+        null
+    };
+
+    private static final String[] IDENTIFIERS = { "image:1", "video:982734", "image:18446744", "picked:3f2a", "image:not-a-number" };
+
+    @State(Scope.Thread)
+    public static class Inputs {
+
+        int index = 0;
+        GetLibraryOptions imagesOnly;
+        GetLibraryOptions imagesAndVideos;
+
+        @Setup
+        public void setUp() {
+            imagesOnly = libraryOptions(true, false);
+            imagesAndVideos = libraryOptions(true, true);
+        }
+
+        int next() {
+            index = (index + 1) & 0xff;
+            return index;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String hashed(Inputs inputs) {
+        return PhotoLibraryUtils.hashed("image:" + inputs.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String guessExtension(Inputs inputs) {
+        return PhotoLibraryUtils.guessExtension(MIME_TYPES[inputs.next() % MIME_TYPES.length]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public ParsedIdentifier parseIdentifier(Inputs inputs) {
+        return ParsedIdentifier.parse(IDENTIFIERS[inputs.next() % IDENTIFIERS.length]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void buildSelection(Inputs inputs, Blackhole blackhole) {
+        blackhole.consume(Selection.forOptions(inputs.imagesOnly));
+        blackhole.consume(Selection.forOptions(inputs.imagesAndVideos));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int[] fitSize(Inputs inputs) {
+        int i = inputs.next();
+        return PhotoLibraryUtils.fitSize(4032 - i, 3024 + i, 512, 384);
+    }
+
+    /** The row part of a {@code getLibrary} page: per object the old way, streamed, and columnar. */
+    @State(Scope.Benchmark)
+    public static class AssetPage {
+
+        @Param({ "1000", "10000", "100000" })
+        public int rows;
+
+        AssetRow[] assets;
+        final GetLibraryOptions albumOptions = libraryOptions(true, true, true);
+        final DateTimeFormatter isoFormatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneOffset.UTC);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            assets = new AssetRow[rows];
+            long now = 1_700_000_000_000L;
+            for (int i = 0; i < rows; i++) {
+                boolean video = i % 10 == 0;
+                AssetRow row = new AssetRow();
+                row.id = 100_000L + i;
+                row.mediaType = video ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
+                row.mimeType = video ? "video/mp4" : "image/jpeg";
+                row.displayName = (video ? "VID_" : "IMG_") + (20240101 + i % 365) + "_" + i + (video ? ".mp4" : ".jpg");
+                row.size = 2_500_000L + i * 31L;
+                row.dateTaken = now - i * 60_000L;
+                row.dateModified = now - i * 30_000L;
+                row.width = 4032;
+                row.height = 3024;
+                row.duration = video ? 12_345L : 0;
+                row.bucketId = String.valueOf(-1739773001 + i % 12);
+                assets[i] = row;
+            }
+        }
+    }
+
+    /** Baseline: one {@code JSObject} per asset, then the bridge's {@code toString} pass. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String serializeAssetsAsObjects(AssetPage page) {
+        JSArray array = new JSArray();
+        for (AssetRow row : page.assets) {
+            String identifier = row.identifier();
+            JSObject asset = new JSObject();
+            asset.put("id", identifier);
+            asset.put("fileName", row.displayName != null ? row.displayName : (identifier + PhotoLibraryUtils.guessExtension(row.mimeType)));
+            asset.put("type", row.type());
+            asset.put("width", row.width);
+            asset.put("height", row.height);
+            asset.put("mimeType", row.mimeType != null ? row.mimeType : "application/octet-stream");
+            if (row.duration > 0) {
+                asset.put("duration", row.duration / 1000.0);
+            }
+            asset.put("creationDate", page.isoFormatter.format(Instant.ofEpochMilli(row.dateTaken)));
+            asset.put("modificationDate", page.isoFormatter.format(Instant.ofEpochMilli(row.dateModified)));
+            JSArray albums = new JSArray();
+            albums.put(row.bucketId);
+            asset.put("albumIds", albums);
+            asset.put("size", row.size);
+            array.put(asset);
+        }
+        return array.toString();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String serializeAssetsStreaming(AssetPage page) {
+        PhotoLibraryJsonWriter writer = PhotoLibraryJsonWriter.acquire();
+        writer.beginArray();
+        for (AssetRow row : page.assets) {
+            writer.beginObject();
+            row.writeTo(writer, row.identifier(), true);
+            writer.name("size").value(row.size);
+            writer.endObject();
+        }
+        writer.endArray();
+        return writer.toString();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String serializeAssetsColumnar(AssetPage page) {
+        PhotoLibraryColumnarPage columns = new PhotoLibraryColumnarPage(page.albumOptions, page.rows);
+        for (AssetRow row : page.assets) {
+            columns.add(row, row.identifier(), null);
+        }
+        PhotoLibraryJsonWriter writer = PhotoLibraryJsonWriter.acquire();
+        columns.writeTo(writer);
+        return writer.toString();
+    }
+
+    static GetLibraryOptions libraryOptions(boolean includeImages, boolean includeVideos) {
+        return libraryOptions(includeImages, includeVideos, false);
+    }
+
+    static GetLibraryOptions libraryOptions(boolean includeImages, boolean includeVideos, boolean includeAlbumData) {
+        return new GetLibraryOptions(
+            0,
+            null,
+            includeImages,
+            includeVideos,
+            includeAlbumData,
+            true,
+            false,
+            PhotoLibraryDefaults.THUMBNAIL_WIDTH,
+            PhotoLibraryDefaults.THUMBNAIL_HEIGHT,
+            PhotoLibraryDefaults.THUMBNAIL_QUALITY,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false
+        );
+    }
+}
@@ -0,0 +1,158 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.provider.MediaStore;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class PhotoLibraryColumnarPageTest {
+
+    @Test
+    public void writesOneEntryPerRowInEveryColumn() throws JSONException {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(true), 3);
+        page.add(row(1, false, "image/jpeg", "a.jpg", "bucket-1"), "image:1", null);
+        page.add(row(2, true, "video/mp4", null, null), "video:2", null);
+        page.add(row(3, false, "image/jpeg", "c.jpg", "bucket-1"), "image:3", null);
+        JSONObject columns = write(page);
+
+        assertEquals(3, columns.getInt("count"));
+        JSONObject dictionaries = columns.getJSONObject("dictionaries");
+        assertEquals("[\"image\",\"video\"]", dictionaries.getJSONArray("type").toString());
+        assertEquals("[\"image/jpeg\",\"video/mp4\"]", dictionaries.getJSONArray("mimeType").toString());
+        assertEquals("[\"bucket-1\"]", dictionaries.getJSONArray("albumId").toString());
+        assertEquals("[1,2,3]", columns.getJSONArray("id").toString());
+        assertEquals("[0,1,0]", columns.getJSONArray("type").toString());
+        assertEquals("[0,1,0]", columns.getJSONArray("mimeType").toString());
+        assertEquals("[0,-1,0]", columns.getJSONArray("albumId").toString());
+        // Rows without a display name fall back to the identifier and an extension for the MIME type.
+        assertEquals("[\"a.jpg\",\"video:2.mp4\",\"c.jpg\"]", columns.getJSONArray("fileName").toString());
+        assertEquals(1.5, columns.getJSONArray("duration").getDouble(1), 0);
+        assertEquals(1_700_000_000_000L, columns.getJSONArray("creationDate").getLong(0));
+        for (String name : new String[] { "width", "height", "size", "modificationDate" }) {
+            assertEquals(name, 3, columns.getJSONArray(name).length());
+        }
+        assertFalse(columns.has("exif"));
+        assertFalse(columns.has("thumbnail"));
+    }
+
+    @Test
+    public void leavesOutAlbumsUnlessRequested() throws JSONException {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(false), 1);
+        page.add(row(1, false, "image/jpeg", "a.jpg", "bucket-1"), "image:1", null);
+        JSONObject columns = write(page);
+
+        assertFalse(columns.has("albumId"));
+        assertEquals(0, columns.getJSONObject("dictionaries").getJSONArray("albumId").length());
+    }
+
+    @Test
+    public void writesFileColumnsWithSharedPrefixes() throws JSONException {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(false), 2);
+        page.enableThumbnails("/data/cache/thumbnails/", "https://localhost/_capacitor_file_/data/cache/thumbnails/", false);
+        page.add(row(1, false, "image/jpeg", "a.jpg", null), "image:1", null);
+        page.thumbnailColumn().add("a_256.jpg", null, "image/jpeg", 1234, true, null);
+        page.add(row(2, false, "image/png", "b.png", null), "image:2", null);
+        page.thumbnailColumn().addMissing();
+        JSONObject thumbnails = write(page).getJSONObject("thumbnail");
+
+        assertFalse(page.packedThumbnails());
+        assertEquals("/data/cache/thumbnails/", thumbnails.getString("pathPrefix"));
+        assertEquals("https://localhost/_capacitor_file_/data/cache/thumbnails/", thumbnails.getString("webPathPrefix"));
+        assertEquals("a_256.jpg", thumbnails.getJSONArray("name").getString(0));
+        assertTrue(thumbnails.getJSONArray("name").isNull(1));
+        assertEquals("[1234,-1]", thumbnails.getJSONArray("size").toString());
+        // File MIME types share the page dictionary, where image/jpeg is entry 0.
+        assertEquals("[0,-1]", thumbnails.getJSONArray("mimeType").toString());
+        assertEquals("[0]", thumbnails.getJSONArray("previews").toString());
+        assertFalse(thumbnails.has("webName"));
+        assertFalse(thumbnails.has("checksum"));
+    }
+
+    @Test
+    public void leavesOutPathPrefixForPackedThumbnails() throws JSONException {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(false), 1);
+        page.enableThumbnails(null, "https://localhost/_capgo_photo_library_/thumbnail/", true);
+        page.add(row(1, false, "image/jpeg", "a.jpg", null), "image:1", null);
+        page.thumbnailColumn().add("a_256.jpg", null, "image/jpeg", 1234, false, null);
+        JSONObject thumbnails = write(page).getJSONObject("thumbnail");
+
+        assertTrue(page.packedThumbnails());
+        assertFalse(thumbnails.has("pathPrefix"));
+        assertEquals("https://localhost/_capgo_photo_library_/thumbnail/", thumbnails.getString("webPathPrefix"));
+    }
+
+    @Test
+    public void writesSeparateWebNamesAndChecksums() throws JSONException {
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(false), 1);
+        page.enableFiles("", "https://localhost/_capgo_photo_library_/asset/", true, true);
+        page.add(row(1, false, "image/jpeg", "a.jpg", null), "image:1", null);
+        page.fileColumn().add("/storage/DCIM/a.jpg", "image%3A1", "image/jpeg", 10, false, "ab01");
+        JSONObject files = write(page).getJSONObject("file");
+
+        assertEquals("", files.getString("pathPrefix"));
+        assertEquals("[\"image%3A1\"]", files.getJSONArray("webName").toString());
+        assertEquals("[\"ab01\"]", files.getJSONArray("checksum").toString());
+    }
+
+    @Test
+    public void growsPastThePresizedRows() throws JSONException {
+        int rows = PhotoLibraryColumnarPage.MAX_PRESIZED_ROWS * 2 + 1;
+        PhotoLibraryColumnarPage page = new PhotoLibraryColumnarPage(options(false), rows);
+        for (int i = 0; i < rows; i++) {
+            page.add(row(i, false, "image/jpeg", null, null), "image:" + i, null);
+        }
+        JSONObject columns = write(page);
+
+        assertEquals(rows, columns.getInt("count"));
+        assertEquals(rows, columns.getJSONArray("id").length());
+        assertEquals(rows - 1, columns.getJSONArray("id").getLong(rows - 1));
+    }
+
+    private static JSONObject write(PhotoLibraryColumnarPage page) throws JSONException {
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(1024);
+        page.writeTo(writer);
+        return new JSONObject(writer.toString());
+    }
+
+    private static AssetRow row(long id, boolean video, String mimeType, String displayName, String bucketId) {
+        AssetRow row = new AssetRow();
+        row.id = id;
+        row.mediaType = video ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
+        row.mimeType = mimeType;
+        row.displayName = displayName;
+        row.size = 1000 + id;
+        row.dateTaken = 1_700_000_000_000L + id - 1;
+        row.dateModified = 1_700_000_000_000L;
+        row.width = 4000;
+        row.height = 3000;
+        row.duration = video ? 1500 : 0;
+        row.bucketId = bucketId;
+        return row;
+    }
+
+    private static GetLibraryOptions options(boolean includeAlbumData) {
+        return new GetLibraryOptions(
+            0,
+            null,
+            true,
+            true,
+            includeAlbumData,
+            true,
+            false,
+            0,
+            0,
+            PhotoLibraryDefaults.THUMBNAIL_QUALITY,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false,
+            true
+        );
+    }
+}
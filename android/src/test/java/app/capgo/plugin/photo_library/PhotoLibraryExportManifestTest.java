@@ -0,0 +1,99 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs on Robolectric for the logging done when a torn manifest is recovered. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.Q)
+public class PhotoLibraryExportManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void skipsOnlyUnchangedExports() throws IOException {
+        File directory = folder.getRoot();
+        PhotoLibraryExportManifest manifest = PhotoLibraryExportManifest.open(directory);
+        File exported = export(manifest, "image:1", "a.jpg", 100);
+
+        PhotoLibraryExportManifest reopened = PhotoLibraryExportManifest.open(directory);
+        assertEquals(exported, reopened.completed("image:1", 1000L, 100L));
+        // A new source version, or an exported file that is gone or was cut short, is exported again.
+        assertNull(reopened.completed("image:1", 1001L, 100L));
+        assertNull(reopened.completed("image:1", 1000L, 101L));
+        assertNull(reopened.completed("image:2", 1000L, 100L));
+        try (RandomAccessFile raf = new RandomAccessFile(exported, "rw")) {
+            raf.setLength(50);
+        }
+        assertNull(reopened.completed("image:1", 1000L, 100L));
+        assertTrue(exported.delete());
+        assertNull(reopened.completed("image:1", 1000L, 100L));
+    }
+
+    @Test
+    public void reservesFreeNames() throws IOException {
+        File directory = folder.getRoot();
+        assertTrue(new File(directory, "a.jpg").createNewFile());
+        PhotoLibraryExportManifest manifest = PhotoLibraryExportManifest.open(directory);
+
+        assertEquals("a (1).jpg", manifest.reserveName("image:1", "a.jpg"));
+        assertEquals("a (2).jpg", manifest.reserveName("image:2", "a.jpg"));
+        assertEquals("b", manifest.reserveName("image:3", "b"));
+        assertEquals("b (1)", manifest.reserveName("image:4", "b"));
+        assertEquals(".hidden", manifest.reserveName("image:5", ".hidden"));
+    }
+
+    @Test
+    public void reusesTheNameOfAnEarlierExport() throws IOException {
+        File directory = folder.getRoot();
+        export(PhotoLibraryExportManifest.open(directory), "image:1", "a.jpg", 10);
+
+        PhotoLibraryExportManifest manifest = PhotoLibraryExportManifest.open(directory);
+        // Its own earlier file does not count as taken, but another asset's does.
+        assertEquals("a.jpg", manifest.reserveName("image:1", "a.jpg"));
+        assertEquals("a (1).jpg", manifest.reserveName("image:2", "a.jpg"));
+    }
+
+    @Test
+    public void keepsRecordsBeforeATornOne() throws IOException {
+        File directory = folder.getRoot();
+        PhotoLibraryExportManifest manifest = PhotoLibraryExportManifest.open(directory);
+        File first = export(manifest, "image:1", "a.jpg", 10);
+        export(manifest, "image:2", "b.jpg", 10);
+        File log = new File(directory, PhotoLibraryExportManifest.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+
+        PhotoLibraryExportManifest reopened = PhotoLibraryExportManifest.open(directory);
+        assertEquals(first, reopened.completed("image:1", 1000L, 10L));
+        assertNull(reopened.completed("image:2", 1000L, 10L));
+        // The manifest was rewritten on open, so a later record is not hidden behind the torn one.
+        File third = export(reopened, "image:3", "c.jpg", 10);
+        assertEquals(third, PhotoLibraryExportManifest.open(directory).completed("image:3", 1000L, 10L));
+    }
+
+    /** Writes {@code length} bytes as {@code name} and records it as exported from version (1000, length). */
+    private File export(PhotoLibraryExportManifest manifest, String identifier, String name, int length) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+        manifest.record(identifier, name, 1000L, length, length);
+        return file;
+    }
+}
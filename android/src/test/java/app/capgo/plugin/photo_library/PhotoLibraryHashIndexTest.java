@@ -0,0 +1,169 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs on Robolectric for the logging done when a torn log is recovered. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.Q)
+public class PhotoLibraryHashIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hashesGradientsByBrightnessDirection() {
+        assertEquals(0L, PhotoLibraryHashIndex.dHash(gradient(90, 80, true), 90, 80));
+        assertEquals(-1L, PhotoLibraryHashIndex.dHash(gradient(90, 80, false), 90, 80));
+    }
+
+    @Test
+    public void hashesScaledCopiesAlike() {
+        Random random = new Random(3);
+        int[] pixels = new int[90 * 80];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0xffffff);
+        }
+        int[] scaled = new int[180 * 160];
+        for (int y = 0; y < 160; y++) {
+            for (int x = 0; x < 180; x++) {
+                scaled[y * 180 + x] = pixels[(y / 2) * 90 + x / 2];
+            }
+        }
+        long hash = PhotoLibraryHashIndex.dHash(pixels, 90, 80);
+
+        assertEquals(0, PhotoLibraryHashIndex.distance(hash, PhotoLibraryHashIndex.dHash(scaled, 180, 160)));
+        assertTrue(PhotoLibraryHashIndex.distance(hash, PhotoLibraryHashIndex.dHash(gradient(90, 80, true), 90, 80)) > 10);
+    }
+
+    @Test
+    public void countsDifferingBits() {
+        assertEquals(0, PhotoLibraryHashIndex.distance(0x5aL, 0x5aL));
+        assertEquals(2, PhotoLibraryHashIndex.distance(0b1011L, 0b0001L));
+        assertEquals(64, PhotoLibraryHashIndex.distance(0L, -1L));
+    }
+
+    @Test
+    public void findsTheSameMatchesAsALinearScan() {
+        PhotoLibraryHashIndex index = new PhotoLibraryHashIndex(new File(folder.getRoot(), "hashes"));
+        Random random = new Random(11);
+        int count = 2_000;
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Every fourth hash is a near copy of an earlier one, so there is something to find.
+            hashes[i] = i % 4 == 3 ? hashes[i - 1] ^ (1L << random.nextInt(64)) : random.nextLong();
+        }
+        put(index, hashes);
+
+        for (int query = 0; query < 50; query++) {
+            long hash = hashes[random.nextInt(count)] ^ (1L << random.nextInt(64));
+            for (int threshold : new int[] { 0, 2, 6, 12 }) {
+                List<PhotoLibraryHashIndex.Match> matches = index.near(hash, threshold);
+                List<Long> expected = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    if (PhotoLibraryHashIndex.distance(hash, hashes[i]) <= threshold) {
+                        expected.add((long) i);
+                    }
+                }
+                assertEquals(expected.size(), matches.size());
+                HashSet<Long> found = new HashSet<>();
+                int previous = 0;
+                for (PhotoLibraryHashIndex.Match match : matches) {
+                    assertEquals(PhotoLibraryHashIndex.distance(hash, hashes[(int) match.id]), match.distance);
+                    assertTrue("closest first", match.distance >= previous);
+                    previous = match.distance;
+                    found.add(match.id);
+                }
+                assertEquals(new HashSet<>(expected), found);
+            }
+        }
+    }
+
+    @Test
+    public void groupsChainsOfMatches() {
+        PhotoLibraryHashIndex index = new PhotoLibraryHashIndex(new File(folder.getRoot(), "hashes"));
+        // 0-1-2 are chained one bit apart, 3 and 4 are identical, 5 is on its own.
+        put(index, new long[] { 0b000L, 0b001L, 0b011L, 0xff00L, 0xff00L, 0x0f0f0f0f0f0fL });
+
+        List<long[]> groups = index.groups(1);
+        assertEquals(2, groups.size());
+        assertArrayEquals(new long[] { 0, 1, 2 }, groups.get(0));
+        assertArrayEquals(new long[] { 3, 4 }, groups.get(1));
+    }
+
+    @Test
+    public void persistsAcrossInstances() {
+        File file = new File(folder.getRoot(), "hashes");
+        PhotoLibraryHashIndex index = new PhotoLibraryHashIndex(file);
+        put(index, new long[] { 10L, 20L, 30L });
+        index.retainAll(new HashSet<>(Arrays.asList(0L, 2L)));
+
+        PhotoLibraryHashIndex reopened = new PhotoLibraryHashIndex(file);
+        assertEquals(2, reopened.size());
+        assertEquals(Long.valueOf(10L), reopened.hash(0));
+        assertNull(reopened.hash(1));
+        assertTrue(reopened.isCurrent(2, 1000L, 2L));
+        assertFalse(reopened.isCurrent(2, 1001L, 2L));
+    }
+
+    @Test
+    public void keepsRecordsBeforeATornOne() throws IOException {
+        File file = new File(folder.getRoot(), "hashes");
+        PhotoLibraryHashIndex index = new PhotoLibraryHashIndex(file);
+        put(index, new long[] { 10L, 20L });
+        put(index, new long[] { 10L, 20L, 30L });
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        PhotoLibraryHashIndex reopened = new PhotoLibraryHashIndex(file);
+        assertEquals(2, reopened.size());
+        assertNull(reopened.hash(2));
+        // The log was rewritten on load, so a later append is not hidden behind the torn record.
+        put(reopened, new long[] { 10L, 20L, 30L });
+        assertEquals(Long.valueOf(30L), new PhotoLibraryHashIndex(file).hash(2));
+    }
+
+    /** Stores {@code hashes[i]} under id {@code i}, with modification time 1000 and size {@code i}. */
+    private static void put(PhotoLibraryHashIndex index, long[] hashes) {
+        long[] ids = new long[hashes.length];
+        long[] modified = new long[hashes.length];
+        long[] sizes = new long[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            ids[i] = i;
+            modified[i] = 1000L;
+            sizes[i] = i;
+        }
+        index.putAll(ids, modified, sizes, hashes, hashes.length);
+    }
+
+    private static int[] gradient(int width, int height, boolean brighterToTheRight) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = (brighterToTheRight ? x : width - 1 - x) * 255 / (width - 1);
+                pixels[y * width + x] = 0xff000000 | (level << 16) | (level << 8) | level;
+            }
+        }
+        return pixels;
+    }
+}
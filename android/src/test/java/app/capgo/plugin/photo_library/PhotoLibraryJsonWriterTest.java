@@ -0,0 +1,124 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class PhotoLibraryJsonWriterTest {
+
+    private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    @Test
+    public void escapesStrings() throws JSONException {
+        String[] values = {
+            "plain",
+            "quote \" and \\ backslash",
+            "line\nbreak\r\ttab",
+            "\u0000\u0001\u001f",
+            "\u2028\u2029",
+            "emoji \uD83D\uDCF7",
+        };
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(64).beginArray();
+        for (String value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+
+        JSONArray parsed = new JSONArray(writer.toString());
+        assertEquals(values.length, parsed.length());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], parsed.getString(i));
+        }
+        assertEquals("[\"\\u2028\"]", new PhotoLibraryJsonWriter(16).beginArray().value("\u2028").endArray().toString());
+        PhotoLibraryJsonWriter escaped = new PhotoLibraryJsonWriter(16).beginArray().value("a\"b\\c\n\u0001").endArray();
+        assertEquals("[\"a\\\"b\\\\c\\n\\u0001\"]", escaped.toString());
+    }
+
+    @Test
+    public void repeatedValuesMatchPlainValues() {
+        PhotoLibraryJsonWriter repeated = new PhotoLibraryJsonWriter(64).beginArray();
+        PhotoLibraryJsonWriter plain = new PhotoLibraryJsonWriter(64).beginArray();
+        for (String value : new String[] { "image/jpeg", "a\"b", "image/jpeg", "a\"b", null }) {
+            repeated.repeatedValue(value);
+            plain.value(value);
+        }
+        assertEquals(plain.endArray().toString(), repeated.endArray().toString());
+    }
+
+    @Test
+    public void writesNestedStructures() throws JSONException {
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(64);
+        writer.beginObject();
+        writer.name("id").value("image:1");
+        writer.name("size").value(42L);
+        writer.name("duration").value(1.5);
+        writer.name("whole").value(3.0);
+        writer.name("invalid").value(Double.NaN);
+        writer.name("flag").value(true);
+        writer.name("albums").beginArray().value("a").value("b").endArray();
+        writer.name("empty").beginObject().endObject();
+        writer.name("file").value("/cache/", "name.jpg");
+        writer.endObject();
+
+        assertEquals(
+            "{\"id\":\"image:1\",\"size\":42,\"duration\":1.5,\"whole\":3,\"invalid\":null,\"flag\":true," +
+                "\"albums\":[\"a\",\"b\"],\"empty\":{},\"file\":\"/cache/name.jpg\"}",
+            writer.toString()
+        );
+        JSONObject parsed = new JSONObject(writer.toString());
+        assertEquals(2, parsed.getJSONArray("albums").length());
+    }
+
+    @Test
+    public void splicesRawValues() {
+        PhotoLibraryJsonWriter column = new PhotoLibraryJsonWriter(16).beginArray().value(1L).value(2L).endArray();
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(64).beginObject();
+        writer.name("a").rawValue(column);
+        writer.name("b").value(3L);
+        writer.endObject();
+        assertEquals("{\"a\":[1,2],\"b\":3}", writer.toString());
+    }
+
+    @Test
+    public void formatsDatesLikeIsoFormatter() {
+        long[] fixed = { 0L, 1L, 10L, 100L, 120L, 999L, 1_000L, 1_500L, -1L, -999L, -86_400_001L, 1_700_000_000_123L };
+        for (long millis : fixed) {
+            assertDate(millis);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            // Spread over 1900 to 2100, where the date prefix cache is exercised with collisions.
+            assertDate((long) ((random.nextDouble() * 200 - 70) * 365.25 * 86_400_000L));
+        }
+    }
+
+    @Test
+    public void formatsYearsOutsideFourDigitsWithFallback() {
+        // The last millisecond of year 9999 is still formatted without the fallback.
+        assertDate(253_402_300_799_999L);
+        for (long millis : new long[] { -62_167_219_200_001L, 253_402_300_800_000L }) {
+            PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(64).beginArray().isoDate(millis).endArray();
+            assertEquals("[\"" + ISO.format(Instant.ofEpochMilli(millis)) + "\"]", writer.toString());
+        }
+    }
+
+    @Test
+    public void resetStartsAnEmptyDocument() {
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(16).beginArray().value(1L);
+        writer.reset();
+        assertEquals("[2]", writer.beginArray().value(2L).endArray().toString());
+    }
+
+    private static void assertDate(long millis) {
+        PhotoLibraryJsonWriter writer = new PhotoLibraryJsonWriter(64).beginArray().isoDate(millis).isoDate(millis).endArray();
+        String expected = "\"" + ISO.format(Instant.ofEpochMilli(millis)) + "\"";
+        assertEquals(String.valueOf(millis), "[" + expected + "," + expected + "]", writer.toString());
+    }
+}
@@ -0,0 +1,358 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Load scenarios against {@link PhotoLibraryService} and a {@link FakeMediaStoreProvider} seeded
+ * with a large library (100k items by default). Each scenario records the latency of its operations
+ * and the bytes allocated by all live threads while it ran, and the results are written to
+ * {@code build/reports/load/photo-library.json}. Given a baseline report, a scenario fails when it
+ * is slower or allocates more than the baseline allows.
+ *
+ * <p>Skipped unless the build is started with {@code -PphotoLibraryLoadTest=true}:
+ * {@code ./gradlew testDebugUnitTest --tests '*PhotoLibraryLoadTest' -PphotoLibraryLoadTest=true
+ * [-PphotoLibraryLoadTestAssets=100000] [-PphotoLibraryLoadTestBaseline=path/to/report.json]}.
+ *
+ * <p>Runs on API 29: the service then fingerprints the library with a plain query instead of the
+ * MediaStore generation calls, and thumbnails go through {@code ContentResolver.loadThumbnail}.
+ * Native graphics make bitmap decoding, scaling and JPEG encoding real work.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.Q)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class PhotoLibraryLoadTest {
+
+    private static final int ASSETS = Integer.getInteger("photoLibrary.loadTest.assets", 100_000);
+    private static final long SEED = 42L;
+    private static final int PAGE_SIZE = 100;
+    /** Pages requested per pagination scenario, spread evenly over the whole library. */
+    private static final int DEEP_PAGES = 20;
+    private static final int GRID_SIZE = 60;
+    private static final int GRID_THUMBNAIL = 256;
+    private static final int PICK_COUNT = 50;
+    /** Allowed growth over the baseline before a scenario fails. */
+    private static final double LATENCY_TOLERANCE = Double.parseDouble(System.getProperty("photoLibrary.loadTest.latencyTolerance", "0.5"));
+    private static final double ALLOCATION_TOLERANCE = Double.parseDouble(
+        System.getProperty("photoLibrary.loadTest.allocationTolerance", "0.2")
+    );
+
+    private static final JSONObject REPORT = new JSONObject();
+
+    private PhotoLibraryExecutors executors;
+    private PhotoLibraryService service;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("photoLibrary.loadTest"));
+        Context context = RuntimeEnvironment.getApplication();
+        FakeMediaStoreProvider provider = Robolectric.setupContentProvider(FakeMediaStoreProvider.class, MediaStore.AUTHORITY);
+        provider.seed(ASSETS, SEED);
+        executors = new PhotoLibraryExecutors();
+        // No bridge: the scenarios never stream originals, which is the only use of it.
+        service = new PhotoLibraryService(context, null, executors, (event, data) -> {});
+        service.prepareCacheDirectories();
+    }
+
+    @After
+    public void tearDown() {
+        if (executors != null) {
+            executors.shutdown();
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException, JSONException {
+        if (REPORT.length() == 0) {
+            return;
+        }
+        REPORT.put("assets", ASSETS);
+        File report = new File("build/reports/load/photo-library.json");
+        //noinspection ResultOfMethodCallIgnored
+        report.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(report)) {
+            writer.write(REPORT.toString(2));
+        }
+    }
+
+    /** Pages with {@code offset}/{@code limit}, where every page re-runs the query and skips rows. */
+    @Test
+    public void deepPaginationWithOffsets() throws Exception {
+        Scenario scenario = new Scenario("deepPaginationWithOffsets");
+        for (int offset : deepOffsets()) {
+            GetLibraryOptions options = libraryOptions(offset, PAGE_SIZE, 0);
+            PhotoLibraryFetchResult result = scenario.time(() -> service.fetchLibrary(options, null));
+            assertEquals(ASSETS, result.totalCount);
+            assertEquals(Math.min(PAGE_SIZE, ASSETS - offset), new JSONArray(result.json).length());
+        }
+        scenario.finish();
+    }
+
+    /** The same pages through a session, which snapshots the ordered ids once. */
+    @Test
+    public void deepPaginationWithSession() throws Exception {
+        Scenario scenario = new Scenario("deepPaginationWithSession");
+        PhotoLibrarySessions.Session session = scenario.time(() -> service.openSession(libraryOptions(0, null, 0), 60_000L));
+        for (int offset : deepOffsets()) {
+            PhotoLibraryFetchResult result = scenario.time(() -> service.fetchSessionPage(session, offset, PAGE_SIZE));
+            assertEquals(ASSETS, result.totalCount);
+            assertEquals(Math.min(PAGE_SIZE, ASSETS - offset), new JSONArray(result.json).length());
+        }
+        scenario.finish();
+    }
+
+    @Test
+    public void getAlbums() throws Exception {
+        Scenario scenario = new Scenario("getAlbums");
+        for (int i = 0; i < 5; i++) {
+            JSArray albums = scenario.time(service::fetchAlbums);
+            int total = 0;
+            for (int a = 0; a < albums.length(); a++) {
+                total += albums.getJSONObject(a).getInt("assetCount");
+            }
+            assertEquals(FakeMediaStoreProvider.ALBUM_COUNT, albums.length());
+            assertEquals(ASSETS, total);
+        }
+        scenario.finish();
+    }
+
+    /**
+     * One screen of thumbnails rendered from nothing, then the same screen again. The warm pass
+     * rebuilds the page, bypassing the page cache, and must find every thumbnail without encoding one.
+     */
+    @Test
+    public void thumbnailGrid() throws Exception {
+        GetLibraryOptions options = libraryOptions(0, GRID_SIZE, GRID_THUMBNAIL);
+
+        Scenario cold = new Scenario("thumbnailGridCold");
+        PhotoLibraryFetchResult first = cold.time(() -> service.fetchLibrary(options, null));
+        cold.finish();
+        assertEquals(GRID_SIZE, thumbnailCount(first));
+
+        long written = service.getPerformanceStats().getLong("bytesWritten");
+        Scenario warm = new Scenario("thumbnailGridWarm");
+        for (int i = 0; i < 5; i++) {
+            service.invalidatePageCache();
+            PhotoLibraryFetchResult page = warm.time(() -> service.fetchLibrary(options, null));
+            assertEquals(GRID_SIZE, thumbnailCount(page));
+        }
+        warm.finish();
+        assertEquals(written, service.getPerformanceStats().getLong("bytesWritten"));
+    }
+
+    /** A first page requested again with its tag, as a grid does when it returns to the foreground. */
+    @Test
+    public void unchangedFirstPage() throws Exception {
+        GetLibraryOptions options = libraryOptions(0, PAGE_SIZE, 0);
+        PhotoLibraryFetchResult first = service.fetchLibrary(options, null);
+        assertNotNull(first.etag);
+
+        Scenario scenario = new Scenario("unchangedFirstPage");
+        for (int i = 0; i < 20; i++) {
+            PhotoLibraryFetchResult result = scenario.time(() -> service.fetchLibrary(options, first.etag));
+            assertTrue(result.notModified);
+            assertEquals(first.etag, result.etag);
+        }
+        scenario.finish();
+    }
+
+    @Test
+    public void pickFiftyFiles() throws Exception {
+        List<Uri> uris = new ArrayList<>(PICK_COUNT);
+        for (int i = 0; uris.size() < PICK_COUNT; i++) {
+            // Images only: the host has no media framework to read video metadata with.
+            if (i % FakeMediaStoreProvider.VIDEO_EVERY != 0) {
+                uris.add(FakeMediaStoreProvider.itemUri(i + 1, false));
+            }
+        }
+        JSObject data = new JSObject();
+        data.put("selectionLimit", PICK_COUNT);
+        PickMediaOptions options = PickMediaOptions.fromCall(new PluginCall(null, "PhotoLibrary", "load-test", "pickMedia", data));
+
+        Scenario scenario = new Scenario("pickFiftyFiles");
+        JSArray picked = scenario.time(() -> service.createAssetsFromUris(uris, options));
+        scenario.finish();
+        assertEquals(PICK_COUNT, picked.length());
+    }
+
+    private static int[] deepOffsets() {
+        int[] offsets = new int[DEEP_PAGES];
+        int last = Math.max(0, ASSETS - PAGE_SIZE);
+        for (int i = 0; i < DEEP_PAGES; i++) {
+            offsets[i] = (int) ((long) last * i / (DEEP_PAGES - 1));
+        }
+        return offsets;
+    }
+
+    private static int thumbnailCount(PhotoLibraryFetchResult result) throws JSONException {
+        JSONArray assets = new JSONArray(result.json);
+        int count = 0;
+        for (int i = 0; i < assets.length(); i++) {
+            if (assets.getJSONObject(i).has("thumbnail")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static GetLibraryOptions libraryOptions(int offset, Integer limit, int thumbnailSize) {
+        return new GetLibraryOptions(
+            offset,
+            limit,
+            true,
+            true,
+            true,
+            true,
+            false,
+            thumbnailSize,
+            thumbnailSize,
+            PhotoLibraryDefaults.THUMBNAIL_QUALITY,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false
+        );
+    }
+
+    /** Bytes allocated so far by each live thread, which includes the service's worker pools. */
+    private static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> result = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] > 0) {
+                result.put(ids[i], allocated[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bytes allocated by live threads since {@code start}. Counted per thread, so a thread that
+     * exits in between does not take its earlier allocations out of the total; what it allocated
+     * after {@code start} is lost with it, which undercounts but never goes negative.
+     */
+    private static long allocatedSince(Map<Long, Long> start) {
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : allocatedBytes().entrySet()) {
+            Long before = start.get(thread.getKey());
+            total += Math.max(0, thread.getValue() - (before != null ? before : 0));
+        }
+        return total;
+    }
+
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    /** Latencies of the operations of one scenario and the bytes allocated while it ran. */
+    private static final class Scenario {
+
+        private final String name;
+        private final List<Long> nanos = new ArrayList<>();
+        private final Map<Long, Long> startAllocated = allocatedBytes();
+        private final long startNanos = System.nanoTime();
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        <T> T time(Operation<T> operation) throws Exception {
+            long start = System.nanoTime();
+            T result = operation.run();
+            nanos.add(System.nanoTime() - start);
+            return result;
+        }
+
+        void finish() throws IOException, JSONException {
+            long allocated = allocatedSince(startAllocated);
+            long[] sorted = new long[nanos.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = nanos.get(i);
+            }
+            Arrays.sort(sorted);
+
+            JSONObject result = new JSONObject();
+            result.put("operations", sorted.length);
+            result.put("totalMs", (System.nanoTime() - startNanos) / 1_000_000.0);
+            result.put("p50Ms", percentile(sorted, 0.50) / 1_000_000.0);
+            result.put("p90Ms", percentile(sorted, 0.90) / 1_000_000.0);
+            result.put("maxMs", sorted.length > 0 ? sorted[sorted.length - 1] / 1_000_000.0 : 0);
+            result.put("allocatedBytes", allocated);
+            result.put("allocatedBytesPerOperation", sorted.length > 0 ? allocated / sorted.length : 0);
+            synchronized (REPORT) {
+                REPORT.put(name, result);
+            }
+            compareWithBaseline(result);
+        }
+
+        private void compareWithBaseline(JSONObject result) throws IOException, JSONException {
+            String path = System.getProperty("photoLibrary.loadTest.baseline");
+            if (path == null || path.isEmpty()) {
+                return;
+            }
+            JSONObject baseline = new JSONObject(new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8));
+            JSONObject previous = baseline.optJSONObject(name);
+            if (previous == null) {
+                return;
+            }
+            double p50 = result.getDouble("p50Ms");
+            double allowedP50 = previous.getDouble("p50Ms") * (1 + LATENCY_TOLERANCE);
+            assertTrue(String.format(Locale.US, "%s: p50 %.2f ms exceeds baseline limit %.2f ms", name, p50, allowedP50), p50 <= allowedP50);
+            long perOperation = result.getLong("allocatedBytesPerOperation");
+            double allowedAllocation = previous.getLong("allocatedBytesPerOperation") * (1 + ALLOCATION_TOLERANCE);
+            assertTrue(
+                String.format(Locale.US, "%s: %d bytes per operation exceeds baseline limit %.0f", name, perOperation, allowedAllocation),
+                perOperation <= allowedAllocation
+            );
+        }
+
+        private static long percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
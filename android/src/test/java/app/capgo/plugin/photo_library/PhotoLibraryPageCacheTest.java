@@ -0,0 +1,148 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.getcapacitor.JSObject;
+import org.junit.Test;
+
+public class PhotoLibraryPageCacheTest {
+
+    @Test
+    public void servesPagesOfTheSameGeneration() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        assertNull(cache.get(key, "g1", null));
+
+        PhotoLibraryFetchResult tagged = cache.put(key, "g1", page("[1]"));
+        assertNotNull(tagged.etag);
+        assertSame(tagged, cache.get(key, "g1", null));
+        assertNull(cache.get(key, "g2", null));
+    }
+
+    @Test
+    public void answersMatchingTagsWithNotModified() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        PhotoLibraryFetchResult tagged = cache.put(key, "g1", page("[1]"));
+
+        PhotoLibraryFetchResult result = cache.get(key, "g1", tagged.etag);
+        assertTrue(result.notModified);
+        assertEquals(tagged.etag, result.etag);
+        assertEquals("", result.json);
+        assertSame(tagged, cache.get(key, "g1", "other"));
+    }
+
+    @Test
+    public void keysCoverOptionsAndVariant() {
+        assertEquals(PhotoLibraryPageCache.key(options(0), ""), PhotoLibraryPageCache.key(options(0), ""));
+        assertNotEquals(PhotoLibraryPageCache.key(options(0), ""), PhotoLibraryPageCache.key(options(100), ""));
+        assertNotEquals(PhotoLibraryPageCache.key(options(0), ""), PhotoLibraryPageCache.key(options(0), "stream"));
+    }
+
+    @Test
+    public void invalidationStartsANewEpoch() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        PhotoLibraryFetchResult before = cache.put(key, "g1", page("[1]"));
+
+        assertEquals(1, cache.invalidate());
+        assertNull(cache.get(key, "g1", before.etag));
+        // The same page built again gets a new tag, so copies from before the invalidation are not current.
+        PhotoLibraryFetchResult after = cache.put(key, "g1", page("[1]"));
+        assertNotEquals(before.etag, after.etag);
+        assertSame(after, cache.get(key, "g1", before.etag));
+    }
+
+    @Test
+    public void tagsButDoesNotKeepOversizedPages() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        StringBuilder json = new StringBuilder(PhotoLibraryPageCache.MAX_PAGE_CHARS + 2).append('[');
+        while (json.length() <= PhotoLibraryPageCache.MAX_PAGE_CHARS) {
+            json.append('0');
+        }
+        PhotoLibraryFetchResult tagged = cache.put(key, "g1", page(json.append(']').toString()));
+
+        assertNotNull(tagged.etag);
+        assertNull(cache.get(key, "g1", null));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPages() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String first = PhotoLibraryPageCache.key(options(0), "");
+        cache.put(first, "g1", page("[0]"));
+        for (int i = 1; i <= PhotoLibraryPageCache.MAX_ENTRIES; i++) {
+            // Keep the first page in use so the second one is the eldest when the cache is full.
+            cache.get(first, "g1", null);
+            cache.put(PhotoLibraryPageCache.key(options(i), ""), "g1", page("[" + i + "]"));
+        }
+
+        assertNotNull(cache.get(first, "g1", null));
+        assertNull(cache.get(PhotoLibraryPageCache.key(options(1), ""), "g1", null));
+        assertNotNull(cache.get(PhotoLibraryPageCache.key(options(2), ""), "g1", null));
+        assertEquals(PhotoLibraryPageCache.MAX_ENTRIES, cache.toJSObject().optInt("entries"));
+    }
+
+    @Test
+    public void dropsEveryPageWhenFilesGoMissing() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        PhotoLibraryFetchResult tagged = cache.put(key, "g1", page("[1]"));
+
+        cache.filesMissing();
+        // Caught even when the caller's tag still matches.
+        assertNull(cache.get(key, "g1", tagged.etag));
+        JSObject stats = cache.toJSObject();
+        assertEquals(1, stats.optLong("missingFiles"));
+        assertEquals(0, stats.optInt("entries"));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        PhotoLibraryPageCache cache = new PhotoLibraryPageCache();
+        String key = PhotoLibraryPageCache.key(options(0), "");
+        cache.get(key, "g1", null);
+        PhotoLibraryFetchResult tagged = cache.put(key, "g1", page("[1]"));
+        cache.get(key, "g1", null);
+        cache.get(key, "g1", tagged.etag);
+
+        JSObject stats = cache.toJSObject();
+        assertEquals(1, stats.optLong("misses"));
+        assertEquals(1, stats.optLong("hits"));
+        assertEquals(1, stats.optLong("notModified"));
+        cache.resetStats();
+        assertEquals(0, cache.toJSObject().optLong("hits"));
+    }
+
+    private static PhotoLibraryFetchResult page(String json) {
+        return new PhotoLibraryFetchResult(json, 1, false, null);
+    }
+
+    private static GetLibraryOptions options(int offset) {
+        return new GetLibraryOptions(
+            offset,
+            100,
+            true,
+            true,
+            false,
+            true,
+            false,
+            0,
+            0,
+            PhotoLibraryDefaults.THUMBNAIL_QUALITY,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false,
+            false
+        );
+    }
+}
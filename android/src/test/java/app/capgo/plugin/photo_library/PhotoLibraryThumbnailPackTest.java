@@ -0,0 +1,239 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs on Robolectric for the logging done when a torn index is recovered. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.Q)
+public class PhotoLibraryThumbnailPackTest {
+
+    /** Sixteen of these fill a segment, so the seventeenth starts the next one. */
+    private static final int LARGE_BLOB = (int) (PhotoLibraryThumbnailPack.SEGMENT_MAX_BYTES / 16);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasStored() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 200), 150);
+
+        assertEquals(100, pack.lookup("a"));
+        assertEquals(150, pack.lookup("b"));
+        assertEquals(-1, pack.lookup("c"));
+        assertArrayEquals(blob('b', 150), read(pack, "b"));
+        assertNull(pack.open("c"));
+    }
+
+    @Test
+    public void replacesBlobsUnderTheSameKey() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        pack.put("a", blob('z', 50), 50);
+
+        assertArrayEquals(blob('z', 50), read(pack, "a"));
+        JSObject stats = pack.toJSObject();
+        assertEquals(1, stats.optInt("entries"));
+        assertEquals(50, stats.optLong("liveBytes"));
+        assertEquals(100, stats.optLong("deadBytes"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() throws IOException {
+        AtomicInteger evictions = new AtomicInteger();
+        PhotoLibraryThumbnailPack pack = new PhotoLibraryThumbnailPack(folder.getRoot(), 300, evictions::incrementAndGet);
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 100), 100);
+        pack.put("c", blob('c', 100), 100);
+        pack.lookup("a");
+        pack.put("d", blob('d', 100), 100);
+
+        assertEquals(-1, pack.lookup("b"));
+        assertEquals(100, pack.lookup("a"));
+        assertEquals(100, pack.lookup("d"));
+        assertEquals(1, evictions.get());
+        assertEquals(1, pack.toJSObject().optLong("evictions"));
+    }
+
+    @Test
+    public void survivesARestart() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 100), 100);
+        pack.put("a", blob('y', 80), 80);
+
+        PhotoLibraryThumbnailPack reopened = pack();
+        assertArrayEquals(blob('y', 80), read(reopened, "a"));
+        assertArrayEquals(blob('b', 100), read(reopened, "b"));
+    }
+
+    @Test
+    public void dropsOnlyTheTornRecordOfTheIndex() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 100), 100);
+        File index = new File(folder.getRoot(), "index");
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        PhotoLibraryThumbnailPack reopened = pack();
+        assertArrayEquals(blob('a', 100), read(reopened, "a"));
+        assertEquals(-1, reopened.lookup("b"));
+        // The index was rewritten on load, so a later record is not hidden behind the torn one.
+        reopened.put("c", blob('c', 100), 100);
+        assertArrayEquals(blob('c', 100), read(pack(), "c"));
+    }
+
+    @Test
+    public void ignoresBlobsThatNeverReachedTheSegment() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 100), 100);
+        File segment = segmentFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(150);
+        }
+
+        PhotoLibraryThumbnailPack reopened = pack();
+        assertArrayEquals(blob('a', 100), read(reopened, "a"));
+        assertEquals(-1, reopened.lookup("b"));
+    }
+
+    @Test
+    public void forgetsSegmentsDeletedFromOutside() throws IOException {
+        AtomicInteger evictions = new AtomicInteger();
+        PhotoLibraryThumbnailPack pack = new PhotoLibraryThumbnailPack(folder.getRoot(), 0, evictions::incrementAndGet);
+        pack.put("a", blob('a', 100), 100);
+        pack.put("b", blob('b', 100), 100);
+
+        // As when the system clears the app's cache.
+        for (File file : folder.getRoot().listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertNull(pack.open("a"));
+        assertEquals(-1, pack.lookup("b"));
+        assertEquals(1, evictions.get());
+
+        pack.put("c", blob('c', 100), 100);
+        assertArrayEquals(blob('c', 100), read(pack(), "c"));
+    }
+
+    @Test
+    public void compactsMostlyDeadSegments() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        for (int i = 0; i <= 16; i++) {
+            assertFalse(pack.put("k" + i, blob((char) ('a' + i), LARGE_BLOB), LARGE_BLOB));
+        }
+        assertEquals(2, segmentFiles().length);
+
+        // Replacing ten of the sixteen blobs of the first, now sealed, segment leaves it mostly dead.
+        boolean due = false;
+        for (int i = 0; i < 10; i++) {
+            due = pack.put("k" + i, blob((char) ('A' + i), 1000), 1000);
+        }
+        assertTrue(due);
+
+        pack.compact();
+        JSObject stats = pack.toJSObject();
+        assertEquals(1, stats.optLong("compactions"));
+        assertTrue(stats.optLong("reclaimedBytes") >= 10L * LARGE_BLOB - 10_000);
+        assertEquals(0, stats.optLong("deadBytes"));
+        assertFalse(Arrays.asList(segmentNames()).contains("segment-1.pack"));
+        assertContents(pack);
+
+        // Nothing is left to compact, and the moved entries are found after a restart.
+        pack.compact();
+        assertEquals(1, pack.toJSObject().optLong("compactions"));
+        assertContents(pack());
+    }
+
+    @Test
+    public void deletesSegmentsWithoutLiveBlobsOnLoad() throws IOException {
+        PhotoLibraryThumbnailPack pack = pack();
+        pack.put("a", blob('a', 100), 100);
+        // Left behind by a compaction that copied its blobs but died before deleting the source.
+        File orphan = new File(folder.getRoot(), "segment-7.pack");
+        assertTrue(orphan.createNewFile());
+
+        PhotoLibraryThumbnailPack reopened = pack();
+        assertEquals(100, reopened.lookup("a"));
+        assertFalse(orphan.exists());
+    }
+
+    /** After {@link #compactsMostlyDeadSegments}: k0 to k9 were replaced, k10 to k16 are the originals. */
+    private static void assertContents(PhotoLibraryThumbnailPack pack) throws IOException {
+        for (int i = 0; i <= 16; i++) {
+            byte[] expected = i < 10 ? blob((char) ('A' + i), 1000) : blob((char) ('a' + i), LARGE_BLOB);
+            assertArrayEquals("k" + i, expected, read(pack, "k" + i));
+        }
+    }
+
+    private PhotoLibraryThumbnailPack pack() {
+        return new PhotoLibraryThumbnailPack(folder.getRoot(), 0, () -> {});
+    }
+
+    private File[] segmentFiles() {
+        File[] files = folder.getRoot().listFiles((dir, name) -> PhotoLibraryThumbnailPack.isSegmentName(name));
+        assertNotNull(files);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private String[] segmentNames() {
+        File[] files = segmentFiles();
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
+        }
+        return names;
+    }
+
+    /** A blob whose bytes all depend on {@code seed}, so misplaced offsets show up as mismatches. */
+    private static byte[] blob(char seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+
+    private static byte[] read(PhotoLibraryThumbnailPack pack, String key) throws IOException {
+        PhotoLibraryThumbnailPack.Blob blob = pack.open(key);
+        assertNotNull(key, blob);
+        try (FileInputStream in = blob.stream) {
+            byte[] data = new byte[(int) blob.length];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            assertEquals(key, data.length, offset);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import type { LibraryColumns, LibraryFileColumn, PhotoLibraryAsset, PhotoLibraryFile } from './definitions';
+
+function fileAt(column: LibraryFileColumn | undefined, dictionary: string[], index: number): PhotoLibraryFile | undefined {
+  const name = column?.name[index];
+  if (!column || name == null) {
+    return undefined;
+  }
+  const file: PhotoLibraryFile = {
+    webPath: column.webPathPrefix + (column.webName?.[index] ?? name),
+    mimeType: dictionary[column.mimeType[index]],
+    size: column.size[index],
+  };
+  if (column.pathPrefix != null) {
+    file.path = column.pathPrefix + name;
+  }
+  if (column.previews.includes(index)) {
+    file.isPreview = true;
+  }
+  const checksum = column.checksum?.[index];
+  if (checksum != null) {
+    file.checksum = checksum;
+  }
+  return file;
+}
+
+/** Reads entry `index` of a `'columnar'` page as a regular asset object. */
+export function columnarAsset(columns: LibraryColumns, index: number): PhotoLibraryAsset {
+  const { dictionaries } = columns;
+  const type = dictionaries.type[columns.type[index]];
+  const asset: PhotoLibraryAsset = {
+    id: `${type}:${columns.id[index]}`,
+    fileName: columns.fileName[index],
+    type,
+    width: columns.width[index],
+    height: columns.height[index],
+    mimeType: dictionaries.mimeType[columns.mimeType[index]],
+    size: columns.size[index],
+  };
+  if (columns.duration[index] > 0) {
+    asset.duration = columns.duration[index];
+  }
+  if (columns.creationDate[index] > 0) {
+    asset.creationDate = new Date(columns.creationDate[index]).toISOString();
+  }
+  if (columns.modificationDate[index] > 0) {
+    asset.modificationDate = new Date(columns.modificationDate[index]).toISOString();
+  }
+  const album = columns.albumId?.[index] ?? -1;
+  if (album >= 0) {
+    asset.albumIds = [dictionaries.albumId[album]];
+  }
+  const exif = columns.exif?.[index];
+  if (exif) {
+    asset.exif = exif;
+  }
+  const latitude = columns.latitude?.[index];
+  const longitude = columns.longitude?.[index];
+  if (latitude != null && longitude != null) {
+    asset.latitude = latitude;
+    asset.longitude = longitude;
+  }
+  const thumbnail = fileAt(columns.thumbnail, dictionaries.mimeType, index);
+  if (thumbnail) {
+    asset.thumbnail = thumbnail;
+  }
+  const file = fileAt(columns.file, dictionaries.mimeType, index);
+  if (file) {
+    asset.file = file;
+  }
+  return asset;
+}
@@ -1,3 +1,5 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export type PhotoLibraryAuthorizationState = 'authorized' | 'limited' | 'denied' | 'notDetermined';
 
 export interface PhotoLibraryPermissions {
@@ -50,11 +52,70 @@ export interface GetLibraryOptions {
    * Defaults to `false`.
    */
   includeFullResolutionData?: boolean;
+  /**
+   * When `true`, JPEG/HEIC images without a cached thumbnail return the small preview embedded
+   * in their EXIF data right away. The full quality thumbnail is generated in the background and
+   * delivered through the `thumbnailUpdated` event. Android only. Defaults to `false`.
+   */
+  progressiveThumbnails?: boolean;
+  /**
+   * How `includeFullResolutionData` delivers originals. `'copy'` writes them into the app cache,
+   * `'stream'` serves them straight from the media store through the web view with HTTP range
+   * support, so nothing is copied. Android only. Defaults to `'copy'`.
+   */
+  fullResolutionMode?: FullResolutionMode;
+  /**
+   * When `true`, full resolution files include a SHA-256 `checksum`. It is computed while the
+   * file is copied and cached afterwards, so it costs no extra read. Not available with
+   * `fullResolutionMode: 'stream'`. Android only. Defaults to `false`.
+   */
+  checksum?: boolean;
+  /**
+   * When `true`, images include camera metadata read from their EXIF headers in `exif`. Only the
+   * headers are read and results are cached per asset version. Android only. Defaults to `false`.
+   */
+  includeExif?: boolean;
+  /**
+   * When `true`, images include `latitude` and `longitude` from their EXIF GPS tags. On Android 10+
+   * this requests the `ACCESS_MEDIA_LOCATION` permission once; without it coordinates are omitted.
+   * Android only. Defaults to `false`.
+   */
+  includeLocation?: boolean;
+  /**
+   * `'columnar'` returns the page as parallel per-field arrays in `columns` instead of one object
+   * per asset, which is much smaller and faster to parse for large pages. Use `columnarAsset` to
+   * read one entry as a regular asset. Android only: other platforms ignore it and return `assets`,
+   * so check for `columns` in the result. Defaults to `'objects'`.
+   */
+  format?: LibraryResultFormat;
+}
+
+export type LibraryResultFormat = 'objects' | 'columnar';
+
+export interface AssetExif {
+  /** EXIF orientation tag (1-8). */
+  orientation: number;
+  make?: string;
+  model?: string;
+  lensModel?: string;
+  /** Raw EXIF `DateTimeOriginal` value (`YYYY:MM:DD HH:MM:SS`, local time of the camera). */
+  dateTimeOriginal?: string;
+  /** Exposure time in seconds. */
+  exposureTime?: number;
+  fNumber?: number;
+  /** Focal length in millimetres. */
+  focalLength?: number;
+  iso?: number;
 }
 
+export type FullResolutionMode = 'copy' | 'stream';
+
 export interface PhotoLibraryFile {
-  /** Absolute path on the native file system. */
-  path: string;
+  /**
+   * Absolute path on the native file system. Absent for thumbnails kept in the Android thumbnail
+   * pack (`packedThumbnails`), which have no file of their own; use `webPath` for those.
+   */
+  path?: string;
   /**
    * URL that can be used inside a web view. Usually produced by `Capacitor.convertFileSrc(path)`.
    */
@@ -62,6 +123,21 @@ export interface PhotoLibraryFile {
   mimeType: string;
   /** Size in bytes if known, otherwise `-1`. */
   size: number;
+  /**
+   * `true` when the file is the low resolution EXIF preview returned by a progressive thumbnail
+   * request. A `thumbnailUpdated` event follows once the full quality thumbnail is ready.
+   */
+  isPreview?: boolean;
+  /** Hex encoded SHA-256 of the file, present when a `checksum` was requested. Android only. */
+  checksum?: string;
+}
+
+export interface ThumbnailUpdatedEvent {
+  /** Identifier of the asset whose thumbnail was upgraded. */
+  id: string;
+  width: number;
+  height: number;
+  thumbnail: PhotoLibraryFile;
 }
 
 export type PhotoAssetType = 'image' | 'video';
@@ -75,8 +151,12 @@ export interface PhotoLibraryAsset {
   duration?: number;
   creationDate?: string;
   modificationDate?: string;
+  /** Present when requested with `includeLocation` and the image has GPS tags. */
   latitude?: number;
+  /** Present when requested with `includeLocation` and the image has GPS tags. */
   longitude?: number;
+  /** Present when requested with `includeExif`. */
+  exif?: AssetExif;
   mimeType: string;
   /** Size in bytes reported by the OS for the underlying asset, if available. */
   size?: number;
@@ -94,6 +174,230 @@ export interface GetLibraryResult {
   totalCount: number;
   /** Whether more assets are available when using pagination. */
   hasMore: boolean;
+  /**
+   * Version of this page. Pass it back as `ifNoneMatch` to learn whether the page changed without
+   * receiving it again. Android only.
+   */
+  etag?: string;
+}
+
+/**
+ * Files of one kind (thumbnails or originals) in a columnar page. Entry `i` describes asset `i`
+ * and is `null` when that asset has no file.
+ */
+export interface LibraryFileColumn {
+  /** `path` of entry `i` is `pathPrefix + name[i]`. Absent for packed thumbnails, which have no `path`. */
+  pathPrefix?: string;
+  /** `webPath` of entry `i` is `webPathPrefix + (webName ?? name)[i]`. */
+  webPathPrefix: string;
+  name: (string | null)[];
+  /** Present when web paths do not end with `name`, such as streamed originals. */
+  webName?: (string | null)[];
+  /** Index into `dictionaries.mimeType`, `-1` when there is no file. */
+  mimeType: number[];
+  size: number[];
+  /** Present when a `checksum` was requested. */
+  checksum?: (string | null)[];
+  /** Indexes of the entries that are EXIF previews (see `PhotoLibraryFile.isPreview`). */
+  previews: number[];
+}
+
+/** A `getLibrary` page in the `'columnar'` format. Entry `i` of every array describes the same asset. */
+export interface LibraryColumns {
+  count: number;
+  /** Repeated strings, referenced by index from the columns of the same name. */
+  dictionaries: {
+    type: PhotoAssetType[];
+    mimeType: string[];
+    albumId: string[];
+  };
+  /** Media store row id. The asset id is `` `${dictionaries.type[type[i]]}:${id[i]}` ``. */
+  id: number[];
+  type: number[];
+  fileName: string[];
+  mimeType: number[];
+  width: number[];
+  height: number[];
+  size: number[];
+  /** Seconds, `0` for images. */
+  duration: number[];
+  /** Milliseconds since the epoch, `0` when unknown. */
+  creationDate: number[];
+  /** Milliseconds since the epoch, `0` when unknown. */
+  modificationDate: number[];
+  /** Index into `dictionaries.albumId`, `-1` when unknown. Present with `includeAlbumData`. */
+  albumId?: number[];
+  /** Present with `includeExif`; `null` for videos and unreadable images. */
+  exif?: (AssetExif | null)[];
+  /** Present with `includeLocation`. */
+  latitude?: (number | null)[];
+  /** Present with `includeLocation`. */
+  longitude?: (number | null)[];
+  thumbnail?: LibraryFileColumn;
+  file?: LibraryFileColumn;
+}
+
+export interface GetLibraryColumnarResult {
+  columns: LibraryColumns;
+  /** Total number of assets matching the query in the library. */
+  totalCount: number;
+  /** Whether more assets are available when using pagination. */
+  hasMore: boolean;
+  /** See `GetLibraryResult.etag`. Android only. */
+  etag?: string;
+}
+
+export interface ConditionalGetLibraryOptions extends GetLibraryOptions {
+  /**
+   * `etag` of a page received earlier with the same options. If neither the library nor the files
+   * the page refers to changed since, a `GetLibraryNotModifiedResult` is returned instead of the
+   * page. Ignored outside Android, where the page is always returned.
+   */
+  ifNoneMatch: string;
+}
+
+/** Returned for `ifNoneMatch` when the page it names is still current. */
+export interface GetLibraryNotModifiedResult {
+  notModified: true;
+  etag: string;
+}
+
+export type TimelineGranularity = 'day' | 'month' | 'year';
+
+export interface GetTimelineBucketsOptions extends Pick<GetLibraryOptions, 'includeImages' | 'includeVideos'> {
+  /** @default 'month' */
+  granularity?: TimelineGranularity;
+}
+
+export interface TimelineBucket {
+  /** `YYYY-MM-DD`, `YYYY-MM` or `YYYY` in the device time zone. */
+  date: string;
+  /** Start of the bucket, in milliseconds since the epoch. */
+  start: number;
+  /** `getLibrary` offset of the first asset in the bucket. */
+  offset: number;
+  count: number;
+}
+
+export interface TimelineBucketsResult {
+  /**
+   * Buckets in library order (newest first) by the date each asset was added, so each `offset` can
+   * be passed straight to `getLibrary`. Assets without a date form their own bucket at the end.
+   */
+  buckets: TimelineBucket[];
+  totalCount: number;
+}
+
+export interface OpenLibrarySessionOptions extends GetLibraryOptions {
+  /**
+   * Seconds of inactivity after which the session is closed. Every page request extends it.
+   * Defaults to `300`.
+   */
+  ttl?: number;
+}
+
+export interface LibrarySession {
+  sessionId: string;
+  /** Number of assets in the snapshot. */
+  totalCount: number;
+  /** When the session expires without further access, in milliseconds since the epoch. */
+  expiresAt: number;
+}
+
+export interface GetLibraryPageOptions {
+  sessionId: string;
+  /** Position in the snapshot of the first asset to return. Defaults to `0`. */
+  offset?: number;
+  /** Maximum number of assets to return. Omit to return the rest of the snapshot. */
+  limit?: number;
+}
+
+export interface LibraryPageResult {
+  /** Present unless the session was opened with `format: 'columnar'`. */
+  assets?: PhotoLibraryAsset[];
+  /** Present when the session was opened with `format: 'columnar'`. */
+  columns?: LibraryColumns;
+  /** Number of assets in the snapshot. Assets deleted since then are skipped in pages. */
+  totalCount: number;
+  hasMore: boolean;
+  expiresAt: number;
+}
+
+export interface LibrarySnapshot {
+  /** `false` when no page or album list was saved yet. */
+  found: boolean;
+  /**
+   * The last warm start page served by `getLibrary` (see `getCachedLibrarySnapshot`), in the format
+   * it was requested in.
+   */
+  assets?: PhotoLibraryAsset[];
+  columns?: LibraryColumns;
+  totalCount?: number;
+  hasMore?: boolean;
+  /** When the page was saved, in milliseconds since the epoch. */
+  savedAt?: number;
+  /** The last album list served by `getAlbums`. */
+  albums?: PhotoLibraryAlbum[];
+  albumsSavedAt?: number;
+}
+
+export interface LibrarySnapshotChangedEvent {
+  /** Ids that entered the first page. Present when the page was revalidated. */
+  added?: string[];
+  /** Ids that left the first page. */
+  removed?: string[];
+  /** Ids still on the first page whose content was modified. */
+  changed?: string[];
+  totalCount?: number;
+  hasMore?: boolean;
+  /** Whether the album list changed. `albums` holds the new list when it did. */
+  albumsChanged?: boolean;
+  albums?: PhotoLibraryAlbum[];
+}
+
+export interface HashIndexStatus {
+  /** Whether background indexing is running. */
+  running: boolean;
+  /** Number of images with a stored perceptual hash. */
+  indexed: number;
+  /** Images still to hash in the current run. */
+  pending: number;
+}
+
+export interface HashIndexProgressEvent {
+  indexed: number;
+  pending: number;
+  /** Images whose thumbnail could not be loaded in this run. They are retried by the next run. */
+  failed: number;
+  /** Whether the run finished or was stopped. */
+  done: boolean;
+}
+
+export interface FindSimilarAssetsOptions {
+  /** Image to find near duplicates of. Hashed on demand when it is not indexed yet. */
+  id?: string;
+  /** Group every indexed image into clusters of near duplicates instead. */
+  all?: boolean;
+  /**
+   * Maximum number of differing bits (0-64) between two 64 bit perceptual hashes. `0` matches
+   * re-encoded or resized copies, around `10` also catches light edits.
+   *
+   * @default 10
+   */
+  threshold?: number;
+}
+
+export interface SimilarAsset {
+  id: string;
+  /** Number of differing hash bits. */
+  distance: number;
+}
+
+export interface FindSimilarAssetsResult extends HashIndexStatus {
+  /** With `id`: the other images within the threshold, closest first. */
+  matches?: SimilarAsset[];
+  /** With `all`: clusters of two or more images linked by matches, largest first. */
+  groups?: { ids: string[] }[];
 }
 
 export interface PhotoLibraryAlbum {
@@ -102,6 +406,110 @@ export interface PhotoLibraryAlbum {
   assetCount: number;
 }
 
+export interface GetVideoFramesOptions {
+  /** Identifier of a video asset, either from the library or from `pickMedia`. */
+  id: string;
+  /**
+   * Number of frames to extract, evenly spread over the duration (at most `100`).
+   * Ignored when `timestamps` is provided.
+   */
+  count?: number;
+  /** Explicit frame positions in seconds (at most `100`). */
+  timestamps?: number[];
+  /** Maximum width of each frame. Defaults to `512`. */
+  width?: number;
+  /** Maximum height of each frame. Defaults to `384`. */
+  height?: number;
+  /** JPEG quality for the frames (0-1). Defaults to `0.5`. */
+  quality?: number;
+}
+
+export interface VideoFrame extends PhotoLibraryFile {
+  /** Requested position of the frame in seconds. The closest key frame is returned. */
+  time: number;
+}
+
+export type ExportImageFormat = 'jpeg' | 'png' | 'webp';
+
+export interface ExportImageOptions {
+  /** Identifier of an image asset, either from the library or from `pickMedia`. */
+  id: string;
+  /** Maximum width of the exported image. `0` or omitted means unbounded. Images are never upscaled. */
+  maxWidth?: number;
+  /** Maximum height of the exported image. `0` or omitted means unbounded. Images are never upscaled. */
+  maxHeight?: number;
+  /** Output format. Defaults to `'jpeg'`. */
+  format?: ExportImageFormat;
+  /** Encoder quality (0-1), ignored for PNG. Defaults to `0.9`. */
+  quality?: number;
+}
+
+export interface ExportedImage extends PhotoLibraryFile {
+  /** Width of the exported image after orientation and scaling. */
+  width: number;
+  /** Height of the exported image after orientation and scaling. */
+  height: number;
+}
+
+export interface ExportAssetsOptions {
+  /** Library or picked identifiers to export. Duplicates are exported once. */
+  ids: string[];
+  /**
+   * Directory to copy the originals into: an absolute path, a `file://` URL, or a path relative to
+   * the plugin's export cache. A relative path must not leave the export cache through `..`.
+   * Created when missing. Exporting to the same directory again skips assets that were already
+   * exported and have not changed since. Exported files are never evicted by the plugin; delete
+   * them when they are no longer needed.
+   */
+  destinationDir: string;
+  /**
+   * Maximum number of files copied at once, capped at the native export pool size. All exports
+   * share that pool, so they never hold up picks or other copies.
+   *
+   * @default 3
+   */
+  concurrency?: number;
+}
+
+export interface ExportedAsset {
+  id: string;
+  /** Absolute path of the exported file. Absent when the export failed. */
+  path?: string;
+  webPath?: string;
+  size?: number;
+  /** `true` when the file was already exported by an earlier call and was kept. */
+  skipped?: boolean;
+  /** Why the asset could not be exported. Other assets are not affected. */
+  error?: string;
+}
+
+export interface ExportAssetsCounters {
+  /** Number of assets processed so far, in any outcome. */
+  completed: number;
+  total: number;
+  exported: number;
+  skipped: number;
+  failed: number;
+  /** Bytes copied by this call. Skipped files are not counted. */
+  bytes: number;
+  /** Average copy throughput since the call started. */
+  bytesPerSecond: number;
+}
+
+export interface ExportAssetsProgressEvent extends ExportAssetsCounters {
+  /** Identifier of the asset that just finished. */
+  id: string;
+  /** Position of the asset in `ids`. */
+  index: number;
+  error?: string;
+}
+
+export interface ExportAssetsResult extends ExportAssetsCounters {
+  /** One entry per distinct id, in request order. */
+  items: ExportedAsset[];
+  durationMs: number;
+}
+
 export interface PickMediaOptions {
   /**
    * Maximum number of items the user can select. Use `0` to allow unlimited selection.
@@ -118,12 +526,210 @@ export interface PickMediaOptions {
   thumbnailHeight?: number;
   /** JPEG quality for generated thumbnails (0-1). Defaults to `0.7`. */
   thumbnailQuality?: number;
+  /**
+   * When `true`, each picked file includes its SHA-256 `checksum`, computed while it is copied.
+   * Android only. Defaults to `false`.
+   */
+  checksum?: boolean;
+  /**
+   * When `true`, picked files are hashed while they are copied and content that was picked before
+   * reuses its cached copy. Without it (and without `checksum`) each pick is copied on its own,
+   * which skips hashing and lets large files be copied without passing through the app. Android
+   * only. Defaults to `false`.
+   */
+  deduplicate?: boolean;
+}
+
+export interface PickMediaProgressEvent {
+  /** Position of the item in the user's selection. */
+  index: number;
+  /** Number of selected items processed so far. */
+  completed: number;
+  /** Number of selected items being processed. */
+  total: number;
+  /** Identifier of the processed item, absent when it could not be imported. */
+  id?: string;
 }
 
 export interface PickMediaResult {
   assets: PhotoLibraryAsset[];
 }
 
+export interface CopyStats {
+  /** Number of files copied into the plugin cache. */
+  count: number;
+  /** Total bytes copied. */
+  bytes: number;
+  /** Total time spent copying, in milliseconds. */
+  totalMs: number;
+  /** Average throughput across all copies. */
+  bytesPerSecond: number;
+  /** Throughput of the most recent copy. */
+  lastBytesPerSecond: number;
+  /** Copies performed with a zero-copy channel transfer. */
+  channelCopies: number;
+  /** Copies that fell back to buffered streams because the source was not seekable. */
+  streamCopies: number;
+}
+
+export interface FileCacheStats {
+  /** Configured budget in bytes, `0` when eviction is disabled. */
+  maxBytes: number;
+  /** Bytes currently stored in the full resolution cache. */
+  bytes: number;
+  /** Number of cached files. */
+  entries: number;
+  /** Number of files evicted to stay under budget. */
+  evictions: number;
+  /** Total bytes freed by evictions. */
+  evictedBytes: number;
+}
+
+export interface ExecutorStats {
+  /** Number of worker threads. */
+  threads: number;
+  /** Tasks currently running. */
+  active: number;
+  /** Tasks waiting for a thread. */
+  queued: number;
+  /** Highest queue depth observed. */
+  maxQueued: number;
+  submitted: number;
+  completed: number;
+  /** Total time tasks spent waiting in the queue, in milliseconds. */
+  totalWaitMs: number;
+  averageWaitMs: number;
+  maxWaitMs: number;
+  /** Total time spent running tasks, in milliseconds. */
+  totalRunMs: number;
+}
+
+export interface HistogramBucket {
+  /** Upper bound of the bucket in milliseconds. Buckets grow in powers of two. */
+  upperMs: number;
+  count: number;
+}
+
+export interface StageStats {
+  count: number;
+  totalMs: number;
+  averageMs: number;
+  maxMs: number;
+  /** Percentiles are the upper bound of the histogram bucket they fall in. */
+  p50Ms: number;
+  p90Ms: number;
+  p99Ms: number;
+  /** Non-empty histogram buckets. */
+  histogram: HistogramBucket[];
+}
+
+export interface CacheCounterStats {
+  hits: number;
+  misses: number;
+  hitRate: number;
+}
+
+/**
+ * Recently served `getLibrary` pages, kept in memory until the library changes. Cached files being
+ * evicted or memory pressure drop every page.
+ */
+export interface PageCacheStats {
+  entries: number;
+  /** Characters of JSON held. */
+  chars: number;
+  /** Requests served a cached page. */
+  hits: number;
+  /** Requests answered with `notModified`. */
+  notModified: number;
+  /** Requests that built their page. */
+  misses: number;
+  /** Times every page was dropped because the app's cache was cleared from outside the plugin. */
+  missingFiles: number;
+}
+
+/**
+ * How the plugin reacted to system memory pressure (`onTrimMemory`). Caches are shrunk according to
+ * the trim level. From low pressure on, background work (thumbnail upgrades, hash indexing and
+ * snapshot revalidation) is paused until 30 seconds after the last signal.
+ */
+export interface MemoryPressureStats {
+  /** Trim signals received. */
+  trims: number;
+  /** Android trim level of the last signal, `-1` if none was received. */
+  lastTrimLevel: number;
+  lastTrimAt: number;
+  /** Number of times background work went from running to paused. */
+  pauses: number;
+  paused: boolean;
+  /** Background tasks skipped or deferred because of a pause. */
+  skippedBackgroundTasks: number;
+  /** Cache entries and sessions released by trimming. */
+  releasedEntries: number;
+}
+
+/** Android only: the packed thumbnail store enabled with the `packedThumbnails` config option. */
+export interface ThumbnailPackStats {
+  entries: number;
+  segments: number;
+  /** Bytes of thumbnails in the pack. */
+  liveBytes: number;
+  /** Bytes of evicted or replaced thumbnails not yet reclaimed by compaction. */
+  deadBytes: number;
+  /** Configured budget in bytes, `0` when eviction is disabled. */
+  maxBytes: number;
+  evictions: number;
+  compactions: number;
+  /** Dead bytes reclaimed by compaction. */
+  reclaimedBytes: number;
+}
+
+export interface PerformanceStats {
+  copy: CopyStats;
+  /**
+   * Time spent per stage. Each stage is also recorded as a `PhotoLibrary.<stage>` section in
+   * system traces (Perfetto / systrace).
+   */
+  stages: {
+    /** MediaStore queries, including the count query. */
+    query: StageStats;
+    /** Reading cursor rows into asset objects, one sample per page. */
+    rowDecode: StageStats;
+    /** Loading thumbnail bitmaps and reading picked media dimensions. */
+    bitmapLoad: StageStats;
+    scale: StageStats;
+    /** JPEG encoding of thumbnails. */
+    compress: StageStats;
+    /** Writing encoded thumbnails to disk. */
+    write: StageStats;
+    /** Copying originals and picked media into the cache. */
+    copy: StageStats;
+  };
+  caches: {
+    thumbnail: CacheCounterStats;
+    file: CacheCounterStats;
+    exif: CacheCounterStats;
+  };
+  /** Bytes written to the plugin cache by copies and thumbnail encoding. */
+  bytesWritten: number;
+  fileCache: FileCacheStats;
+  /**
+   * Worker pools: `query` runs MediaStore queries and builds pages, `decode` runs bitmap work
+   * (thumbnails, frames, exports), `io` runs file copies, `metadata` runs EXIF reads and `export` runs
+   * `exportAssets` copies.
+   */
+  executors: {
+    query: ExecutorStats;
+    decode: ExecutorStats;
+    io: ExecutorStats;
+    metadata: ExecutorStats;
+    export: ExecutorStats;
+  };
+  memory: MemoryPressureStats;
+  /** Present when the `packedThumbnails` config option is enabled. */
+  thumbnailPack?: ThumbnailPackStats;
+  pageCache: PageCacheStats;
+}
+
 export interface PhotoLibraryPlugin {
   /** Returns the current authorization status without prompting the user. */
   checkAuthorization(): Promise<{ state: PhotoLibraryAuthorizationState }>;
@@ -131,26 +737,160 @@ export interface PhotoLibraryPlugin {
   requestAuthorization(): Promise<{ state: PhotoLibraryAuthorizationState }>;
   /** Retrieves the available albums. */
   getAlbums(): Promise<{ albums: PhotoLibraryAlbum[] }>;
-  /** Retrieves library assets along with URLs that can be displayed in the web view. */
+  /**
+   * Retrieves library assets along with URLs that can be displayed in the web view. The columnar
+   * format is Android only; elsewhere a columnar request resolves with `assets` instead of `columns`.
+   */
+  getLibrary(
+    options: ConditionalGetLibraryOptions & { format: 'columnar' },
+  ): Promise<GetLibraryColumnarResult | GetLibraryResult | GetLibraryNotModifiedResult>;
+  getLibrary(options: ConditionalGetLibraryOptions): Promise<GetLibraryResult | GetLibraryNotModifiedResult>;
+  getLibrary(options: GetLibraryOptions & { format: 'columnar' }): Promise<GetLibraryColumnarResult | GetLibraryResult>;
   getLibrary(options?: GetLibraryOptions): Promise<GetLibraryResult>;
+  /**
+   * Returns the first page and album list persisted by the last `getLibrary` and `getAlbums` calls,
+   * without querying the library, so a cold start can render immediately. Only `getLibrary` pages
+   * with `offset` 0, a `limit` of at most 500, no full resolution data and no progressive thumbnails
+   * are persisted, and the page is left out when its thumbnails were removed since. Unless
+   * `revalidate` is `false`, the snapshot is then checked against the media store in the
+   * background and `librarySnapshotChanged` is emitted if it is out of date. Android only.
+   */
+  getCachedLibrarySnapshot(options?: { revalidate?: boolean }): Promise<LibrarySnapshot>;
+  /**
+   * Snapshots the ordered list of assets matching `options` so it can be paged with
+   * `getLibraryPage`. Pages come from the snapshot, so assets added or removed while scrolling do
+   * not shift later pages, and no page re-runs the count or the sorted query. `offset` and `limit`
+   * are ignored here. Android only.
+   */
+  openLibrarySession(options?: OpenLibrarySessionOptions): Promise<LibrarySession>;
+  /**
+   * Counts assets per day, month or year for date scrubbers, in one pass over the library. The
+   * result is cached natively until the library changes. Android only.
+   */
+  getTimelineBuckets(options?: GetTimelineBucketsOptions): Promise<TimelineBucketsResult>;
+  /** Returns a page of a session opened with `openLibrarySession`. Android only. */
+  getLibraryPage(options: GetLibraryPageOptions): Promise<LibraryPageResult>;
+  /** Releases a session before its TTL expires. Android only. */
+  closeLibrarySession(options: { sessionId: string }): Promise<void>;
+  /**
+   * Starts hashing library images in the background so `findSimilarAssets` can find duplicates
+   * and near duplicates. Hashes are computed natively from small system thumbnails and persisted
+   * with the version of each image, so later runs, including after an app restart, only hash new
+   * or edited images. Progress is reported through `hashIndexProgress`. Calling it while a run is
+   * still stopping keeps that run going. Android only.
+   */
+  startHashIndexing(): Promise<HashIndexStatus>;
+  /** Stops background indexing after the current batch. Android only. */
+  stopHashIndexing(): Promise<HashIndexStatus>;
+  /**
+   * Looks up near duplicates in the perceptual hash index: of one image with `id`, or across the
+   * whole index with `all`. Images not indexed yet are not found. Android only.
+   */
+  findSimilarAssets(options: FindSimilarAssetsOptions): Promise<FindSimilarAssetsResult>;
   /**
    * Retrieves a displayable URL for the full resolution version of the asset.
    * If you already called `getLibrary` with `includeFullResolutionData`, you normally
    * do not need this method.
    */
-  getPhotoUrl(options: { id: string }): Promise<PhotoLibraryFile>;
+  getPhotoUrl(options: {
+    id: string;
+    /**
+     * `'stream'` returns a web view URL that reads the original in place (with byte range support)
+     * instead of copying it into the cache. `path` is then the source content URI.
+     * Android only. Defaults to `'copy'`.
+     */
+    mode?: FullResolutionMode;
+    /** Include the SHA-256 `checksum` of the copied file. Ignored in `'stream'` mode. Android only. */
+    checksum?: boolean;
+  }): Promise<PhotoLibraryFile>;
   /** Retrieves a displayable URL for a resized thumbnail of the asset. */
   getThumbnailUrl(options: {
     id: string;
     width?: number;
     height?: number;
     quality?: number;
+    /**
+     * Return the embedded EXIF preview first and upgrade through `thumbnailUpdated`.
+     * Android only. Defaults to `false`.
+     */
+    progressive?: boolean;
   }): Promise<PhotoLibraryFile>;
+  /**
+   * Extracts several scaled frames from a video, for scrubber previews or filmstrips. Frames are
+   * cached, so repeated calls with the same positions and size are cheap. Android only.
+   */
+  getVideoFrames(options: GetVideoFramesOptions): Promise<{ frames: VideoFrame[] }>;
+  /**
+   * Resizes and re-encodes an image natively, for example before an upload. The original is decoded
+   * with sampling, rotated according to its EXIF orientation and written to the app cache. The file
+   * is reused while the image is unchanged; once it is edited, the next export replaces it. Android only.
+   */
+  exportImage(options: ExportImageOptions): Promise<ExportedImage>;
+  /**
+   * Copies the originals of many assets into a directory, for backups. Ids are resolved in batches
+   * and copied in parallel; `exportAssetsProgress` is emitted after each asset. A failed asset is
+   * reported in its item without stopping the others. Android only.
+   */
+  exportAssets(options: ExportAssetsOptions): Promise<ExportAssetsResult>;
   /**
    * Opens the native system picker so the user can select media without granting full photo library access.
    * The selected files are copied into the application cache and returned with portable URLs.
+   * On Android, picked identifiers stay usable, across restarts, until `releasePickedAssets` is called.
+   * If the pick fails, the copies already made for it are deleted again.
    */
   pickMedia(options?: PickMediaOptions): Promise<PickMediaResult>;
+  /**
+   * Forgets identifiers returned by `pickMedia` and deletes their cached copies. Returns how many
+   * of the identifiers were known. Android only.
+   */
+  releasePickedAssets(options: { ids: string[] }): Promise<{ released: number }>;
+
+  /** Returns native performance counters collected since the plugin was loaded or last reset. Android only. */
+  getPerformanceStats(): Promise<PerformanceStats>;
+  /** Clears the counters reported by `getPerformanceStats`. Android only. */
+  resetPerformanceStats(): Promise<void>;
+
+  /**
+   * Emitted when a progressive thumbnail request finished generating the full quality thumbnail.
+   */
+  addListener(
+    eventName: 'thumbnailUpdated',
+    listenerFunc: (event: ThumbnailUpdatedEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Emitted by `pickMedia` each time one of the selected items has been copied and described.
+   * Android only.
+   */
+  addListener(
+    eventName: 'pickMediaProgress',
+    listenerFunc: (event: PickMediaProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Emitted after `getCachedLibrarySnapshot` when the persisted snapshot no longer matches the
+   * library. The snapshot is updated before the event, so calling `getCachedLibrarySnapshot`
+   * again returns the fresh page. Android only.
+   */
+  addListener(
+    eventName: 'librarySnapshotChanged',
+    listenerFunc: (event: LibrarySnapshotChangedEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /** Emitted by `exportAssets` each time an asset was exported, skipped or failed. Android only. */
+  addListener(
+    eventName: 'exportAssetsProgress',
+    listenerFunc: (event: ExportAssetsProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /** Emitted after each batch of images hashed by `startHashIndexing`. Android only. */
+  addListener(
+    eventName: 'hashIndexProgress',
+    listenerFunc: (event: HashIndexProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /** Removes all listeners registered for this plugin. */
+  removeAllListeners(): Promise<void>;
 
   /**
    * Get the native Capacitor plugin version
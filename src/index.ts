@@ -1,10 +1,80 @@
 import { registerPlugin } from '@capacitor/core';
 
-import type { PhotoLibraryPlugin } from './definitions';
+import type {
+  GetLibraryColumnarResult,
+  GetLibraryNotModifiedResult,
+  GetLibraryOptions,
+  GetLibraryPageOptions,
+  GetLibraryResult,
+  LibraryPageResult,
+  LibrarySnapshot,
+  PhotoLibraryPlugin,
+} from './definitions';
 
-const PhotoLibrary = registerPlugin<PhotoLibraryPlugin>('PhotoLibrary', {
+const NativePhotoLibrary = registerPlugin<PhotoLibraryPlugin>('PhotoLibrary', {
   web: () => import('./web').then((m) => new m.PhotoLibraryWeb()),
 });
 
+type EncodedPage = { assetsJson?: string; columnsJson?: string; assetsUrl?: string; columnsUrl?: string };
+
+/**
+ * Android returns library pages pre-encoded as `assetsJson` (or `columnsJson` for the columnar
+ * format), which parses much faster than the bridge's own object decoding for large pages. Large
+ * pages are not sent through the bridge at all: only `assetsUrl` or `columnsUrl` is, and the page
+ * is fetched from the plugin's request handler so it is encoded and parsed once. Decode either form
+ * here so callers get `assets` or `columns`.
+ */
+async function decodePage<T>(result: T & EncodedPage): Promise<T> {
+  const { assetsJson, columnsJson, assetsUrl, columnsUrl, ...rest } = result;
+  if (typeof columnsUrl === 'string') {
+    return { ...rest, columns: await fetchPage(columnsUrl) } as unknown as T;
+  }
+  if (typeof assetsUrl === 'string') {
+    return { ...rest, assets: await fetchPage(assetsUrl) } as unknown as T;
+  }
+  if (typeof columnsJson === 'string') {
+    return { ...rest, columns: JSON.parse(columnsJson) } as unknown as T;
+  }
+  if (typeof assetsJson === 'string') {
+    return { ...rest, assets: JSON.parse(assetsJson) } as unknown as T;
+  }
+  return result;
+}
+
+/** Each handed off page can be read once, right after the call that returned its URL. */
+async function fetchPage(url: string): Promise<unknown> {
+  const response = await fetch(url);
+  if (!response.ok) {
+    throw new Error(`Failed to read library page (${response.status})`);
+  }
+  return response.json();
+}
+
+async function getLibrary(
+  options?: GetLibraryOptions,
+): Promise<GetLibraryResult | GetLibraryColumnarResult | GetLibraryNotModifiedResult> {
+  return decodePage((await NativePhotoLibrary.getLibrary(options)) as GetLibraryResult & EncodedPage);
+}
+
+async function getLibraryPage(options: GetLibraryPageOptions): Promise<LibraryPageResult> {
+  return decodePage(await NativePhotoLibrary.getLibraryPage(options));
+}
+
+async function getCachedLibrarySnapshot(options?: { revalidate?: boolean }): Promise<LibrarySnapshot> {
+  return decodePage(await NativePhotoLibrary.getCachedLibrarySnapshot(options));
+}
+
+const decodedMethods: Record<string, unknown> = { getLibrary, getLibraryPage, getCachedLibrarySnapshot };
+
+const PhotoLibrary = new Proxy(NativePhotoLibrary, {
+  get(target, prop, receiver) {
+    if (typeof prop === 'string' && Object.prototype.hasOwnProperty.call(decodedMethods, prop)) {
+      return decodedMethods[prop];
+    }
+    return Reflect.get(target, prop, receiver);
+  },
+}) as PhotoLibraryPlugin;
+
 export * from './definitions';
+export { columnarAsset } from './columnar';
 export { PhotoLibrary };
@@ -1,14 +1,31 @@
 import { WebPlugin } from '@capacitor/core';
 
 import type {
+  ExportAssetsOptions,
+  ExportAssetsResult,
+  ExportedImage,
+  ExportImageOptions,
+  FindSimilarAssetsOptions,
+  FindSimilarAssetsResult,
+  FullResolutionMode,
   GetLibraryOptions,
-  GetLibraryResult,
+  GetLibraryPageOptions,
+  GetTimelineBucketsOptions,
+  GetVideoFramesOptions,
+  HashIndexStatus,
+  LibraryPageResult,
+  LibrarySession,
+  LibrarySnapshot,
+  OpenLibrarySessionOptions,
   PhotoLibraryAlbum,
   PhotoLibraryAuthorizationState,
   PhotoLibraryFile,
+  PerformanceStats,
   PickMediaOptions,
   PickMediaResult,
   PhotoLibraryPlugin,
+  TimelineBucketsResult,
+  VideoFrame,
 } from './definitions';
 
 export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
@@ -24,11 +41,43 @@ export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
     throw this.unimplemented('getAlbums');
   }
 
-  async getLibrary(_options?: GetLibraryOptions): Promise<GetLibraryResult> {
+  async getLibrary(_options?: GetLibraryOptions): Promise<never> {
     throw this.unimplemented('getLibrary');
   }
 
-  async getPhotoUrl(_options: { id: string }): Promise<PhotoLibraryFile> {
+  async getCachedLibrarySnapshot(_options?: { revalidate?: boolean }): Promise<LibrarySnapshot> {
+    throw this.unimplemented('getCachedLibrarySnapshot');
+  }
+
+  async getTimelineBuckets(_options?: GetTimelineBucketsOptions): Promise<TimelineBucketsResult> {
+    throw this.unimplemented('getTimelineBuckets');
+  }
+
+  async openLibrarySession(_options?: OpenLibrarySessionOptions): Promise<LibrarySession> {
+    throw this.unimplemented('openLibrarySession');
+  }
+
+  async getLibraryPage(_options: GetLibraryPageOptions): Promise<LibraryPageResult> {
+    throw this.unimplemented('getLibraryPage');
+  }
+
+  async closeLibrarySession(_options: { sessionId: string }): Promise<void> {
+    throw this.unimplemented('closeLibrarySession');
+  }
+
+  async startHashIndexing(): Promise<HashIndexStatus> {
+    throw this.unimplemented('startHashIndexing');
+  }
+
+  async stopHashIndexing(): Promise<HashIndexStatus> {
+    throw this.unimplemented('stopHashIndexing');
+  }
+
+  async findSimilarAssets(_options: FindSimilarAssetsOptions): Promise<FindSimilarAssetsResult> {
+    throw this.unimplemented('findSimilarAssets');
+  }
+
+  async getPhotoUrl(_options: { id: string; mode?: FullResolutionMode; checksum?: boolean }): Promise<PhotoLibraryFile> {
     throw this.unimplemented('getPhotoUrl');
   }
 
@@ -37,14 +86,39 @@ export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
     width?: number | undefined;
     height?: number | undefined;
     quality?: number | undefined;
+    progressive?: boolean | undefined;
   }): Promise<PhotoLibraryFile> {
     throw this.unimplemented('getThumbnailUrl');
   }
 
+  async getVideoFrames(_options: GetVideoFramesOptions): Promise<{ frames: VideoFrame[] }> {
+    throw this.unimplemented('getVideoFrames');
+  }
+
+  async exportImage(_options: ExportImageOptions): Promise<ExportedImage> {
+    throw this.unimplemented('exportImage');
+  }
+
+  async exportAssets(_options: ExportAssetsOptions): Promise<ExportAssetsResult> {
+    throw this.unimplemented('exportAssets');
+  }
+
   async pickMedia(_options?: PickMediaOptions): Promise<PickMediaResult> {
     throw this.unimplemented('pickMedia');
   }
 
+  async releasePickedAssets(_options: { ids: string[] }): Promise<{ released: number }> {
+    throw this.unimplemented('releasePickedAssets');
+  }
+
+  async getPerformanceStats(): Promise<PerformanceStats> {
+    throw this.unimplemented('getPerformanceStats');
+  }
+
+  async resetPerformanceStats(): Promise<void> {
+    throw this.unimplemented('resetPerformanceStats');
+  }
+
   async getPluginVersion(): Promise<{ version: string }> {
     return { version: 'web' };
   }